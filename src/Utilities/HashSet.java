@@ -96,7 +96,7 @@ public class HashSet<T> {
         createLists();
         numItems = 0;
         for (int i = 0; i < oldItems.length; i++) {
-            UnorderedArrayList<T> list = items[i];
+            UnorderedArrayList<T> list = oldItems[i];
             int listSize = list.size();
             for (int j = 0; j < listSize; j++) {
                 add(list.get(j));
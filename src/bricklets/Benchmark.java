@@ -62,10 +62,10 @@ public class Benchmark extends Context {
         BoxEntity leftBounds = new BoxEntity(0, height / 2, borderThickness, height);
         BoxEntity rightBounds = new BoxEntity(width, height / 2, borderThickness, height);
 
-        world.addEntity(topBounds);
-        world.addEntity(bottomBounds);
-        world.addEntity(leftBounds);
-        world.addEntity(rightBounds);
+        world.addStaticEntity(topBounds);
+        world.addStaticEntity(bottomBounds);
+        world.addStaticEntity(leftBounds);
+        world.addStaticEntity(rightBounds);
     }
 
     @Override
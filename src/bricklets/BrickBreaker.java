@@ -106,10 +106,10 @@ public class BrickBreaker extends Context {
         leftBounds = new BoxEntity(0, height / 2, borderThickness, height);
         rightBounds = new BoxEntity(width, height / 2, borderThickness, height);
 
-        world.addEntity(topBounds);
-        world.addEntity(bottomBounds);
-        world.addEntity(leftBounds);
-        world.addEntity(rightBounds);
+        world.addStaticEntity(topBounds);
+        world.addStaticEntity(bottomBounds);
+        world.addStaticEntity(leftBounds);
+        world.addStaticEntity(rightBounds);
     }
 
     private void initBricks() {
@@ -139,8 +139,6 @@ public class BrickBreaker extends Context {
     @Override
     protected void updateContext(long gameTime, double mouseDeltaX, double mouseDeltaY, double
             mouseWheelRotation) {
-        //TODO: Entities should be automatically updated from the world
-        sensor.update(gameTime - currentTime);
         currentTime = gameTime;
         if (brickCount == 0) {
             init();
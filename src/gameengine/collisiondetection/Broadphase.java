@@ -0,0 +1,99 @@
+package gameengine.collisiondetection;
+
+import Utilities.UnorderedArrayList;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+/**
+ * Stores the entities of a {@link World} and finds the collisions between them. Every update
+ * the collisions are resolved in the order that they happen, each one is passed to
+ * {@link Context#handleCollision(Collision)} at the time it happens.
+ *
+ * @author davidrusu
+ */
+public interface Broadphase {
+
+    /**
+     * Adds the {@link Entity} to this broadphase, the {@link Entity} must not be in a world.
+     *
+     * @param entity the {@link Entity} to add
+     */
+    void addEntity(Entity entity);
+
+    /**
+     * Adds all of the entities to this broadphase, this lets the broadphase build its structure
+     * for all of them at once instead of one {@link Entity} at a time.
+     *
+     * @param entities the entities to add, none of them can be in a world
+     */
+    void addEntities(Entity[] entities);
+
+    /**
+     * Removes the {@link Entity} from this broadphase, this can be called while the collisions
+     * are being handled.
+     *
+     * @param entity the {@link Entity} to remove
+     */
+    void removeEntity(Entity entity);
+
+    /**
+     * Updates the motions of the entities and then moves them forward by the elapsed time,
+     * handling every collision that happens along the way.
+     *
+     * @param elapsedTime  the amount of time to update by
+     * @param worldEffects the {@link WorldEffect WorldEffects} to apply to the entities
+     * @param context      the {@link Context} that handles the collisions
+     */
+    void update(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects, Context
+            context);
+
+    void clear();
+
+    /**
+     * Draws the entities that could be visible in the region.
+     */
+    void draw(double minX, double maxX, double minY, double maxY, Renderer renderer);
+
+    /**
+     * Draws the internal structure of this broadphase, used for debugging.
+     */
+    void drawStructure(Renderer renderer, RColor color);
+
+    int getEntityCount();
+
+    /**
+     * Copies the entities of this broadphase into the array.
+     *
+     * @param entities the array to copy the entities into, it must have room for
+     *                 {@link #getEntityCount()} entities
+     * @return the number of entities copied
+     */
+    int copyEntities(Entity[] entities);
+
+    /**
+     * Adds the entities that match the type mask and could overlap the region to the result
+     * with {@link QueryResult#addIfOverlapping}, the result isn't cleared first.
+     *
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include
+     */
+    void queryRegion(double minX, double minY, double maxX, double maxY, int typeMask,
+                     QueryResult result);
+
+    /**
+     * Offers the entities that match the type mask to the result with
+     * {@link QueryResult#offerIfMatching}, skipping the parts of the structure that are farther
+     * than {@link QueryResult#getMaxDistance()}. The result isn't cleared first.
+     *
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include
+     */
+    void queryNearest(double x, double y, int typeMask, QueryResult result);
+
+    /**
+     * Checks the entities against the running cast with {@link CastResult#castEntity(Entity)},
+     * skipping the parts of the structure that {@link CastResult#getEntryTime} rules out.
+     */
+    void cast(CastResult result);
+}
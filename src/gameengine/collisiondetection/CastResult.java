@@ -0,0 +1,209 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.entities.Entity;
+import gameengine.geometry.Vector2D;
+
+/**
+ * Holds the first hit of a raycast or a shape cast of the {@link World}. A result is meant to be
+ * kept and reused, each cast resets it.
+ *
+ * While a cast is running this also holds what is being cast, the structures that are traversed
+ * check the entities with {@link #castEntity(Entity)} and skip the regions that
+ * {@link #getEntryTime(double, double, double, double)} says are beyond the current best hit.
+ *
+ * @author davidrusu
+ */
+public class CastResult {
+    private double originX, originY, velocityX, velocityY, halfWidth, halfHeight;
+    private Entity probe;
+    private int typeMask;
+    private long[] layerMask;
+    private Entity entity;
+    private double time, normalX, normalY;
+    private Collision tempCollision = new Collision();
+    private Vector2D tempNormal = new Vector2D();
+
+    /**
+     * @return true if the cast hit an entity
+     */
+    public boolean hasHit() {
+        return entity != null;
+    }
+
+    /**
+     * @return the entity that was hit or null if nothing was hit
+     */
+    public Entity getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the time of the hit, for a raycast this is the distance along the ray
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @return the x component of the unit normal of the surface that was hit, facing back
+     * against the cast
+     */
+    public double getNormalX() {
+        return normalX;
+    }
+
+    public double getNormalY() {
+        return normalY;
+    }
+
+    /**
+     * @return the x position of the ray, or of the center of the cast shape, at the time of the
+     * hit
+     */
+    public double getX() {
+        return originX + velocityX * time;
+    }
+
+    public double getY() {
+        return originY + velocityY * time;
+    }
+
+    public double getVelocityX() {
+        return velocityX;
+    }
+
+    public double getVelocityY() {
+        return velocityY;
+    }
+
+    void beginRaycast(double originX, double originY, double directionX, double directionY,
+                      double maxDistance, int typeMask, long[] layerMask) {
+        begin(originX, originY, directionX, directionY, maxDistance, typeMask, layerMask);
+        probe = null;
+        halfWidth = 0;
+        halfHeight = 0;
+    }
+
+    void beginShapeCast(Entity probe, double velocityX, double velocityY, double maxTime, int
+            typeMask, long[] layerMask) {
+        begin(probe.getX(), probe.getY(), velocityX, velocityY, maxTime, typeMask, layerMask);
+        this.probe = probe;
+        halfWidth = probe.getHalfWidth();
+        halfHeight = probe.getHalfHeight();
+    }
+
+    private void begin(double originX, double originY, double velocityX, double velocityY,
+                       double maxTime, int typeMask, long[] layerMask) {
+        this.originX = originX;
+        this.originY = originY;
+        this.velocityX = velocityX;
+        this.velocityY = velocityY;
+        this.typeMask = typeMask;
+        this.layerMask = layerMask;
+        entity = null;
+        time = maxTime;
+        normalX = 0;
+        normalY = 0;
+    }
+
+    void end() {
+        probe = null;
+        layerMask = null;
+    }
+
+    /**
+     * Finds the time that the cast enters the region, the region is grown by the half size of
+     * the cast shape so that the center of the shape can be traced through it like a ray.
+     *
+     * @return the time the cast enters the region, 0 if it starts inside of it or
+     * {@link Shape#NO_COLLISION} if it misses it or enters it after the current best hit
+     */
+    public double getEntryTime(double minX, double minY, double maxX, double maxY) {
+        return getEntryTime(minX - halfWidth, minY - halfHeight, maxX + halfWidth, maxY +
+                halfHeight, originX, originY, velocityX, velocityY, time);
+    }
+
+    /**
+     * Checks the entity against the cast, keeping it if it is hit before the current best hit.
+     * The entity being cast and the entities outside of the type mask or the layer mask are
+     * skipped.
+     */
+    public void castEntity(Entity target) {
+        if (target == probe || typeMask != World.ALL_TYPES && (typeMask & target
+                .getEntityTypeBitMask()) == 0) {
+            return;
+        }
+        if (layerMask != null && !CollisionLayers.isInMask(layerMask, target.getLayer())) {
+            return;
+        }
+        double targetX = target.getX(), targetY = target.getY();
+        double targetHalfWidth = target.getHalfWidth(), targetHalfHeight = target.getHalfHeight();
+        if (getEntryTime(targetX - targetHalfWidth, targetY - targetHalfHeight, targetX +
+                targetHalfWidth, targetY + targetHalfHeight) == Shape.NO_COLLISION) {
+            return;
+        }
+        if (probe == null) {
+            double distance = target.getShape().raycast(originX, originY, velocityX, velocityY,
+                    time, tempNormal);
+            if (distance < time) {
+                setHit(target, distance, tempNormal.getX(), tempNormal.getY());
+            }
+            return;
+        }
+        // the targets are treated as standing still, the probe is given the target's velocity on
+        // top of the cast velocity so the narrow phase sees only the cast velocity between them
+        probe.setVelocity(velocityX + target.getDX(), velocityY + target.getDY());
+        Collision collision = tempCollision;
+        probe.getShape().collideWithShape(target.getShape(), time, collision);
+        double collisionTime = collision.getCollisionTime();
+        if (collisionTime < time) {
+            Vector2D normal = collision.getCollisionNormal();
+            if (normal.getX() * velocityX + normal.getY() * velocityY > 0) {
+                setHit(target, collisionTime, -normal.getX(), -normal.getY());
+            } else {
+                setHit(target, collisionTime, normal.getX(), normal.getY());
+            }
+        }
+    }
+
+    private void setHit(Entity target, double time, double normalX, double normalY) {
+        entity = target;
+        this.time = time;
+        this.normalX = normalX;
+        this.normalY = normalY;
+    }
+
+    /**
+     * @return the time that a point moving from the origin at the velocity enters the box, 0 if
+     * it starts inside of it or {@link Shape#NO_COLLISION} if it misses the box or doesn't enter
+     * it before the max time
+     */
+    public static double getEntryTime(double minX, double minY, double maxX, double maxY, double
+            originX, double originY, double velocityX, double velocityY, double maxTime) {
+        double entry = 0, exit = maxTime;
+        if (velocityX == 0) {
+            if (originX < minX || originX > maxX) {
+                return Shape.NO_COLLISION;
+            }
+        } else {
+            double inverse = 1 / velocityX;
+            double near = (velocityX > 0 ? minX : maxX) - originX;
+            double far = (velocityX > 0 ? maxX : minX) - originX;
+            entry = Math.max(entry, near * inverse);
+            exit = Math.min(exit, far * inverse);
+        }
+        if (velocityY == 0) {
+            if (originY < minY || originY > maxY) {
+                return Shape.NO_COLLISION;
+            }
+        } else {
+            double inverse = 1 / velocityY;
+            double near = (velocityY > 0 ? minY : maxY) - originY;
+            double far = (velocityY > 0 ? maxY : minY) - originY;
+            entry = Math.max(entry, near * inverse);
+            exit = Math.min(exit, far * inverse);
+        }
+        return entry <= exit ? entry : Shape.NO_COLLISION;
+    }
+}
@@ -1,6 +1,7 @@
 package gameengine.collisiondetection;
 
 import gameengine.collisiondetection.shapes.CollisionData;
+import gameengine.collisiondetection.shapes.CompoundShape;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.entities.Entity;
 import gameengine.geometry.Vector2D;
@@ -14,6 +15,7 @@ public class Collision {
     private Vector2D collisionNormal = new Vector2D();
     private CollisionData collisionData = new CollisionData();
     private Entity a = null, b = null;
+    private int partA = -1, partB = -1;
     private double timeToCollision = Shape.NO_COLLISION;
     private double tempMin, tempMax;
 
@@ -32,6 +34,8 @@ public class Collision {
         collisionNormal.set(normalX, normalY);
         this.a = a;
         this.b = b;
+        partA = -1;
+        partB = -1;
     }
 
     public void set(double timeToCollision, Vector2D collisionNormal, Entity a, Entity b) {
@@ -39,6 +43,8 @@ public class Collision {
         this.collisionNormal = collisionNormal;
         this.a = a;
         this.b = b;
+        partA = -1;
+        partB = -1;
     }
 
     public void set(Collision collision) {
@@ -46,6 +52,8 @@ public class Collision {
         collisionNormal.set(collision.collisionNormal);
         a = collision.a;
         b = collision.b;
+        partA = collision.partA;
+        partB = collision.partB;
     }
 
     public void setNoCollision() {
@@ -53,6 +61,30 @@ public class Collision {
         collisionNormal.clear();
         a = null;
         b = null;
+        partA = -1;
+        partB = -1;
+    }
+
+    /**
+     * Sets the parts of the {@link CompoundShape CompoundShapes} of the entities that collide.
+     *
+     * @param partA the index of the part of the shape of a, or -1 if it isn't compound
+     * @param partB the index of the part of the shape of b, or -1 if it isn't compound
+     */
+    public void setParts(int partA, int partB) {
+        this.partA = partA;
+        this.partB = partB;
+    }
+
+    /**
+     * @return the index of the part of the {@link CompoundShape} of the entity that was hit, or
+     * -1 if the shape of the entity isn't compound or the entity isn't in this collision
+     */
+    public int getPart(Entity entity) {
+        if (entity == a) {
+            return partA;
+        }
+        return entity == b ? partB : -1;
     }
 
     public double getCollisionTime() {
@@ -81,8 +113,9 @@ public class Collision {
             assert b != null : timeToCollision;
             assert a.getContainingTree() != null;
             assert a.getContainingTree().isEntityInTree(a);
-            assert b.getContainingTree() != null;
-            assert b.getContainingTree().isEntityInTree(b);
+            // static entities aren't in the tree
+            assert b.getContainingTree() != null || b.getBroadphase() == null;
+            assert b.getContainingTree() == null || b.getContainingTree().isEntityInTree(b);
         } else {
             assert a == null;
             assert b == null;
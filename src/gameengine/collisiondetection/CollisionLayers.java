@@ -0,0 +1,176 @@
+package gameengine.collisiondetection;
+
+import java.util.Arrays;
+
+/**
+ * The collision layers of a {@link World} and which of them collide with each other. Every
+ * {@link EntityType} is a layer with the id of its ordinal, more layers can be registered while
+ * the game is running.
+ *
+ * Which layers collide is kept in a table with a row of bits for each layer, so checking a pair
+ * of layers is a single array lookup.
+ *
+ * Each layer also has a summary of the layers it collides with that fits in a single long, layer
+ * ids are folded into it modulo 64. The spatial structures keep the same kind of summary of the
+ * layers they hold, so a whole region can be skipped when the two summaries don't intersect.
+ * With more than 64 layers the summaries can only say that a pair might collide.
+ *
+ * @author davidrusu
+ */
+public class CollisionLayers {
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int BITS_PER_WORD = 64;
+    private String[] names = new String[BITS_PER_WORD];
+    private int count = 0;
+    private int wordsPerLayer = 1;
+    private long[] table = new long[names.length * wordsPerLayer];
+    private long[] summaries = new long[names.length];
+
+    public CollisionLayers() {
+        EntityType[] types = EntityType.values();
+        for (int i = 0; i < types.length; i++) {
+            register(types[i].name());
+        }
+    }
+
+    /**
+     * Registers a new layer that doesn't collide with anything yet.
+     *
+     * @param name the name of the layer
+     * @return the id of the layer, or the id it already has if the name is already registered
+     */
+    public int register(String name) {
+        int existing = getLayer(name);
+        if (existing != -1) {
+            return existing;
+        }
+        if (count == names.length) {
+            grow(names.length * EXPANSION_FACTOR);
+        }
+        names[count] = name;
+        count++;
+        return count - 1;
+    }
+
+    /**
+     * @return the id of the layer with the name or -1 if there is no such layer
+     */
+    public int getLayer(String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getName(int layer) {
+        assert layer < count;
+        return names[layer];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Sets whether the entities of the two layers collide with each other, this goes both ways.
+     */
+    public void setCollides(int a, int b, boolean collides) {
+        assert a < count && b < count;
+        if (collides) {
+            table[a * wordsPerLayer + (b >>> 6)] |= 1L << b;
+            table[b * wordsPerLayer + (a >>> 6)] |= 1L << a;
+            summaries[a] |= getSummaryBit(b);
+            summaries[b] |= getSummaryBit(a);
+        } else {
+            table[a * wordsPerLayer + (b >>> 6)] &= ~(1L << b);
+            table[b * wordsPerLayer + (a >>> 6)] &= ~(1L << a);
+            updateSummary(a);
+            updateSummary(b);
+        }
+    }
+
+    /**
+     * @return true if the entities of the two layers collide with each other
+     */
+    public boolean collides(int a, int b) {
+        return (table[a * wordsPerLayer + (b >>> 6)] & 1L << b) != 0;
+    }
+
+    /**
+     * @return the summary of the layers that the layer collides with, this intersects the
+     * summary bit of every layer that it collides with
+     */
+    public long getSummary(int layer) {
+        return summaries[layer];
+    }
+
+    /**
+     * @return the bit that stands for the layer in the summaries
+     */
+    public static long getSummaryBit(int layer) {
+        // shifting a long only uses the lowest 6 bits of the distance, which folds the layer ids
+        return 1L << layer;
+    }
+
+    /**
+     * Creates a layer mask for the queries of the {@link World}, it has a bit for every layer id
+     * so unlike the {@link EntityType} bitmasks it isn't limited to 32 layers.
+     *
+     * @param layers the ids of the layers to include
+     */
+    public static long[] createMask(int... layers) {
+        int maxLayer = 0;
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i] < 0) {
+                throw new IllegalArgumentException("Layer ids can't be negative: " + layers[i]);
+            }
+            maxLayer = Math.max(maxLayer, layers[i]);
+        }
+        long[] mask = new long[maxLayer / BITS_PER_WORD + 1];
+        for (int i = 0; i < layers.length; i++) {
+            mask[layers[i] >>> 6] |= 1L << layers[i];
+        }
+        return mask;
+    }
+
+    /**
+     * @return true if the layer mask from {@link #createMask(int...)} includes the layer
+     */
+    public static boolean isInMask(long[] mask, int layer) {
+        int word = layer >>> 6;
+        return word < mask.length && (mask[word] & 1L << layer) != 0;
+    }
+
+    /**
+     * Stops every layer from colliding with anything, the layers stay registered.
+     */
+    public void clearCollisions() {
+        Arrays.fill(table, 0);
+        Arrays.fill(summaries, 0);
+    }
+
+    private void updateSummary(int layer) {
+        long summary = 0;
+        for (int other = 0; other < count; other++) {
+            if (collides(layer, other)) {
+                summary |= getSummaryBit(other);
+            }
+        }
+        summaries[layer] = summary;
+    }
+
+    private void grow(int capacity) {
+        int newWordsPerLayer = (capacity + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        long[] newTable = new long[capacity * newWordsPerLayer];
+        for (int layer = 0; layer < count; layer++) {
+            System.arraycopy(table, layer * wordsPerLayer, newTable, layer * newWordsPerLayer,
+                    wordsPerLayer);
+        }
+        names = Arrays.copyOf(names, capacity);
+        summaries = Arrays.copyOf(summaries, capacity);
+        table = newTable;
+        wordsPerLayer = newWordsPerLayer;
+    }
+}
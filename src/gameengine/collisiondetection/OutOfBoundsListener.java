@@ -0,0 +1,20 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+/**
+ * Notified of the entities that were removed from a {@link World} by the
+ * {@link OutOfBoundsPolicy#NOTIFY} policy.
+ *
+ * @author davidrusu
+ */
+public interface OutOfBoundsListener {
+
+    /**
+     * Called at the end of the update that removed the {@link Entity}, the {@link Entity} can be
+     * added back to the world from here.
+     *
+     * @param entity the {@link Entity} that left the world
+     */
+    void entityOutOfBounds(Entity entity);
+}
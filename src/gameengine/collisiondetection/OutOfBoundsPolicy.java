@@ -0,0 +1,26 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+/**
+ * What a {@link World} does with an {@link Entity} that leaves its spatial tree once the tree
+ * has reached the maximum root size set with {@link World#setMaxRootHalfLength(double)}.
+ *
+ * @author davidrusu
+ */
+public enum OutOfBoundsPolicy {
+    /**
+     * The {@link Entity} is moved back inside the tree and stops moving out of it, entities that
+     * are too large to fit in the tree are removed instead.
+     */
+    CLAMP,
+    /**
+     * The {@link Entity} is removed from the world.
+     */
+    REMOVE,
+    /**
+     * The {@link Entity} is removed from the world and passed to the world's
+     * {@link OutOfBoundsListener} at the end of the update.
+     */
+    NOTIFY
+}
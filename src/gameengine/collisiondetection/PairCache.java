@@ -0,0 +1,322 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.entities.Entity;
+
+/**
+ * Caches the narrow phase result of each pair of entities between checks. Shapes only move by
+ * translation so the time and normal of a collision only depend on the position and velocity of
+ * one entity relative to the other. While the relative velocity of a pair stays the same and the
+ * relative position is where that velocity would have put it, the cached result is still correct
+ * and is shifted to the current time instead of running the narrow phase again. Pairs are
+ * cached in the order they are checked in because the narrow phase doesn't give the same normal
+ * for both orders.
+ *
+ * A cached collision is used until it happens, a cached miss is only used up to the time it was
+ * checked until. The narrow phase is run over at least {@link #getLookahead()} so that misses
+ * can carry over into the next update.
+ *
+ * Times are relative to the start of the current update, {@link #endUpdate(double)} moves the
+ * cached results to the next update and drops the pairs that weren't checked during the update.
+ * The cache assumes the shapes of the entities don't change size, call {@link #clear()} if
+ * they do.
+ *
+ * @author davidrusu
+ */
+public class PairCache {
+    private static final int REL_X = 0, REL_Y = 1, REL_DX = 2, REL_DY = 3;
+    private static final int TIME = 4, HORIZON = 5, COLLISION_TIME = 6, NORMAL_X = 7, NORMAL_Y = 8;
+    private static final int PART_A = 9, PART_B = 10;
+    private static final int STRIDE = 11;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    /**
+     * The relative position of a pair is allowed to be off by this fraction of its distance to
+     * account for the rounding of the position updates
+     */
+    private static final double POSITION_TOLERANCE = 1e-9;
+    private Entity[] as, bs;
+    private double[] data;
+    private int[] lastChecked;
+    private Entity[] spareAs, spareBs;
+    private double[] spareData;
+    private int[] spareLastChecked;
+    private int size = 0, update = 0;
+    private double lookahead = 0;
+    private boolean suspended = false;
+    private long hits, misses;
+
+    public PairCache() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Calculates the collision between the two entities like
+     * {@link Shape#collideShapes(Shape, Shape, double, Collision)}, using the cached result of
+     * the pair when it is still correct.
+     *
+     * @param a       the first entity
+     * @param b       the second entity
+     * @param time    the time since the start of the update that the positions of the entities
+     *                are at
+     * @param maxTime the amount of time to check for a collision
+     * @param result  the {@link Collision} to store the result in
+     */
+    public void collideShapes(Entity a, Entity b, double time, double maxTime, Collision result) {
+        if (suspended) {
+            Shape.collideShapes(a.getShape(), b.getShape(), maxTime, result);
+            return;
+        }
+        if (!Shape.boundingBoxesOverlap(a, b)) {
+            result.setNoCollision();
+            return;
+        }
+        double relX = b.getX() - a.getX(), relY = b.getY() - a.getY();
+        double relDX = b.getDX() - a.getDX(), relDY = b.getDY() - a.getDY();
+        int index = indexOf(a, b);
+        if (as[index] != null && useCachedResult(index, a, b, relX, relY, relDX, relDY, time,
+                maxTime, result)) {
+            hits++;
+            lastChecked[index] = update;
+            return;
+        }
+        misses++;
+
+        double checkedTime = Math.max(maxTime, lookahead);
+        a.getShape().collideWithShape(b.getShape(), checkedTime, result);
+        if (as[index] == null) {
+            if ((size + 1) * 2 > as.length) {
+                rehash(as.length * EXPANSION_FACTOR);
+                index = indexOf(a, b);
+            }
+            size++;
+        }
+        as[index] = a;
+        bs[index] = b;
+        lastChecked[index] = update;
+        int offset = index * STRIDE;
+        data[offset + REL_X] = relX;
+        data[offset + REL_Y] = relY;
+        data[offset + REL_DX] = relDX;
+        data[offset + REL_DY] = relDY;
+        data[offset + TIME] = time;
+        data[offset + HORIZON] = time + checkedTime;
+        double collisionTime = result.getCollisionTime();
+        if (collisionTime == Shape.NO_COLLISION) {
+            data[offset + COLLISION_TIME] = Shape.NO_COLLISION;
+            return;
+        }
+        data[offset + COLLISION_TIME] = time + collisionTime;
+        data[offset + NORMAL_X] = result.getCollisionNormal().getX();
+        data[offset + NORMAL_Y] = result.getCollisionNormal().getY();
+        data[offset + PART_A] = result.getPart(a);
+        data[offset + PART_B] = result.getPart(b);
+        if (collisionTime > maxTime) {
+            result.setNoCollision();
+        }
+    }
+
+    /**
+     * @return true if the cached result was stored in the result
+     */
+    private boolean useCachedResult(int index, Entity a, Entity b, double relX, double relY,
+                                    double relDX, double relDY, double time, double maxTime,
+                                    Collision result) {
+        int offset = index * STRIDE;
+        if (data[offset + REL_DX] != relDX || data[offset + REL_DY] != relDY) {
+            return false;
+        }
+        double elapsed = time - data[offset + TIME];
+        double expectedX = data[offset + REL_X] + relDX * elapsed;
+        double expectedY = data[offset + REL_Y] + relDY * elapsed;
+        double tolerance = POSITION_TOLERANCE * (1 + Math.abs(relX) + Math.abs(relY));
+        if (Math.abs(expectedX - relX) > tolerance || Math.abs(expectedY - relY) > tolerance) {
+            return false;
+        }
+        double collisionTime = data[offset + COLLISION_TIME];
+        if (collisionTime == Shape.NO_COLLISION) {
+            if (time + maxTime > data[offset + HORIZON]) {
+                return false;
+            }
+            result.setNoCollision();
+            return true;
+        }
+        if (collisionTime < time) {
+            return false;
+        }
+        if (collisionTime - time > maxTime) {
+            result.setNoCollision();
+        } else {
+            result.set(collisionTime - time, data[offset + NORMAL_X], data[offset + NORMAL_Y],
+                    a, b);
+            result.setParts((int) data[offset + PART_A], (int) data[offset + PART_B]);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cached results to the start of the next update and drops the pairs that were
+     * not checked during this update.
+     *
+     * @param elapsedTime the length of the update that just ended
+     */
+    public void endUpdate(double elapsedTime) {
+        int live = 0;
+        for (int i = 0; i < as.length; i++) {
+            if (as[i] != null && lastChecked[i] == update) {
+                live++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (live * 4 > capacity) {
+            capacity *= EXPANSION_FACTOR;
+        }
+        Entity[] oldAs = as, oldBs = bs;
+        double[] oldData = data;
+        int[] oldLastChecked = lastChecked;
+        swapBuffers(capacity);
+        for (int i = 0; i < oldAs.length; i++) {
+            if (oldAs[i] != null && oldLastChecked[i] == update) {
+                int offset = i * STRIDE;
+                oldData[offset + TIME] -= elapsedTime;
+                oldData[offset + HORIZON] -= elapsedTime;
+                if (oldData[offset + COLLISION_TIME] != Shape.NO_COLLISION) {
+                    oldData[offset + COLLISION_TIME] -= elapsedTime;
+                }
+                insert(oldAs[i], oldBs[i], oldData, offset, oldLastChecked[i]);
+            }
+            oldAs[i] = null;
+            oldBs[i] = null;
+        }
+        update++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < as.length; i++) {
+            as[i] = null;
+            bs[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Sets the least amount of time that the narrow phase is run over. A longer lookahead lets
+     * a miss be reused in later updates at the cost of checking further ahead, with 0 a miss is
+     * only reused during the update that it was found in.
+     *
+     * @param lookahead the least amount of time to check for a collision
+     */
+    public void setLookahead(double lookahead) {
+        this.lookahead = lookahead;
+    }
+
+    public double getLookahead() {
+        return lookahead;
+    }
+
+    /**
+     * While suspended every check goes straight to the narrow phase and the cache isn't touched,
+     * which allows the checks to be run from several threads at once.
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of the checks that used a cached result, or 0 if nothing was checked
+     */
+    public double getHitRate() {
+        long checks = hits + misses;
+        return checks == 0 ? 0 : (double) hits / checks;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the slot of the pair, or the empty slot that it would be stored in
+     */
+    private int indexOf(Entity a, Entity b) {
+        int mask = as.length - 1;
+        int index = hash(a, b) & mask;
+        while (as[index] != null && (as[index] != a || bs[index] != b)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int hash(Entity a, Entity b) {
+        int hash = (System.identityHashCode(a) * 31 + System.identityHashCode(b)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void insert(Entity a, Entity b, double[] source, int sourceOffset, int checked) {
+        int index = indexOf(a, b);
+        as[index] = a;
+        bs[index] = b;
+        lastChecked[index] = checked;
+        System.arraycopy(source, sourceOffset, data, index * STRIDE, STRIDE);
+        size++;
+    }
+
+    private void rehash(int capacity) {
+        Entity[] oldAs = as, oldBs = bs;
+        double[] oldData = data;
+        int[] oldLastChecked = lastChecked;
+        allocate(capacity);
+        for (int i = 0; i < oldAs.length; i++) {
+            if (oldAs[i] != null) {
+                insert(oldAs[i], oldBs[i], oldData, i * STRIDE, oldLastChecked[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes the spare arrays the current arrays, reallocating them if their capacity doesn't
+     * match, and keeps the current arrays as the spares.
+     */
+    private void swapBuffers(int capacity) {
+        Entity[] tempAs = as, tempBs = bs;
+        double[] tempData = data;
+        int[] tempLastChecked = lastChecked;
+        if (spareAs != null && spareAs.length == capacity) {
+            as = spareAs;
+            bs = spareBs;
+            data = spareData;
+            lastChecked = spareLastChecked;
+            size = 0;
+        } else {
+            allocate(capacity);
+        }
+        spareAs = tempAs;
+        spareBs = tempBs;
+        spareData = tempData;
+        spareLastChecked = tempLastChecked;
+    }
+
+    private void allocate(int capacity) {
+        as = new Entity[capacity];
+        bs = new Entity[capacity];
+        data = new double[capacity * STRIDE];
+        lastChecked = new int[capacity];
+        size = 0;
+    }
+}
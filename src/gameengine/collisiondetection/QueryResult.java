@@ -0,0 +1,182 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+/**
+ * Holds the entities found by the spatial queries of the {@link World}. A result is meant to be
+ * kept and reused, each query clears it and it only allocates when it has to grow.
+ *
+ * The nearest queries keep the entities ordered from nearest to farthest along with their
+ * distances, the other queries don't order the entities.
+ *
+ * @author davidrusu
+ */
+public class QueryResult {
+    private static final int EXPANSION_FACTOR = 2;
+    private Entity[] entities = new Entity[16];
+    private double[] distances = new double[16];
+    private int size = 0;
+    private int limit = Integer.MAX_VALUE;
+    private long[] layerMask = null;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Entity get(int index) {
+        assert index < size;
+        return entities[index];
+    }
+
+    /**
+     * @return the distance from the query point to the entity, this is only set by the nearest
+     * queries
+     */
+    public double getDistance(int index) {
+        assert index < size;
+        return distances[index];
+    }
+
+    /**
+     * Empties the result and removes its limit and layer mask, called at the start of every
+     * query.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            entities[i] = null;
+        }
+        size = 0;
+        limit = Integer.MAX_VALUE;
+        layerMask = null;
+    }
+
+    /**
+     * Limits the result to the entities in the layers of the mask, used by the queries that take
+     * a layer mask instead of an {@link EntityType} bitmask.
+     *
+     * @param layerMask a mask from {@link CollisionLayers#createMask(int...)}
+     */
+    void setLayerMask(long[] layerMask) {
+        this.layerMask = layerMask;
+    }
+
+    /**
+     * Limits the result to the nearest entities that are offered, used by the nearest queries.
+     *
+     * @param limit the largest number of entities to keep
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void add(Entity entity) {
+        ensureCapacity(size + 1);
+        entities[size] = entity;
+        size++;
+    }
+
+    /**
+     * Adds the entity if it is one of the nearest entities offered so far, dropping the farthest
+     * entity if the result is already at its limit.
+     *
+     * @param entity   the entity to offer
+     * @param distance the distance from the query point to the entity
+     */
+    public void offer(Entity entity, double distance) {
+        if (size == limit) {
+            if (distance >= distances[size - 1]) {
+                return;
+            }
+            size--;
+        } else {
+            ensureCapacity(size + 1);
+        }
+        int i = size;
+        while (i > 0 && distances[i - 1] > distance) {
+            entities[i] = entities[i - 1];
+            distances[i] = distances[i - 1];
+            i--;
+        }
+        entities[i] = entity;
+        distances[i] = distance;
+        size++;
+    }
+
+    /**
+     * Removes the entity at the index by moving the last entity into its place.
+     */
+    void remove(int index) {
+        assert index < size;
+        size--;
+        entities[index] = entities[size];
+        distances[index] = distances[size];
+        entities[size] = null;
+    }
+
+    /**
+     * Adds the entity if it matches the type mask and the layer mask and the bounding rectangle
+     * of its shape overlaps the region, used by the structures that the queries traverse.
+     */
+    public void addIfOverlapping(Entity entity, double minX, double minY, double maxX, double
+            maxY, int typeMask) {
+        if (!matches(entity, typeMask)) {
+            return;
+        }
+        double x = entity.getX(), y = entity.getY();
+        double halfWidth = entity.getHalfWidth(), halfHeight = entity.getHalfHeight();
+        if (x + halfWidth >= minX && x - halfWidth <= maxX && y + halfHeight >= minY && y -
+                halfHeight <= maxY) {
+            add(entity);
+        }
+    }
+
+    /**
+     * Offers the entity with its distance from the point if it matches the type mask and the
+     * layer mask, used by the structures that the queries traverse.
+     */
+    public void offerIfMatching(Entity entity, double x, double y, int typeMask) {
+        if (!matches(entity, typeMask)) {
+            return;
+        }
+        double deltaX = entity.getX() - x, deltaY = entity.getY() - y;
+        double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        if (distance < getMaxDistance()) {
+            offer(entity, distance);
+        }
+    }
+
+    /**
+     * @return the distance that an entity has to be nearer than to be kept by
+     * {@link #offer(Entity, double)}, used to skip the parts of a structure that are too far away
+     */
+    public double getMaxDistance() {
+        return size < limit ? Double.MAX_VALUE : distances[size - 1];
+    }
+
+    private boolean matches(Entity entity, int typeMask) {
+        if (typeMask != World.ALL_TYPES && (typeMask & entity.getEntityTypeBitMask()) == 0) {
+            return false;
+        }
+        return layerMask == null || CollisionLayers.isInMask(layerMask, entity.getLayer());
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > entities.length) {
+            int newCapacity = Math.max(capacity, entities.length * EXPANSION_FACTOR);
+            Entity[] tempEntities = entities;
+            double[] tempDistances = distances;
+            entities = new Entity[newCapacity];
+            distances = new double[newCapacity];
+            System.arraycopy(tempEntities, 0, entities, 0, size);
+            System.arraycopy(tempDistances, 0, distances, 0, size);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package gameengine.collisiondetection;
+
+import Utilities.UnorderedArrayList;
+import gameengine.entities.Entity;
+import gameengine.entities.RegionSensor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+/**
+ * Holds the {@link RegionSensor RegionSensors} of a {@link World}. The sensors are kept out of
+ * the {@link Broadphase} so the collision events of the other entities never have to check for
+ * them, instead the layer moves the sensors and checks which entities overlap them once at the
+ * end of every update.
+ *
+ * A sensor only detects the entities of the layers that its layer collides with, including the
+ * static entities and the other sensors. The overlaps are found with the bounding rectangle
+ * queries of the world, so they are only checked at the end of the update and an entity that
+ * passes through a sensor within a single update isn't detected.
+ *
+ * @author davidrusu
+ */
+public class SensorLayer {
+    private static final int EXPANSION_FACTOR = 2;
+    private final World world;
+    private RegionSensor[] sensors = new RegionSensor[16];
+    private RegionSensor[] updating = new RegionSensor[16];
+    private int sensorCount = 0;
+    private QueryResult queryResult = new QueryResult();
+
+    public SensorLayer(World world) {
+        this.world = world;
+    }
+
+    public void addSensor(RegionSensor sensor) {
+        assert !sensor.isInWorld();
+        if (sensorCount == sensors.length) {
+            RegionSensor[] temp = sensors;
+            sensors = new RegionSensor[sensorCount * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, sensors, 0, sensorCount);
+        }
+        sensors[sensorCount] = sensor;
+        sensor.setSensorLayer(this, sensorCount);
+        sensorCount++;
+    }
+
+    public void removeSensor(RegionSensor sensor) {
+        assert sensor.getSensorLayer() == this;
+        int index = sensor.getIndexInLayer();
+        sensorCount--;
+        RegionSensor relocated = sensors[sensorCount];
+        sensors[index] = relocated;
+        relocated.setSensorLayer(this, index);
+        sensors[sensorCount] = null;
+        sensor.setSensorLayer(null, -1);
+    }
+
+    public void clear() {
+        for (int i = 0; i < sensorCount; i++) {
+            sensors[i].setSensorLayer(null, -1);
+            sensors[i] = null;
+        }
+        sensorCount = 0;
+    }
+
+    public int getSensorCount() {
+        return sensorCount;
+    }
+
+    /**
+     * Moves the sensors and then checks each of them for the entities that overlap it, calling
+     * the listeners of the sensors. Called at the end of every update, after the entities have
+     * been moved to the end of the update.
+     *
+     * The listeners can add and remove entities and sensors, a sensor that is added is first
+     * checked in the next update.
+     */
+    public void update(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
+        if (sensorCount == 0) {
+            return;
+        }
+        int count = sensorCount;
+        if (updating.length < count) {
+            updating = new RegionSensor[Math.max(count, updating.length * EXPANSION_FACTOR)];
+        }
+        System.arraycopy(sensors, 0, updating, 0, count);
+        long sensorLayerMask = 0;
+        for (int i = 0; i < count; i++) {
+            RegionSensor sensor = updating[i];
+            int layer = sensor.getLayer();
+            for (int j = 0; j < worldEffects.size(); j++) {
+                WorldEffect worldEffect = worldEffects.get(j);
+                if (worldEffect.isLayerAffected(layer)) {
+                    worldEffect.applyEffect(sensor);
+                }
+            }
+            sensor.updateMotion(elapsedTime);
+            sensor.updatePosition(elapsedTime);
+            sensorLayerMask |= CollisionLayers.getSummaryBit(layer);
+        }
+        for (int i = 0; i < count; i++) {
+            RegionSensor sensor = updating[i];
+            updating[i] = null;
+            // a listener may have removed the sensor
+            if (sensor.getSensorLayer() == this) {
+                detect(sensor, sensorLayerMask);
+            }
+        }
+        queryResult.clear();
+    }
+
+    private void detect(RegionSensor sensor, long sensorLayerMask) {
+        CollisionLayers collisionLayers = world.getCollisionLayers();
+        int layer = sensor.getLayer();
+        double x = sensor.getX(), y = sensor.getY();
+        double halfWidth = sensor.getHalfWidth(), halfHeight = sensor.getHalfHeight();
+        sensor.beginDetection();
+        QueryResult result = queryResult;
+        world.queryAABB(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight, result);
+        for (int i = 0; i < result.size(); i++) {
+            Entity entity = result.get(i);
+            if (collisionLayers.collides(layer, entity.getLayer()) && entity.isInWorld() &&
+                    sensor.getShape().isOverlappingShape(entity.getShape())) {
+                sensor.entityDetected(entity);
+            }
+        }
+        if ((collisionLayers.getSummary(layer) & sensorLayerMask) != 0) {
+            for (int i = 0; i < sensorCount; i++) {
+                RegionSensor other = sensors[i];
+                if (other != sensor && collisionLayers.collides(layer, other.getLayer()) &&
+                        Math.abs(other.getX() - x) <= other.getHalfWidth() + halfWidth &&
+                        Math.abs(other.getY() - y) <= other.getHalfHeight() + halfHeight &&
+                        sensor.getShape().isOverlappingShape(other.getShape())) {
+                    sensor.entityDetected(other);
+                }
+            }
+        }
+        sensor.endDetection();
+    }
+
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < sensorCount; i++) {
+            RegionSensor sensor = sensors[i];
+            if (sensor.getX() + sensor.getHalfWidth() >= minX && sensor.getX() - sensor
+                    .getHalfWidth() <= maxX && sensor.getY() + sensor.getHalfHeight() >= minY &&
+                    sensor.getY() - sensor.getHalfHeight() <= maxY) {
+                sensor.draw(renderer);
+            }
+        }
+    }
+}
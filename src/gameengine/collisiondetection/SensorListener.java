@@ -0,0 +1,32 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+import gameengine.entities.RegionSensor;
+
+/**
+ * Notified of the entities that enter, stay in and exit a {@link RegionSensor}. The
+ * {@link SensorLayer} checks the sensors once at the end of every update, so each method is
+ * called at most once per update for each pair.
+ *
+ * @author davidrusu
+ */
+public interface SensorListener {
+
+    /**
+     * Called when the {@link Entity} overlaps the sensor and didn't at the end of the last
+     * update.
+     */
+    void entityEntered(RegionSensor sensor, Entity entity);
+
+    /**
+     * Called when the {@link Entity} overlaps the sensor and also did at the end of the last
+     * update.
+     */
+    void entityStayed(RegionSensor sensor, Entity entity);
+
+    /**
+     * Called when the {@link Entity} overlapped the sensor at the end of the last update but no
+     * longer does, or has been removed from the world.
+     */
+    void entityExited(RegionSensor sensor, Entity entity);
+}
@@ -0,0 +1,346 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.entities.Entity;
+import gameengine.geometry.Vector2D;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Holds the entities that never move, like the walls of a level. The static entities are kept
+ * out of the {@link Broadphase} so they are never updated, relocated or checked against each
+ * other, the dynamic entities query this layer for collisions with them instead.
+ *
+ * The static entities are stored in a bounding box tree that is built once from all of them and
+ * only rebuilt after a static entity is added or removed. A static entity is removed from the
+ * layer straight away, but the collisions with it that were already found are only dropped once
+ * they are reached.
+ *
+ * @author davidrusu
+ */
+public class StaticLayer {
+    private static final int LEAF_SIZE = 4;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int MIN_X = 0, MIN_Y = 1, MAX_X = 2, MAX_Y = 3;
+    private static final Comparator<Entity> BY_X = new Comparator<Entity>() {
+        @Override
+        public int compare(Entity a, Entity b) {
+            return Double.compare(a.getX(), b.getX());
+        }
+    };
+    private static final Comparator<Entity> BY_Y = new Comparator<Entity>() {
+        @Override
+        public int compare(Entity a, Entity b) {
+            return Double.compare(a.getY(), b.getY());
+        }
+    };
+    private final World world;
+    private Entity[] entities = new Entity[16];
+    private int entityCount = 0;
+    private double[] bounds = new double[0];
+    private int[] lefts = new int[0], rights = new int[0], starts = new int[0], ends = new int[0];
+    private int nodeCount = 0;
+    private boolean dirty = false;
+
+    public StaticLayer(World world) {
+        this.world = world;
+    }
+
+    public void addEntity(Entity entity) {
+        assert !entity.isInWorld();
+        if (entityCount == entities.length) {
+            Entity[] temp = entities;
+            entities = new Entity[entityCount * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, entities, 0, entityCount);
+        }
+        entity.setVelocity(0, 0);
+        entity.calculateBoundingBox(0);
+        entity.setStaticLayer(this);
+        entities[entityCount] = entity;
+        entityCount++;
+        dirty = true;
+    }
+
+    public void removeEntity(Entity entity) {
+        assert entity.getStaticLayer() == this;
+        for (int i = 0; i < entityCount; i++) {
+            if (entities[i] == entity) {
+                entityCount--;
+                entities[i] = entities[entityCount];
+                entities[entityCount] = null;
+                break;
+            }
+        }
+        entity.setStaticLayer(null);
+        dirty = true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < entityCount; i++) {
+            entities[i].setStaticLayer(null);
+            entities[i] = null;
+        }
+        entityCount = 0;
+        nodeCount = 0;
+        dirty = false;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Rebuilds the bounding box tree if static entities were added or removed since it was last
+     * built. Queries do this themselves, calling it at the start of an update keeps the rebuild
+     * out of the parallel collision checks.
+     */
+    public void build() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        nodeCount = 0;
+        if (entityCount == 0) {
+            return;
+        }
+        // splitting at the middle can leave leaves with fewer than LEAF_SIZE entities, so the
+        // tree can have up to a node for each entity and one for each split
+        int capacity = 2 * entityCount - 1;
+        if (lefts.length < capacity) {
+            capacity = Math.max(capacity, lefts.length * EXPANSION_FACTOR);
+            bounds = new double[capacity * 4];
+            lefts = new int[capacity];
+            rights = new int[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+        buildNode(0, entityCount);
+        assert nodeCount <= lefts.length;
+    }
+
+    private int buildNode(int start, int end) {
+        int node = nodeCount;
+        nodeCount++;
+        int offset = node * 4;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            Entity entity = entities[i];
+            minX = Math.min(minX, entity.getBBMinX());
+            minY = Math.min(minY, entity.getBBMinY());
+            maxX = Math.max(maxX, entity.getBBMaxX());
+            maxY = Math.max(maxY, entity.getBBMaxY());
+        }
+        bounds[offset + MIN_X] = minX;
+        bounds[offset + MIN_Y] = minY;
+        bounds[offset + MAX_X] = maxX;
+        bounds[offset + MAX_Y] = maxY;
+        starts[node] = start;
+        ends[node] = end;
+        if (end - start <= LEAF_SIZE) {
+            lefts[node] = -1;
+            rights[node] = -1;
+            return node;
+        }
+        Arrays.sort(entities, start, end, maxX - minX > maxY - minY ? BY_X : BY_Y);
+        int middle = (start + end) >>> 1;
+        lefts[node] = buildNode(start, middle);
+        rights[node] = buildNode(middle, end);
+        return node;
+    }
+
+    /**
+     * Checks for collisions between the entity and the static entities, storing the earliest
+     * one in the result if it happens before the collision that is already in the result. The
+     * static entity is always the second entity of the {@link Collision}.
+     *
+     * @param entity      the dynamic entity, its bounding box must cover the time to check
+     * @param timeToCheck the amount of time to check for collisions
+     * @param timeOffset  the time that the current position of the entity is at, this is added
+     *                    to the collision time stored in the result
+     * @param result      the {@link Collision} to update
+     * @param temp        scratch {@link Collision} used by the narrow phase, this must not be
+     *                    shared with other threads
+     */
+    public void collide(Entity entity, double timeToCheck, double timeOffset, Collision result,
+                        Collision temp) {
+        if (entityCount == 0 || entity.isAsleep()) {
+            return;
+        }
+        build();
+        collide(0, entity, timeToCheck, timeOffset, result, temp);
+    }
+
+    private void collide(int node, Entity entity, double timeToCheck, double timeOffset,
+                         Collision result, Collision temp) {
+        int offset = node * 4;
+        if (entity.getBBMaxX() < bounds[offset + MIN_X] || entity.getBBMinX() > bounds[offset +
+                MAX_X] || entity.getBBMaxY() < bounds[offset + MIN_Y] || entity.getBBMinY() >
+                bounds[offset + MAX_Y]) {
+            return;
+        }
+        if (lefts[node] != -1) {
+            collide(lefts[node], entity, timeToCheck, timeOffset, result, temp);
+            collide(rights[node], entity, timeToCheck, timeOffset, result, temp);
+            return;
+        }
+        CollisionLayers collisionLayers = world.getCollisionLayers();
+        int layer = entity.getLayer();
+        for (int i = starts[node]; i < ends[node]; i++) {
+            Entity staticEntity = entities[i];
+            if (!collisionLayers.collides(layer, staticEntity.getLayer())) {
+                continue;
+            }
+            Shape.collideShapes(entity.getShape(), staticEntity.getShape(), timeToCheck, temp);
+            double collisionTime = temp.getCollisionTime();
+            if (collisionTime < result.getCollisionTime() - timeOffset) {
+                Vector2D normal = temp.getCollisionNormal();
+                if (temp.getA() == entity) {
+                    result.set(collisionTime + timeOffset, normal.getX(), normal.getY(), entity,
+                            staticEntity);
+                } else {
+                    // the narrow phase can swap the shapes
+                    result.set(collisionTime + timeOffset, -normal.getX(), -normal.getY(),
+                            entity, staticEntity);
+                }
+                result.setParts(temp.getPart(entity), temp.getPart(staticEntity));
+            }
+        }
+    }
+
+    /**
+     * Adds the static entities that match the type mask and could overlap the region to the
+     * result.
+     */
+    public void queryRegion(double minX, double minY, double maxX, double maxY, int typeMask,
+                            QueryResult result) {
+        build();
+        if (nodeCount > 0) {
+            queryRegion(0, minX, minY, maxX, maxY, typeMask, result);
+        }
+    }
+
+    private void queryRegion(int node, double minX, double minY, double maxX, double maxY, int
+            typeMask, QueryResult result) {
+        int offset = node * 4;
+        if (maxX < bounds[offset + MIN_X] || minX > bounds[offset + MAX_X] || maxY <
+                bounds[offset + MIN_Y] || minY > bounds[offset + MAX_Y]) {
+            return;
+        }
+        if (lefts[node] != -1) {
+            queryRegion(lefts[node], minX, minY, maxX, maxY, typeMask, result);
+            queryRegion(rights[node], minX, minY, maxX, maxY, typeMask, result);
+            return;
+        }
+        for (int i = starts[node]; i < ends[node]; i++) {
+            result.addIfOverlapping(entities[i], minX, minY, maxX, maxY, typeMask);
+        }
+    }
+
+    /**
+     * Offers the static entities that match the type mask to the result.
+     */
+    public void queryNearest(double x, double y, int typeMask, QueryResult result) {
+        build();
+        if (nodeCount > 0) {
+            queryNearest(0, x, y, typeMask, result);
+        }
+    }
+
+    private void queryNearest(int node, double x, double y, int typeMask, QueryResult result) {
+        int offset = node * 4;
+        double deltaX = Math.max(Math.max(bounds[offset + MIN_X] - x, x - bounds[offset +
+                MAX_X]), 0);
+        double deltaY = Math.max(Math.max(bounds[offset + MIN_Y] - y, y - bounds[offset +
+                MAX_Y]), 0);
+        if (Math.sqrt(deltaX * deltaX + deltaY * deltaY) >= result.getMaxDistance()) {
+            return;
+        }
+        if (lefts[node] != -1) {
+            queryNearest(lefts[node], x, y, typeMask, result);
+            queryNearest(rights[node], x, y, typeMask, result);
+            return;
+        }
+        for (int i = starts[node]; i < ends[node]; i++) {
+            result.offerIfMatching(entities[i], x, y, typeMask);
+        }
+    }
+
+    /**
+     * Checks the static entities against the running cast, front to back along the cast.
+     */
+    public void cast(CastResult result) {
+        build();
+        if (nodeCount > 0) {
+            cast(0, result);
+        }
+    }
+
+    private void cast(int node, CastResult result) {
+        int offset = node * 4;
+        if (result.getEntryTime(bounds[offset + MIN_X], bounds[offset + MIN_Y], bounds[offset +
+                MAX_X], bounds[offset + MAX_Y]) == Shape.NO_COLLISION) {
+            return;
+        }
+        int left = lefts[node];
+        if (left != -1) {
+            int right = rights[node];
+            if (getCenterAlongCast(left, result) <= getCenterAlongCast(right, result)) {
+                cast(left, result);
+                cast(right, result);
+            } else {
+                cast(right, result);
+                cast(left, result);
+            }
+            return;
+        }
+        for (int i = starts[node]; i < ends[node]; i++) {
+            result.castEntity(entities[i]);
+        }
+    }
+
+    private double getCenterAlongCast(int node, CastResult result) {
+        int offset = node * 4;
+        return (bounds[offset + MIN_X] + bounds[offset + MAX_X]) * result.getVelocityX() +
+                (bounds[offset + MIN_Y] + bounds[offset + MAX_Y]) * result.getVelocityY();
+    }
+
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        build();
+        if (nodeCount > 0) {
+            draw(0, minX, maxX, minY, maxY, renderer);
+        }
+    }
+
+    private void draw(int node, double minX, double maxX, double minY, double maxY, Renderer
+            renderer) {
+        int offset = node * 4;
+        if (maxX < bounds[offset + MIN_X] || minX > bounds[offset + MAX_X] || maxY <
+                bounds[offset + MIN_Y] || minY > bounds[offset + MAX_Y]) {
+            return;
+        }
+        if (lefts[node] != -1) {
+            draw(lefts[node], minX, maxX, minY, maxY, renderer);
+            draw(rights[node], minX, maxX, minY, maxY, renderer);
+            return;
+        }
+        for (int i = starts[node]; i < ends[node]; i++) {
+            entities[i].draw(renderer);
+        }
+    }
+
+    public void drawStructure(Renderer renderer, RColor color) {
+        build();
+        renderer.setForegroundColor(color);
+        for (int node = 0; node < nodeCount; node++) {
+            int offset = node * 4;
+            double halfWidth = (bounds[offset + MAX_X] - bounds[offset + MIN_X]) / 2;
+            double halfHeight = (bounds[offset + MAX_Y] - bounds[offset + MIN_Y]) / 2;
+            renderer.drawRect(bounds[offset + MIN_X] + halfWidth, bounds[offset + MIN_Y] +
+                    halfHeight, halfWidth, halfHeight);
+        }
+    }
+}
@@ -1,31 +1,137 @@
 package gameengine.collisiondetection;
 
 import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.shapes.Shape;
 import gameengine.collisiondetection.tree.CollisionList;
+import gameengine.collisiondetection.tree.NodePool;
+import gameengine.collisiondetection.tree.RelocationStats;
 import gameengine.collisiondetection.tree.SpatialTree;
 import gameengine.context.Context;
 import gameengine.entities.Entity;
+import gameengine.entities.RegionSensor;
+import gameengine.entities.SleepManager;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
 
+import java.util.Collection;
+
 public class World {
+    /**
+     * The type mask that includes every {@link EntityType} and every registered layer, used by
+     * the queries that aren't filtered
+     */
+    public static final int ALL_TYPES = ~0;
     private SpatialTree tree;
+    private Broadphase broadphase;
     private int[] collisionGroups = new int[EntityType.values().length];
+    private CollisionLayers collisionLayers = new CollisionLayers();
     private Collision tempCollision = new Collision();
     private CollisionList collisionList = new CollisionList();
     private UnorderedArrayList<WorldEffect> worldEffects = new UnorderedArrayList<>();
+    private NodePool nodePool;
+    private RelocationStats relocationStats = new RelocationStats();
+    private double looseness = 1;
+    private boolean parallelCollisionInit = false;
+    private int parallelMaxDepth = 3;
+    private int parallelMinEntityCount = 256;
+    private double maxRootHalfLength = Double.MAX_VALUE;
+    private OutOfBoundsPolicy outOfBoundsPolicy = OutOfBoundsPolicy.CLAMP;
+    private OutOfBoundsListener outOfBoundsListener = null;
+    private boolean rootRecentering = false;
+    private PairCache pairCache = null;
+    private SleepManager sleepManager = null;
+    private StaticLayer staticLayer = new StaticLayer(this);
+    private SensorLayer sensorLayer = new SensorLayer(this);
 
     public World(double centerX, double centerY, double halfLength) {
+        this(centerX, centerY, halfLength, new NodePool());
+    }
+
+    /**
+     * @param nodePool the pool that the nodes of this world's tree are recycled into, it must not
+     *                 be shared with another world
+     */
+    public World(double centerX, double centerY, double halfLength, NodePool nodePool) {
+        assert nodePool != null;
+        this.nodePool = nodePool;
         tree = new SpatialTree(this, centerX, centerY, halfLength);
+        broadphase = tree;
     }
 
     public void addEnvironmentMotion(WorldEffect worldEffect) {
         worldEffects.add(worldEffect);
+        if (sleepManager != null) {
+            // the new effect could move the sleeping entities
+            sleepManager.wakeAll(broadphase);
+        }
+        worldEffect.pollChanged();
     }
 
+    /**
+     * Adds the entity to the world, a {@link RegionSensor} is added to the {@link SensorLayer}
+     * instead of the {@link Broadphase}.
+     *
+     * @param entity the entity to add
+     */
     public void addEntity(Entity entity) {
-        tree.addEntity(entity);
+        if (entity instanceof RegionSensor) {
+            sensorLayer.addSensor((RegionSensor) entity);
+            return;
+        }
+        broadphase.addEntity(entity);
+    }
+
+    /**
+     * Adds an entity that never moves, like a wall, to the {@link StaticLayer}. Static entities
+     * are never updated and are only checked for collisions with the dynamic entities, they
+     * should have infinite mass so that collisions don't give them a velocity.
+     *
+     * @param entity the entity to add
+     */
+    public void addStaticEntity(Entity entity) {
+        staticLayer.addEntity(entity);
+    }
+
+    public StaticLayer getStaticLayer() {
+        return staticLayer;
+    }
+
+    public SensorLayer getSensorLayer() {
+        return sensorLayer;
+    }
+
+    /**
+     * Adds all of the entities at once, this is faster than adding them one at a time when
+     * loading a level.
+     *
+     * @param entities the entities to add
+     */
+    public void addEntities(Entity... entities) {
+        int sensorCount = 0;
+        for (int i = 0; i < entities.length; i++) {
+            if (entities[i] instanceof RegionSensor) {
+                sensorCount++;
+            }
+        }
+        if (sensorCount > 0) {
+            Entity[] others = new Entity[entities.length - sensorCount];
+            int othersSize = 0;
+            for (int i = 0; i < entities.length; i++) {
+                if (entities[i] instanceof RegionSensor) {
+                    sensorLayer.addSensor((RegionSensor) entities[i]);
+                } else {
+                    others[othersSize] = entities[i];
+                    othersSize++;
+                }
+            }
+            entities = others;
+        }
+        broadphase.addEntities(entities);
+    }
+
+    public void addEntities(Collection<? extends Entity> entities) {
+        addEntities(entities.toArray(new Entity[entities.size()]));
     }
 
     public void setCollisionGroup(EntityType a, EntityType b) {
@@ -36,6 +142,26 @@ public class World {
         collisionGroups[x] |= mask;
         mask = 1 << x;
         collisionGroups[y] |= mask;
+        collisionLayers.setCollides(x, y, true);
+    }
+
+    /**
+     * Sets the entities of the two layers to collide with each other, the layers are registered
+     * with {@link #getCollisionLayers()}.
+     *
+     * @param a the id of the first layer
+     * @param b the id of the second layer
+     */
+    public void setLayersCollide(int a, int b) {
+        collisionLayers.setCollides(a, b, true);
+        if (a < collisionGroups.length && b < collisionGroups.length) {
+            collisionGroups[a] |= 1 << b;
+            collisionGroups[b] |= 1 << a;
+        }
+    }
+
+    public CollisionLayers getCollisionLayers() {
+        return collisionLayers;
     }
 
     /**
@@ -52,37 +178,240 @@ public class World {
         }
     }
 
+    /**
+     * Enables or disables calculating the initial collisions of each update on multiple threads.
+     * The four sub trees of a node are calculated in parallel until the cutoff set with
+     * {@link #setParallelCollisionInitCutoff(int, int)} is reached.
+     *
+     * @param parallelCollisionInit true to calculate the initial collisions in parallel
+     */
+    public void setParallelCollisionInit(boolean parallelCollisionInit) {
+        this.parallelCollisionInit = parallelCollisionInit;
+    }
+
+    /**
+     * Sets the point at which sub trees stop being split into parallel tasks.
+     *
+     * @param maxDepth       the depth below which sub trees are calculated sequentially
+     * @param minEntityCount sub trees with fewer entities than this are calculated sequentially
+     */
+    public void setParallelCollisionInitCutoff(int maxDepth, int minEntityCount) {
+        parallelMaxDepth = maxDepth;
+        parallelMinEntityCount = minEntityCount;
+    }
+
+    public boolean isParallelCollisionInit() {
+        return parallelCollisionInit;
+    }
+
+    public int getParallelMaxDepth() {
+        return parallelMaxDepth;
+    }
+
+    public int getParallelMinEntityCount() {
+        return parallelMinEntityCount;
+    }
+
+    /**
+     * Sets the {@link Broadphase} that stores the entities of this world and finds the
+     * collisions between them, this can only be changed while the world is empty. By default
+     * the entities are stored in a {@link SpatialTree}.
+     *
+     * @param broadphase the {@link Broadphase} to use or null to use the {@link SpatialTree}
+     */
+    public void setBroadphase(Broadphase broadphase) {
+        assert this.broadphase.getEntityCount() == 0;
+
+        this.broadphase.clear();
+        this.broadphase = broadphase == null ? tree : broadphase;
+    }
+
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+
+    public NodePool getNodePool() {
+        return nodePool;
+    }
+
+    /**
+     * Sets the factor that the containment bounds of each node in the spatial tree are scaled
+     * by. With a looseness above 1 entities that straddle the center of a node can still be
+     * stored in one of its children, so fewer entities are stored high up in the tree and fewer
+     * entities have to be relocated as they move. This can only be changed while the world is
+     * empty.
+     *
+     * @param looseness the factor to scale the node bounds by, must be at least 1
+     */
+    public void setLooseness(double looseness) {
+        assert looseness >= 1;
+        assert tree.getEntityCount() == 0;
+
+        this.looseness = looseness;
+        tree.clear();
+    }
+
+    public double getLooseness() {
+        return looseness;
+    }
+
+    /**
+     * Sets the largest half length that the root of the spatial tree can grow to. Entities that
+     * leave the root once it has reached this size are handled by the {@link OutOfBoundsPolicy}.
+     *
+     * @param maxRootHalfLength the largest half length of the root
+     */
+    public void setMaxRootHalfLength(double maxRootHalfLength) {
+        this.maxRootHalfLength = maxRootHalfLength;
+    }
+
+    public double getMaxRootHalfLength() {
+        return maxRootHalfLength;
+    }
+
+    public void setOutOfBoundsPolicy(OutOfBoundsPolicy outOfBoundsPolicy) {
+        this.outOfBoundsPolicy = outOfBoundsPolicy;
+    }
+
+    public OutOfBoundsPolicy getOutOfBoundsPolicy() {
+        return outOfBoundsPolicy;
+    }
+
+    /**
+     * Sets the listener that is told about the entities removed with
+     * {@link OutOfBoundsPolicy#NOTIFY}, the listener is called at the end of the update.
+     */
+    public void setOutOfBoundsListener(OutOfBoundsListener outOfBoundsListener) {
+        this.outOfBoundsListener = outOfBoundsListener;
+    }
+
+    public OutOfBoundsListener getOutOfBoundsListener() {
+        return outOfBoundsListener;
+    }
+
+    /**
+     * When enabled, the spatial tree is rebuilt around the centroid of the entities at the end of
+     * an update if that lets the root shrink to at most half its size. This helps when the
+     * entities drift as a group, which the root can't follow by only contracting to one of its
+     * children.
+     */
+    public void setRootRecentering(boolean rootRecentering) {
+        this.rootRecentering = rootRecentering;
+    }
+
+    public boolean isRootRecentering() {
+        return rootRecentering;
+    }
+
+    /**
+     * Enables or disables the {@link PairCache}, which reuses the narrow phase results of the
+     * pairs of entities whose relative motion hasn't changed since they were last checked.
+     */
+    public void setPairCacheEnabled(boolean enabled) {
+        if (!enabled) {
+            pairCache = null;
+        } else if (pairCache == null) {
+            pairCache = new PairCache();
+        }
+    }
+
+    /**
+     * @return the {@link PairCache}, which reports the hit rate of the cache, or null if it is
+     * disabled
+     */
+    public PairCache getPairCache() {
+        return pairCache;
+    }
+
+    /**
+     * Enables or disables the {@link SleepManager}, which stops updating the entities that have
+     * come to rest until something wakes them. Disabling it wakes every {@link Entity}.
+     */
+    public void setSleepingEnabled(boolean enabled) {
+        if (enabled) {
+            if (sleepManager == null) {
+                sleepManager = new SleepManager();
+            }
+        } else if (sleepManager != null) {
+            sleepManager.wakeAll(broadphase);
+            sleepManager = null;
+        }
+    }
+
+    /**
+     * @return the {@link SleepManager}, which holds the settings for when entities are put to
+     * sleep, or null if sleeping is disabled
+     */
+    public SleepManager getSleepManager() {
+        return sleepManager;
+    }
+
+    public RelocationStats getRelocationStats() {
+        return relocationStats;
+    }
+
     public void clear() {
         for (int i = 0; i < collisionGroups.length; i++) {
             collisionGroups[i] = 0;
         }
-        tree.clear();
+        collisionLayers.clearCollisions();
+        broadphase.clear();
+        staticLayer.clear();
+        sensorLayer.clear();
+        nodePool.trim();
         worldEffects.clear();
+        if (pairCache != null) {
+            pairCache.clear();
+        }
+        if (sleepManager != null) {
+            sleepManager.clear();
+        }
     }
 
     public void update(double elapsedTime, Context context) {
+        boolean worldEffectsChanged = false;
         for (int i = 0; i < worldEffects.size(); i++) {
-            worldEffects.get(i).update(elapsedTime);
+            WorldEffect worldEffect = worldEffects.get(i);
+            worldEffectsChanged |= worldEffect.pollChanged();
+            worldEffect.update(elapsedTime);
+        }
+        if (worldEffectsChanged && sleepManager != null) {
+            sleepManager.wakeAll(broadphase);
+        }
+        staticLayer.build();
+        broadphase.update(elapsedTime, worldEffects, context);
+        sensorLayer.update(elapsedTime, worldEffects);
+        if (pairCache != null) {
+            pairCache.endUpdate(elapsedTime);
+        }
+        if (sleepManager != null) {
+            sleepManager.endUpdate(broadphase);
         }
-        tree.updateMotions(elapsedTime, worldEffects);
-        tree.ensureEntitiesAreContained(elapsedTime);
-        tree.calcCollision(elapsedTime, context);
     }
 
     public void draw(Context context, Renderer renderer) {
         Viewport viewPort = context.getViewPort();
 
         viewPort.applyTransformations(renderer);
-        tree.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort.getMaxY(),
-                renderer);
+        staticLayer.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
+        broadphase.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
+        sensorLayer.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
 //        tree.drawTree(g, RColor.RED);
         viewPort.reverseTransformations(renderer);
     }
 
     public void drawTree(Renderer renderer, RColor color) {
-        tree.drawTree(renderer, color);
+        broadphase.drawStructure(renderer, color);
+        staticLayer.drawStructure(renderer, color);
     }
 
+    /**
+     * @return the bitmasks of the {@link EntityType EntityTypes} that each {@link EntityType}
+     * collides with, the registered layers aren't included
+     */
     public int[] getCollisionGroups() {
         return collisionGroups;
     }
@@ -95,7 +424,260 @@ public class World {
         return collisionList;
     }
 
+    public void queryAABB(double minX, double minY, double maxX, double maxY, QueryResult
+            result) {
+        queryAABB(minX, minY, maxX, maxY, ALL_TYPES, result);
+    }
+
+    /**
+     * Finds the entities whose bounding rectangles overlap the region, the static entities
+     * included.
+     *
+     * The type masks of the queries only have a bit for the first 32 layers, the entities in the
+     * layers past that are never matched by a type mask other than {@link #ALL_TYPES}. The
+     * overloads that take a layer mask from {@link CollisionLayers#createMask(int...)} work with
+     * every layer.
+     *
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include, like the
+     *                 collision group of an {@link EntityType} from {@link #getCollisionGroups()}
+     * @param result   the {@link QueryResult} to store the entities in, it is cleared first
+     */
+    public void queryAABB(double minX, double minY, double maxX, double maxY, int typeMask,
+                          QueryResult result) {
+        result.clear();
+        broadphase.queryRegion(minX, minY, maxX, maxY, typeMask, result);
+        staticLayer.queryRegion(minX, minY, maxX, maxY, typeMask, result);
+    }
+
+    /**
+     * Finds the entities in the layers of the mask whose bounding rectangles overlap the region,
+     * the static entities included.
+     *
+     * @param layerMask the layers to include, from {@link CollisionLayers#createMask(int...)}
+     * @param result    the {@link QueryResult} to store the entities in, it is cleared first
+     */
+    public void queryAABB(double minX, double minY, double maxX, double maxY, long[] layerMask,
+                          QueryResult result) {
+        result.clear();
+        result.setLayerMask(layerMask);
+        broadphase.queryRegion(minX, minY, maxX, maxY, ALL_TYPES, result);
+        staticLayer.queryRegion(minX, minY, maxX, maxY, ALL_TYPES, result);
+    }
+
+    public void queryShape(Entity probe, QueryResult result) {
+        queryShape(probe, ALL_TYPES, result);
+    }
+
+    /**
+     * Finds the entities whose shapes overlap the shape of the probe. The probe only gives the
+     * shape and its position, it doesn't have to be in the world and is never in the result.
+     *
+     * @param probe    the entity holding the shape to query with
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include
+     * @param result   the {@link QueryResult} to store the entities in, it is cleared first
+     */
+    public void queryShape(Entity probe, int typeMask, QueryResult result) {
+        double x = probe.getX(), y = probe.getY();
+        double halfWidth = probe.getHalfWidth(), halfHeight = probe.getHalfHeight();
+        queryAABB(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight, typeMask, result);
+        removeNotOverlapping(probe, result);
+    }
+
+    /**
+     * Finds the entities in the layers of the mask whose shapes overlap the shape of the probe.
+     *
+     * @param layerMask the layers to include, from {@link CollisionLayers#createMask(int...)}
+     * @see #queryShape(Entity, int, QueryResult)
+     */
+    public void queryShape(Entity probe, long[] layerMask, QueryResult result) {
+        double x = probe.getX(), y = probe.getY();
+        double halfWidth = probe.getHalfWidth(), halfHeight = probe.getHalfHeight();
+        queryAABB(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight, layerMask,
+                result);
+        removeNotOverlapping(probe, result);
+    }
+
+    private void removeNotOverlapping(Entity probe, QueryResult result) {
+        Shape shape = probe.getShape();
+        for (int i = result.size() - 1; i >= 0; i--) {
+            Entity entity = result.get(i);
+            if (entity == probe || !shape.isOverlappingShape(entity.getShape())) {
+                result.remove(i);
+            }
+        }
+    }
+
+    public void queryPoint(double x, double y, QueryResult result) {
+        queryPoint(x, y, ALL_TYPES, result);
+    }
+
+    /**
+     * Finds the entities whose shapes contain the point.
+     *
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include
+     * @param result   the {@link QueryResult} to store the entities in, it is cleared first
+     */
+    public void queryPoint(double x, double y, int typeMask, QueryResult result) {
+        queryAABB(x, y, x, y, typeMask, result);
+        removeNotContaining(x, y, result);
+    }
+
+    /**
+     * Finds the entities in the layers of the mask whose shapes contain the point.
+     *
+     * @param layerMask the layers to include, from {@link CollisionLayers#createMask(int...)}
+     * @param result    the {@link QueryResult} to store the entities in, it is cleared first
+     */
+    public void queryPoint(double x, double y, long[] layerMask, QueryResult result) {
+        queryAABB(x, y, x, y, layerMask, result);
+        removeNotContaining(x, y, result);
+    }
+
+    private void removeNotContaining(double x, double y, QueryResult result) {
+        for (int i = result.size() - 1; i >= 0; i--) {
+            if (!result.get(i).getShape().containsPoint(x, y)) {
+                result.remove(i);
+            }
+        }
+    }
+
+    public void queryNearest(double x, double y, int count, QueryResult result) {
+        queryNearest(x, y, count, ALL_TYPES, result);
+    }
+
+    /**
+     * Finds the entities whose positions are nearest to the point, ordered from nearest to
+     * farthest.
+     *
+     * @param count    the largest number of entities to find
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} to include
+     * @param result   the {@link QueryResult} to store the entities and their distances in, it is
+     *                 cleared first
+     */
+    public void queryNearest(double x, double y, int count, int typeMask, QueryResult result) {
+        result.clear();
+        if (count <= 0) {
+            return;
+        }
+        result.setLimit(count);
+        broadphase.queryNearest(x, y, typeMask, result);
+        staticLayer.queryNearest(x, y, typeMask, result);
+    }
+
+    /**
+     * Finds the entities in the layers of the mask whose positions are nearest to the point.
+     *
+     * @param layerMask the layers to include, from {@link CollisionLayers#createMask(int...)}
+     * @see #queryNearest(double, double, int, int, QueryResult)
+     */
+    public void queryNearest(double x, double y, int count, long[] layerMask, QueryResult
+            result) {
+        result.clear();
+        if (count <= 0) {
+            return;
+        }
+        result.setLimit(count);
+        result.setLayerMask(layerMask);
+        broadphase.queryNearest(x, y, ALL_TYPES, result);
+        staticLayer.queryNearest(x, y, ALL_TYPES, result);
+    }
+
+    public void raycast(double originX, double originY, double directionX, double directionY,
+                        double maxDistance, CastResult result) {
+        raycast(originX, originY, directionX, directionY, maxDistance, ALL_TYPES, result);
+    }
+
+    /**
+     * Finds the first entity that the ray hits, the static entities included. Entities that the
+     * ray starts inside of aren't hit.
+     *
+     * @param directionX  the x component of the direction of the ray, it doesn't have to be a
+     *                    unit vector
+     * @param maxDistance the length of the ray
+     * @param typeMask    the bitmask of the {@link EntityType EntityTypes} that can be hit
+     * @param result      the {@link CastResult} to store the hit in, the time of the hit is the
+     *                    distance along the ray
+     */
+    public void raycast(double originX, double originY, double directionX, double directionY,
+                        double maxDistance, int typeMask, CastResult result) {
+        raycast(originX, originY, directionX, directionY, maxDistance, typeMask, null, result);
+    }
+
+    /**
+     * Finds the first entity in the layers of the mask that the ray hits.
+     *
+     * @param layerMask the layers that can be hit, from
+     *                  {@link CollisionLayers#createMask(int...)}
+     * @see #raycast(double, double, double, double, double, int, CastResult)
+     */
+    public void raycast(double originX, double originY, double directionX, double directionY,
+                        double maxDistance, long[] layerMask, CastResult result) {
+        raycast(originX, originY, directionX, directionY, maxDistance, ALL_TYPES, layerMask,
+                result);
+    }
+
+    private void raycast(double originX, double originY, double directionX, double directionY,
+                         double maxDistance, int typeMask, long[] layerMask, CastResult result) {
+        double length = Math.sqrt(directionX * directionX + directionY * directionY);
+        if (length == 0) {
+            result.beginRaycast(originX, originY, 0, 0, 0, typeMask, layerMask);
+            result.end();
+            return;
+        }
+        result.beginRaycast(originX, originY, directionX / length, directionY / length,
+                maxDistance, typeMask, layerMask);
+        broadphase.cast(result);
+        staticLayer.cast(result);
+        result.end();
+    }
+
+    public void shapeCast(Entity probe, double velocityX, double velocityY, double maxTime,
+                          CastResult result) {
+        shapeCast(probe, velocityX, velocityY, maxTime, ALL_TYPES, result);
+    }
+
+    /**
+     * Moves the shape of the probe from its current position at the velocity and finds the first
+     * entity that it hits, using the same times of impact as the collisions. The other entities
+     * are treated as standing still. The probe only gives the shape and its starting position,
+     * it must not be in the world and its velocity is restored afterwards.
+     *
+     * @param probe    the entity holding the shape to cast
+     * @param maxTime  the amount of time to move the shape for
+     * @param typeMask the bitmask of the {@link EntityType EntityTypes} that can be hit
+     * @param result   the {@link CastResult} to store the hit in
+     */
+    public void shapeCast(Entity probe, double velocityX, double velocityY, double maxTime, int
+            typeMask, CastResult result) {
+        shapeCast(probe, velocityX, velocityY, maxTime, typeMask, null, result);
+    }
+
+    /**
+     * Moves the shape of the probe and finds the first entity in the layers of the mask that it
+     * hits.
+     *
+     * @param layerMask the layers that can be hit, from
+     *                  {@link CollisionLayers#createMask(int...)}
+     * @see #shapeCast(Entity, double, double, double, int, CastResult)
+     */
+    public void shapeCast(Entity probe, double velocityX, double velocityY, double maxTime,
+                          long[] layerMask, CastResult result) {
+        shapeCast(probe, velocityX, velocityY, maxTime, ALL_TYPES, layerMask, result);
+    }
+
+    private void shapeCast(Entity probe, double velocityX, double velocityY, double maxTime, int
+            typeMask, long[] layerMask, CastResult result) {
+        assert !probe.isInWorld();
+        double probeDX = probe.getDX(), probeDY = probe.getDY();
+        result.beginShapeCast(probe, velocityX, velocityY, maxTime, typeMask, layerMask);
+        broadphase.cast(result);
+        staticLayer.cast(result);
+        result.end();
+        probe.setVelocity(probeDX, probeDY);
+    }
+
     public int getEntityCount() {
-        return tree.getEntityCount();
+        return broadphase.getEntityCount() + staticLayer.getEntityCount() + sensorLayer
+                .getSensorCount();
     }
 }
@@ -0,0 +1,412 @@
+package gameengine.collisiondetection.broadphase;
+
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.math.Utils;
+
+/**
+ * A {@link Broadphase} that stores a complete quadtree in flat arrays instead of linked node
+ * objects. The nodes of each level are stored in Morton order after the nodes of the levels above
+ * it, so a node is identified by its level and its Morton code alone: its bounds are derived
+ * from the code and its children are the four nodes at four times its code on the next level.
+ *
+ * The nodes are loose, each {@link Entity} is stored in the node that contains the center of its
+ * bounding box on the deepest level whose nodes are at least as large as the bounding box. The
+ * bounds of a node are its square grown by half its length on each side, so the bounding boxes
+ * of its entities are always inside its bounds and entities that straddle the center of a node
+ * don't pile up near the root.
+ *
+ * The tree is rebuilt at the start of each update with a counting sort that stores the ids of
+ * the entities of every node in one shared int array, the entities of a node are the range of
+ * that array between its start and the start of the next node. Entities that no longer fit
+ * their node after a collision, and entities added during an update, are kept in a separate list
+ * of moved entities until the next rebuild.
+ *
+ * The depth of the tree is chosen each update so that the smallest nodes are about the size of
+ * the typical {@link Entity}.
+ *
+ * @author davidrusu
+ */
+public class LinearQuadtree extends ProxyBroadphase {
+    private static final int MAX_DEPTH = 8;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int MOVED = -1, NOT_PLACED = -2;
+    /**
+     * The index of the first node of each level
+     */
+    private static final int[] LEVEL_OFFSETS = new int[MAX_DEPTH + 2];
+    private int depth = 0, gridSize = 1, numNodes = 1;
+    private double rootMinX, rootMinY, rootLength = 1, scale = 1;
+    private int[] nodeStarts = new int[2];
+    private int[] subtreeCounts = new int[1];
+    private int[] nodeEntities = new int[INITIAL_CAPACITY];
+    private int[] nodeOf = new int[INITIAL_CAPACITY];
+    private int[] moved = new int[INITIAL_CAPACITY];
+    private int numMoved = 0;
+
+    static {
+        for (int level = 1; level < LEVEL_OFFSETS.length; level++) {
+            LEVEL_OFFSETS[level] = LEVEL_OFFSETS[level - 1] + (1 << (2 * (level - 1)));
+        }
+    }
+
+    public LinearQuadtree(World world) {
+        super(world);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getNodeCount() {
+        return numNodes;
+    }
+
+    /**
+     * @return the number of entities that were moved out of their node or added since the last
+     * rebuild
+     */
+    public int getMovedEntityCount() {
+        return numMoved;
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        super.drawStructure(renderer, color);
+        for (int level = 0; level <= depth; level++) {
+            double length = rootLength / (1 << level);
+            for (int node = LEVEL_OFFSETS[level]; node < LEVEL_OFFSETS[level + 1]; node++) {
+                if (nodeStarts[node] == nodeStarts[node + 1]) {
+                    continue;
+                }
+                int code = node - LEVEL_OFFSETS[level];
+                double minX = rootMinX + getCodeX(code) * length;
+                double minY = rootMinY + getCodeY(code) * length;
+                renderer.drawRect(minX + length / 2, minY + length / 2, length / 2, length / 2);
+            }
+        }
+    }
+
+    @Override
+    void buildStructure() {
+        numMoved = 0;
+        if (size == 0) {
+            depth = 0;
+            numNodes = 1;
+            nodeStarts[0] = 0;
+            nodeStarts[1] = 0;
+            subtreeCounts[0] = 0;
+            return;
+        }
+        calculateRoot();
+        ensureNodeCapacity();
+        if (nodeEntities.length < size) {
+            nodeEntities = new int[proxies.length];
+        }
+
+        int[] counts = subtreeCounts;
+        for (int i = 0; i < numNodes; i++) {
+            counts[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            int node = getNode(proxy.entity);
+            nodeOf[proxy.id] = node;
+            counts[node]++;
+        }
+        // the starts are the ends of each node until the ids are filled in from the back
+        int total = 0;
+        for (int i = 0; i < numNodes; i++) {
+            total += counts[i];
+            nodeStarts[i] = total;
+        }
+        nodeStarts[numNodes] = total;
+        for (int i = size - 1; i >= 0; i--) {
+            int id = proxies[i].id;
+            int node = nodeOf[id];
+            nodeStarts[node]--;
+            nodeEntities[nodeStarts[node]] = id;
+        }
+
+        for (int level = depth - 1; level >= 0; level--) {
+            int childOffset = LEVEL_OFFSETS[level + 1];
+            for (int code = 0, node = LEVEL_OFFSETS[level]; node < childOffset; code++, node++) {
+                int firstChild = childOffset + (code << 2);
+                counts[node] += counts[firstChild] + counts[firstChild + 1] + counts[firstChild +
+                        2] + counts[firstChild + 3];
+            }
+        }
+    }
+
+    @Override
+    void initCalcCollision() {
+        // the queries are symmetric so each pair is only checked from the entity that comes
+        // first in the list of proxies
+        for (int i = 0; i < size; i++) {
+            queryTree(proxies[i], true);
+        }
+    }
+
+    @Override
+    void checkNeighbours(Proxy proxy) {
+        queryTree(proxy, false);
+        Entity entity = proxy.entity;
+        for (int i = 0; i < numMoved; i++) {
+            Proxy other = proxiesById[moved[i]];
+            if (other != proxy && overlaps(entity, other.entity)) {
+                collideShapes(proxy, other);
+            }
+        }
+    }
+
+    /**
+     * Checks the proxy against the entities of every node whose bounds overlap its bounding box.
+     *
+     * @param onlyLater true to only check the entities after the proxy in the list of proxies
+     */
+    private void queryTree(Proxy proxy, boolean onlyLater) {
+        Entity entity = proxy.entity;
+        int minX = toGridX(entity.getBBMinX()), maxX = toGridX(entity.getBBMaxX());
+        int minY = toGridY(entity.getBBMinY()), maxY = toGridY(entity.getBBMaxY());
+        int minIndex = onlyLater ? entity.getBroadphaseIndex() + 1 : 0;
+        checkNode(proxy, minIndex, 0, 0, 0, minX, maxX, minY, maxY);
+    }
+
+    private void checkNode(Proxy proxy, int minIndex, int level, int x, int y, int minX, int
+            maxX, int minY, int maxY) {
+        int node = LEVEL_OFFSETS[level] + Utils.interleaveBits(x, y);
+        if (subtreeCounts[node] == 0) {
+            return;
+        }
+        int shift = depth - level;
+        int margin = getMargin(shift);
+        if ((x << shift) - margin > maxX || ((x + 1) << shift) - 1 + margin < minX || (y <<
+                shift) - margin > maxY || ((y + 1) << shift) - 1 + margin < minY) {
+            return;
+        }
+        Entity entity = proxy.entity;
+        for (int i = nodeStarts[node]; i < nodeStarts[node + 1]; i++) {
+            int id = nodeEntities[i];
+            // entities that moved out of the node are still in its range until the next rebuild
+            if (nodeOf[id] != node || id == proxy.id) {
+                continue;
+            }
+            Proxy other = proxiesById[id];
+            if (other.entity.getBroadphaseIndex() >= minIndex && overlaps(entity, other.entity)) {
+                collideShapes(proxy, other);
+            }
+        }
+        if (level < depth) {
+            int childLevel = level + 1;
+            int childX = x << 1, childY = y << 1;
+            checkNode(proxy, minIndex, childLevel, childX, childY, minX, maxX, minY, maxY);
+            checkNode(proxy, minIndex, childLevel, childX + 1, childY, minX, maxX, minY, maxY);
+            checkNode(proxy, minIndex, childLevel, childX, childY + 1, minX, maxX, minY, maxY);
+            checkNode(proxy, minIndex, childLevel, childX + 1, childY + 1, minX, maxX, minY,
+                    maxY);
+        }
+    }
+
+    /**
+     * @return the number of grid cells that the bounds of the nodes with the shift extend past
+     * their square, half the length of the node plus a cell for rounding
+     */
+    private static int getMargin(int shift) {
+        return ((1 << shift) >> 1) + 1;
+    }
+
+    @Override
+    void proxyAdded(Proxy proxy) {
+        addToMoved(proxy.id);
+    }
+
+    @Override
+    void proxyRemoved(Proxy proxy) {
+        int id = proxy.id;
+        if (nodeOf[id] == MOVED) {
+            for (int i = 0; i < numMoved; i++) {
+                if (moved[i] == id) {
+                    numMoved--;
+                    moved[i] = moved[numMoved];
+                    break;
+                }
+            }
+        }
+        nodeOf[id] = NOT_PLACED;
+    }
+
+    @Override
+    void entityMoved(Proxy proxy) {
+        int id = proxy.id;
+        int node = nodeOf[id];
+        if (node != MOVED && !fitsInNode(proxy.entity, node)) {
+            addToMoved(id);
+        }
+    }
+
+    @Override
+    void clearStructure() {
+        numMoved = 0;
+        depth = 0;
+        numNodes = 1;
+        nodeStarts[0] = 0;
+        nodeStarts[1] = 0;
+        subtreeCounts[0] = 0;
+    }
+
+    @Override
+    void idCapacityExpanded(int capacity) {
+        int[] temp = nodeOf;
+        nodeOf = new int[capacity];
+        System.arraycopy(temp, 0, nodeOf, 0, temp.length);
+    }
+
+    private void addToMoved(int id) {
+        if (numMoved == moved.length) {
+            int[] temp = moved;
+            moved = new int[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, moved, 0, numMoved);
+        }
+        moved[numMoved] = id;
+        numMoved++;
+        nodeOf[id] = MOVED;
+    }
+
+    /**
+     * Fits the root square around the bounding boxes of all of the entities and picks the depth
+     * so that the smallest nodes are about as large as the typical {@link Entity}.
+     */
+    private void calculateRoot() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            minX = Math.min(minX, entity.getBBMinX());
+            minY = Math.min(minY, entity.getBBMinY());
+            maxX = Math.max(maxX, entity.getBBMaxX());
+            maxY = Math.max(maxY, entity.getBBMaxY());
+        }
+        rootMinX = minX;
+        rootMinY = minY;
+        rootLength = Math.max(maxX - minX, maxY - minY);
+        if (rootLength <= 0) {
+            rootLength = 1;
+        }
+
+        double extent = getTypicalExtent();
+        depth = 0;
+        while (depth < MAX_DEPTH && rootLength / (1 << (depth + 1)) >= extent) {
+            depth++;
+        }
+        gridSize = 1 << depth;
+        scale = gridSize / rootLength;
+        numNodes = LEVEL_OFFSETS[depth + 1];
+    }
+
+    private void ensureNodeCapacity() {
+        if (subtreeCounts.length < numNodes) {
+            subtreeCounts = new int[numNodes];
+            nodeStarts = new int[numNodes + 1];
+        }
+    }
+
+    /**
+     * @return the index of the node containing the center of the entity's bounding box on the
+     * deepest level whose nodes are at least as large as the bounding box
+     */
+    private int getNode(Entity entity) {
+        double extent = getExtent(entity) * scale;
+        int shift = 0;
+        while (shift < depth && (1 << shift) < extent) {
+            shift++;
+        }
+        int x = toGridX(entity.getBBCenterX()) >> shift;
+        int y = toGridY(entity.getBBCenterY()) >> shift;
+        return LEVEL_OFFSETS[depth - shift] + Utils.interleaveBits(x, y);
+    }
+
+    /**
+     * @return true if the bounding box of the entity is inside the bounds of the node
+     */
+    private boolean fitsInNode(Entity entity, int node) {
+        int level = getLevel(node);
+        int code = node - LEVEL_OFFSETS[level];
+        int shift = depth - level;
+        int margin = getMargin(shift);
+        int minX = getCodeX(code) << shift, minY = getCodeY(code) << shift;
+        int maxX = minX + (1 << shift) - 1, maxY = minY + (1 << shift) - 1;
+        return toGridX(entity.getBBMinX()) >= minX - margin && toGridX(entity.getBBMaxX()) <=
+                maxX + margin && toGridY(entity.getBBMinY()) >= minY - margin && toGridY(entity
+                .getBBMaxY()) <= maxY + margin;
+    }
+
+    private int getLevel(int node) {
+        int level = 0;
+        while (LEVEL_OFFSETS[level + 1] <= node) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The positions are clamped to the grid so that entities outside of the root still map to
+     * the nodes along its edges
+     */
+    private int toGridX(double x) {
+        return (int) Math.max(0, Math.min(gridSize - 1, (x - rootMinX) * scale));
+    }
+
+    private int toGridY(double y) {
+        return (int) Math.max(0, Math.min(gridSize - 1, (y - rootMinY) * scale));
+    }
+
+    private static int getCodeX(int code) {
+        return compactBits(code);
+    }
+
+    private static int getCodeY(int code) {
+        return compactBits(code >>> 1);
+    }
+
+    private static int compactBits(int value) {
+        value &= 0x55555555;
+        value = (value | (value >>> 1)) & 0x33333333;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F;
+        value = (value | (value >>> 4)) & 0x00FF00FF;
+        value = (value | (value >>> 8)) & 0x0000FFFF;
+        return value;
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    @Override
+    public boolean isStructureCorrect() {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            int id = proxy.id;
+            assert proxy.entity.getBroadphaseIndex() == i : "index: " + i;
+            assert proxiesById[id] == proxy : "id: " + id;
+            int node = nodeOf[id];
+            if (node == MOVED) {
+                boolean found = false;
+                for (int j = 0; j < numMoved; j++) {
+                    found |= moved[j] == id;
+                }
+                assert found : "id: " + id + " is missing from the moved list";
+                continue;
+            }
+            assert node >= 0 && node < numNodes : "id: " + id + " node: " + node;
+            assert fitsInNode(proxy.entity, node) : "id: " + id + " node: " + node;
+            boolean found = false;
+            for (int j = nodeStarts[node]; j < nodeStarts[node + 1]; j++) {
+                found |= nodeEntities[j] == id;
+            }
+            assert found : "id: " + id + " is missing from node: " + node;
+        }
+        return true;
+    }
+}
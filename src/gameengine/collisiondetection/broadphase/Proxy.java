@@ -0,0 +1,45 @@
+package gameengine.collisiondetection.broadphase;
+
+import gameengine.collisiondetection.tree.CollisionNode;
+import gameengine.entities.Entity;
+
+/**
+ * The {@link CollisionNode} of a single {@link Entity} in a {@link SweepAndPrune}. The node
+ * stores the earliest known collision of the {@link Entity} as an absolute time from the start
+ * of the update.
+ *
+ * The collision stays valid until either of its entities changes its motion, every change bumps
+ * the version of the proxy so a collision with a partner whose version no longer matches is
+ * known to be stale.
+ *
+ * @author davidrusu
+ */
+class Proxy extends CollisionNode {
+    Entity entity;
+    /**
+     * The time that the position of the {@link Entity} was last updated to
+     */
+    double time;
+    int version;
+    Proxy partner;
+    int partnerVersion;
+    /**
+     * Stable id of the proxy while it is in a {@link ProxyBroadphase}
+     */
+    int id = -1;
+
+    Proxy(Entity entity) {
+        this.entity = entity;
+    }
+
+    boolean isStale() {
+        return partner != null && (partner.entity == null || partner.version != partnerVersion);
+    }
+
+    void updatePosition(double currentTime) {
+        if (currentTime != time) {
+            entity.updatePosition(currentTime - time);
+            time = currentTime;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package gameengine.collisiondetection.broadphase;
+
+import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.CastResult;
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.PairCache;
+import gameengine.collisiondetection.QueryResult;
+import gameengine.collisiondetection.World;
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.collisiondetection.tree.CollisionList;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+import gameengine.entities.SleepManager;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+import java.util.Arrays;
+
+/**
+ * Base of the {@link Broadphase Broadphases} that give every {@link Entity} its own
+ * {@link Proxy} in a {@link CollisionList}. The subclasses only decide which entities are
+ * checked against each other, the collisions are handled here in the order that they happen.
+ *
+ * After a collision is handled only the two entities involved are checked against the entities
+ * around them. The collisions of other entities that involve an {@link Entity} whose motion
+ * changed are recalculated lazily once they reach the front of the list.
+ *
+ * {@link Entity#getBroadphaseIndex()} is the index of the {@link Entity}'s {@link Proxy} in
+ * {@link #proxies}. Every {@link Proxy} also has a stable id, which lets the subclasses refer to
+ * the proxies from primitive arrays.
+ *
+ * @author davidrusu
+ */
+public abstract class ProxyBroadphase implements Broadphase {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final double OVERSIZE_FACTOR = 4;
+    protected World world;
+    Proxy[] proxies = new Proxy[INITIAL_CAPACITY];
+    int size = 0;
+    Proxy[] proxiesById = new Proxy[INITIAL_CAPACITY];
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int numFreeIds = 0, nextId = 0;
+    private CollisionList collisionList = new CollisionList();
+    private Collision tempCollision = new Collision();
+    private Collision staticCollision = new Collision();
+    private boolean updating = false;
+    private double currentTime, elapsedTime;
+
+    protected ProxyBroadphase(World world) {
+        this.world = world;
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        assert entity.getBroadphase() == null;
+
+        entity.setBroadphase(this);
+        Proxy proxy = new Proxy(entity);
+        if (updating) {
+            proxy.time = currentTime;
+            entity.calculateBoundingBox(elapsedTime - currentTime);
+        } else {
+            entity.calculateBoundingBox(0);
+        }
+        if (size == proxies.length) {
+            Proxy[] temp = proxies;
+            proxies = new Proxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, proxies, 0, size);
+        }
+        proxies[size] = proxy;
+        entity.setBroadphaseIndex(size);
+        size++;
+        collisionList.add(proxy);
+        assignId(proxy);
+        proxyAdded(proxy);
+        if (updating) {
+            calcCollision(proxy);
+        }
+    }
+
+    @Override
+    public void addEntities(Entity[] entities) {
+        for (int i = 0; i < entities.length; i++) {
+            addEntity(entities[i]);
+        }
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        assert entity.getBroadphase() == this;
+
+        int index = entity.getBroadphaseIndex();
+        Proxy proxy = proxies[index];
+        if (updating) {
+            proxy.updatePosition(currentTime);
+        }
+        proxyRemoved(proxy);
+        freeId(proxy);
+        removeFromArray(index);
+        collisionList.remove(proxy);
+        proxy.version++;
+        proxy.entity = null;
+        proxy.partner = null;
+        entity.setBroadphaseIndex(-1);
+    }
+
+    @Override
+    public void update(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects, Context
+            context) {
+        this.elapsedTime = elapsedTime;
+        currentTime = 0;
+        updateMotions(elapsedTime, worldEffects);
+        calculateBoundingBoxes(elapsedTime);
+        buildStructure();
+        assert isStructureCorrect();
+
+        initCalcCollision();
+        if (world.getStaticLayer().getEntityCount() > 0) {
+            for (int i = 0; i < size; i++) {
+                collideWithStatics(proxies[i]);
+            }
+        }
+        collisionList.heapify();
+        assert collisionList.areNodesSorted();
+
+        updating = true;
+        Proxy node = (Proxy) collisionList.getNextNode();
+        while (node != null && node.getCollisionTime() <= elapsedTime) {
+            if (node.isStale()) {
+                calcCollision(node);
+            } else {
+                handleCollision(node.getCollision(), context);
+            }
+            assert isStructureCorrect();
+            node = (Proxy) collisionList.getNextNode();
+        }
+        updating = false;
+
+        for (int i = 0; i < size; i++) {
+            proxies[i].updatePosition(elapsedTime);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            entity.setBroadphase(null);
+            entity.setBroadphaseIndex(-1);
+            proxies[i] = null;
+        }
+        size = 0;
+        Arrays.fill(proxiesById, 0, nextId, null);
+        nextId = 0;
+        numFreeIds = 0;
+        collisionList.clear();
+        clearStructure();
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            if (entity.getBBMinX() <= maxX && entity.getBBMaxX() >= minX && entity.getBBMinY()
+                    <= maxY && entity.getBBMaxY() >= minY) {
+                entity.draw(renderer);
+            }
+        }
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        renderer.setForegroundColor(color);
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            renderer.drawRect(entity.getBBCenterX(), entity.getBBCenterY(), entity
+                    .getBBHalfWidth(), entity.getBBHalfHeight());
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        return size;
+    }
+
+    @Override
+    public int copyEntities(Entity[] entities) {
+        for (int i = 0; i < size; i++) {
+            entities[i] = proxies[i].entity;
+        }
+        return size;
+    }
+
+    /**
+     * Checks every proxy, a subclass can override this to narrow the search down with its
+     * structure.
+     */
+    @Override
+    public void queryRegion(double minX, double minY, double maxX, double maxY, int typeMask,
+                            QueryResult result) {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            if (updating) {
+                proxy.updatePosition(currentTime);
+            }
+            result.addIfOverlapping(proxy.entity, minX, minY, maxX, maxY, typeMask);
+        }
+    }
+
+    @Override
+    public void queryNearest(double x, double y, int typeMask, QueryResult result) {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            if (updating) {
+                proxy.updatePosition(currentTime);
+            }
+            result.offerIfMatching(proxy.entity, x, y, typeMask);
+        }
+    }
+
+    @Override
+    public void cast(CastResult result) {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            if (updating) {
+                proxy.updatePosition(currentTime);
+            }
+            result.castEntity(proxy.entity);
+        }
+    }
+
+    /**
+     * Called once the bounding boxes of all the entities have been calculated at the start of an
+     * update.
+     */
+    abstract void buildStructure();
+
+    /**
+     * Checks every pair of entities that could collide during the update by calling
+     * {@link #collideShapes(Proxy, Proxy)} once for each pair.
+     */
+    abstract void initCalcCollision();
+
+    /**
+     * Checks the proxy against every {@link Entity} that it could collide with by calling
+     * {@link #collideShapes(Proxy, Proxy)}.
+     */
+    abstract void checkNeighbours(Proxy proxy);
+
+    /**
+     * Called after the proxy has been added to the end of {@link #proxies}.
+     */
+    abstract void proxyAdded(Proxy proxy);
+
+    /**
+     * Called before the proxy is removed from {@link #proxies}.
+     */
+    abstract void proxyRemoved(Proxy proxy);
+
+    /**
+     * Called after the bounding box of the {@link Entity} of the proxy was recalculated during
+     * an update.
+     */
+    abstract void entityMoved(Proxy proxy);
+
+    abstract void clearStructure();
+
+    /**
+     * Called after the number of ids has grown, the arrays indexed by id must be at least as
+     * long as the capacity.
+     */
+    void idCapacityExpanded(int capacity) {
+    }
+
+    /**
+     * Removes the proxy at the index by moving the last proxy into its place, subclasses that
+     * depend on the order of {@link #proxies} override this.
+     */
+    void removeFromArray(int index) {
+        size--;
+        if (index != size) {
+            proxies[index] = proxies[size];
+            proxies[index].entity.setBroadphaseIndex(index);
+        }
+        proxies[size] = null;
+    }
+
+    private void assignId(Proxy proxy) {
+        int id;
+        if (numFreeIds > 0) {
+            numFreeIds--;
+            id = freeIds[numFreeIds];
+        } else {
+            if (nextId == proxiesById.length) {
+                proxiesById = Arrays.copyOf(proxiesById, proxiesById.length * EXPANSION_FACTOR);
+                idCapacityExpanded(proxiesById.length);
+            }
+            id = nextId;
+            nextId++;
+        }
+        proxy.id = id;
+        proxiesById[id] = proxy;
+    }
+
+    private void freeId(Proxy proxy) {
+        int id = proxy.id;
+        proxiesById[id] = null;
+        if (numFreeIds == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * EXPANSION_FACTOR);
+        }
+        freeIds[numFreeIds] = id;
+        numFreeIds++;
+        proxy.id = -1;
+    }
+
+    private void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            Entity entity = proxy.entity;
+            // the collision times of the last update are absolute, so they are cleared even for
+            // sleeping proxies or a stale collision could be handled in a later update
+            proxy.time = 0;
+            proxy.partner = null;
+            proxy.getCollision().setNoCollision();
+            if (entity.isAsleep()) {
+                continue;
+            }
+            int layer = entity.getLayer();
+            for (int j = 0; j < worldEffects.size(); j++) {
+                WorldEffect worldEffect = worldEffects.get(j);
+                if (worldEffect.isLayerAffected(layer)) {
+                    worldEffect.applyEffect(entity);
+                }
+            }
+            entity.updateMotion(elapsedTime);
+        }
+    }
+
+    private void calculateBoundingBoxes(double time) {
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            if (!entity.isAsleep()) {
+                entity.calculateBoundingBox(time);
+            }
+        }
+    }
+
+    private void handleCollision(Collision collision, Context context) {
+        currentTime = collision.getCollisionTime();
+        Entity a = collision.getA();
+        Entity b = collision.getB();
+        // the static entity of a collision is always b, it has no proxy
+        boolean isStatic = b.getBroadphase() != this;
+        Proxy aProxy = proxies[a.getBroadphaseIndex()];
+        Proxy bProxy = isStatic ? null : proxies[b.getBroadphaseIndex()];
+        aProxy.updatePosition(currentTime);
+        if (!isStatic) {
+            bProxy.updatePosition(currentTime);
+        }
+
+        // a collision with a static entity that has since been removed is dropped and only the
+        // collisions of a are recalculated
+        if (!isStatic || b.isInWorld()) {
+            SleepManager sleepManager = world.getSleepManager();
+            if (sleepManager != null) {
+                sleepManager.entitiesCollided(a, b);
+            }
+            context.handleCollision(collision);
+        }
+
+        double timeLeft = elapsedTime - currentTime;
+        boolean aInWorld = a.getBroadphase() == this && aProxy.entity == a;
+        boolean bInWorld = !isStatic && b.getBroadphase() == this && bProxy.entity == b;
+        if (aInWorld) {
+            aProxy.version++;
+            a.calculateBoundingBox(timeLeft);
+            entityMoved(aProxy);
+        }
+        if (bInWorld) {
+            bProxy.version++;
+            b.calculateBoundingBox(timeLeft);
+            entityMoved(bProxy);
+        }
+        if (aInWorld) {
+            calcCollision(aProxy);
+        }
+        if (bInWorld) {
+            calcCollision(bProxy);
+        }
+    }
+
+    /**
+     * Recalculates the earliest collision of the proxy from the current time, the collisions that
+     * are found are offered to the other proxy as well.
+     */
+    private void calcCollision(Proxy proxy) {
+        proxy.getCollision().setNoCollision();
+        proxy.partner = null;
+        collisionList.collisionUpdated(proxy);
+        proxy.updatePosition(currentTime);
+        checkNeighbours(proxy);
+        collideWithStatics(proxy);
+    }
+
+    /**
+     * Checks the proxy against the static entities of the world, the static entities have no
+     * proxies so the collision is only kept by this proxy.
+     */
+    private void collideWithStatics(Proxy proxy) {
+        Collision staticCollision = this.staticCollision;
+        staticCollision.setNoCollision();
+        world.getStaticLayer().collide(proxy.entity, elapsedTime - currentTime, currentTime,
+                staticCollision, tempCollision);
+        if (staticCollision.getCollisionTime() < proxy.getCollisionTime()) {
+            setCollision(proxy, null, staticCollision, staticCollision.getCollisionTime());
+        }
+    }
+
+    final void collideShapes(Proxy aProxy, Proxy bProxy) {
+        Entity a = aProxy.entity;
+        Entity b = bProxy.entity;
+        if (!world.getCollisionLayers().collides(a.getLayer(), b.getLayer()) || a.isAsleep() && b
+                .isAsleep()) {
+            return;
+        }
+        aProxy.updatePosition(currentTime);
+        bProxy.updatePosition(currentTime);
+        Collision temp = tempCollision;
+        temp.setNoCollision();
+        PairCache pairCache = world.getPairCache();
+        if (pairCache == null) {
+            Shape.collideShapes(a.getShape(), b.getShape(), elapsedTime - currentTime, temp);
+        } else {
+            pairCache.collideShapes(a, b, currentTime, elapsedTime - currentTime, temp);
+        }
+        if (temp.getCollisionTime() == Shape.NO_COLLISION) {
+            return;
+        }
+        double collisionTime = temp.getCollisionTime() + currentTime;
+        if (collisionTime < aProxy.getCollisionTime()) {
+            setCollision(aProxy, bProxy, temp, collisionTime);
+        }
+        if (collisionTime < bProxy.getCollisionTime()) {
+            setCollision(bProxy, aProxy, temp, collisionTime);
+        }
+    }
+
+    private void setCollision(Proxy proxy, Proxy partner, Collision collision, double
+            collisionTime) {
+        proxy.getCollision().set(collision);
+        proxy.setCollisionTime(collisionTime);
+        proxy.partner = partner;
+        proxy.partnerVersion = partner == null ? 0 : partner.version;
+        if (updating) {
+            collisionList.collisionUpdated(proxy);
+        }
+    }
+
+    /**
+     * @return the largest extent of the bounding boxes, ignoring the entities that are more than
+     * {@link #OVERSIZE_FACTOR} times larger than the average, or 0 if there are no entities
+     */
+    double getTypicalExtent() {
+        if (size == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += getExtent(proxies[i].entity);
+        }
+        double limit = total / size * OVERSIZE_FACTOR;
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            double extent = getExtent(proxies[i].entity);
+            if (extent <= limit && extent > max) {
+                max = extent;
+            }
+        }
+        return max;
+    }
+
+    static double getExtent(Entity entity) {
+        return Math.max(entity.getBBMaxX() - entity.getBBMinX(), entity.getBBMaxY() - entity
+                .getBBMinY());
+    }
+
+    static boolean overlaps(Entity a, Entity b) {
+        return a.getBBMinX() <= b.getBBMaxX() && a.getBBMaxX() >= b.getBBMinX() && a.getBBMinY()
+                <= b.getBBMaxY() && a.getBBMaxY() >= b.getBBMinY();
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    public abstract boolean isStructureCorrect();
+}
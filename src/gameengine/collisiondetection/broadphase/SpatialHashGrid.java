@@ -0,0 +1,421 @@
+package gameengine.collisiondetection.broadphase;
+
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Broadphase} that hashes the entities into a uniform grid of square cells, only the
+ * entities that share a cell are checked against each other. This suits scenes where most of
+ * the entities are about the same size, such as particle scenes, and it doesn't allocate any
+ * nodes as the entities move.
+ *
+ * By default the cell size is recalculated at the start of each update from the largest swept
+ * bounding box of the entities, see {@link #getTypicalExtent()}. Entities that are much larger
+ * than the rest, such as the bounds of the screen, are stored in a separate list of oversized
+ * entities that are checked against every other entity.
+ *
+ * The cells are found through an open addressed hash table keyed by the cell coordinates and
+ * each cell stores the ids of its proxies in a primitive int array.
+ *
+ * @author davidrusu
+ */
+public class SpatialHashGrid extends ProxyBroadphase {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int INITIAL_CELL_CAPACITY = 4;
+    private static final int MAX_CELLS_PER_ENTITY = 16;
+    private static final int EMPTY = -1;
+    private static final int MIN_X = 0, MIN_Y = 1, MAX_X = 2, MAX_Y = 3, RANGE_STRIDE = 4;
+    private double fixedCellSize = 0;
+    private double cellSize = 0, inverseCellSize = 0;
+    private long[] tableKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] tableCells = new int[INITIAL_CAPACITY * 2];
+    private int numCells = 0;
+    private int[] cellXs = new int[INITIAL_CAPACITY], cellYs = new int[INITIAL_CAPACITY];
+    private int[][] cellEntries = new int[INITIAL_CAPACITY][];
+    private int[] cellSizes = new int[INITIAL_CAPACITY];
+    private int[] ranges = new int[INITIAL_CAPACITY * RANGE_STRIDE];
+    private int[] oversizedIndexes = new int[INITIAL_CAPACITY];
+    private int[] oversized = new int[INITIAL_CAPACITY];
+    private int numOversized = 0;
+
+    public SpatialHashGrid(World world) {
+        super(world);
+        Arrays.fill(tableCells, EMPTY);
+    }
+
+    /**
+     * Sets the length of the sides of the cells.
+     *
+     * @param cellSize the length of the cells or 0 to calculate it from the entities at the start
+     *                 of each update
+     */
+    public void setCellSize(double cellSize) {
+        assert cellSize >= 0;
+        fixedCellSize = cellSize;
+    }
+
+    /**
+     * @return the length of the cells that are currently in use
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getOversizedEntityCount() {
+        return numOversized;
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        super.drawStructure(renderer, color);
+        double halfCellSize = cellSize / 2;
+        for (int i = 0; i < numCells; i++) {
+            if (cellSizes[i] > 0) {
+                renderer.drawRect(cellXs[i] * cellSize + halfCellSize, cellYs[i] * cellSize +
+                        halfCellSize, halfCellSize, halfCellSize);
+            }
+        }
+    }
+
+    @Override
+    void buildStructure() {
+        if (fixedCellSize > 0) {
+            setActiveCellSize(fixedCellSize);
+        } else if (size > 0) {
+            setActiveCellSize(getTypicalExtent());
+        }
+        resetCells();
+        for (int i = 0; i < size; i++) {
+            insert(proxies[i]);
+        }
+    }
+
+    @Override
+    void initCalcCollision() {
+        for (int c = 0; c < numCells; c++) {
+            int[] entries = cellEntries[c];
+            int count = cellSizes[c];
+            int cellX = cellXs[c], cellY = cellYs[c];
+            for (int i = 0; i < count; i++) {
+                int aId = entries[i];
+                Proxy a = proxiesById[aId];
+                for (int j = i + 1; j < count; j++) {
+                    int bId = entries[j];
+                    Proxy b = proxiesById[bId];
+                    if (isFirstSharedCell(aId, bId, cellX, cellY) && overlaps(a.entity, b
+                            .entity)) {
+                        collideShapes(a, b);
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < numOversized; k++) {
+            Proxy a = proxiesById[oversized[k]];
+            for (int i = 0; i < size; i++) {
+                Proxy b = proxies[i];
+                int bOversizedIndex = oversizedIndexes[b.id];
+                // pairs of oversized entities are only checked once
+                if (bOversizedIndex != EMPTY && bOversizedIndex <= k) {
+                    continue;
+                }
+                if (overlaps(a.entity, b.entity)) {
+                    collideShapes(a, b);
+                }
+            }
+        }
+    }
+
+    @Override
+    void checkNeighbours(Proxy proxy) {
+        int id = proxy.id;
+        Entity entity = proxy.entity;
+        if (oversizedIndexes[id] != EMPTY) {
+            for (int i = 0; i < size; i++) {
+                Proxy other = proxies[i];
+                if (other != proxy && overlaps(entity, other.entity)) {
+                    collideShapes(proxy, other);
+                }
+            }
+            return;
+        }
+        int offset = id * RANGE_STRIDE;
+        int minCellX = ranges[offset + MIN_X], maxCellX = ranges[offset + MAX_X];
+        int minCellY = ranges[offset + MIN_Y], maxCellY = ranges[offset + MAX_Y];
+        for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                int cell = findCell(cellX, cellY);
+                assert cell != EMPTY;
+                int[] entries = cellEntries[cell];
+                int count = cellSizes[cell];
+                for (int i = 0; i < count; i++) {
+                    int otherId = entries[i];
+                    Proxy other = proxiesById[otherId];
+                    if (otherId != id && isFirstSharedCell(id, otherId, cellX, cellY) &&
+                            overlaps(entity, other.entity)) {
+                        collideShapes(proxy, other);
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < numOversized; k++) {
+            Proxy other = proxiesById[oversized[k]];
+            if (overlaps(entity, other.entity)) {
+                collideShapes(proxy, other);
+            }
+        }
+    }
+
+    @Override
+    void proxyAdded(Proxy proxy) {
+        if (cellSize == 0) {
+            Entity entity = proxy.entity;
+            setActiveCellSize(fixedCellSize > 0 ? fixedCellSize : getExtent(entity));
+        }
+        insert(proxy);
+    }
+
+    @Override
+    void proxyRemoved(Proxy proxy) {
+        remove(proxy);
+    }
+
+    @Override
+    void entityMoved(Proxy proxy) {
+        remove(proxy);
+        insert(proxy);
+    }
+
+    @Override
+    void clearStructure() {
+        resetCells();
+        cellSize = 0;
+        inverseCellSize = 0;
+    }
+
+    private void setActiveCellSize(double cellSize) {
+        if (cellSize <= 0) {
+            cellSize = 1;
+        }
+        this.cellSize = cellSize;
+        inverseCellSize = 1 / cellSize;
+    }
+
+    private void resetCells() {
+        if (numCells > 0) {
+            Arrays.fill(tableCells, EMPTY);
+            numCells = 0;
+        }
+        numOversized = 0;
+    }
+
+    private void insert(Proxy proxy) {
+        int id = proxy.id;
+        Entity entity = proxy.entity;
+        int minCellX = toCell(entity.getBBMinX()), maxCellX = toCell(entity.getBBMaxX());
+        int minCellY = toCell(entity.getBBMinY()), maxCellY = toCell(entity.getBBMaxY());
+        int offset = id * RANGE_STRIDE;
+        ranges[offset + MIN_X] = minCellX;
+        ranges[offset + MIN_Y] = minCellY;
+        ranges[offset + MAX_X] = maxCellX;
+        ranges[offset + MAX_Y] = maxCellY;
+
+        long cellCount = ((long) maxCellX - minCellX + 1) * ((long) maxCellY - minCellY + 1);
+        if (cellCount > MAX_CELLS_PER_ENTITY) {
+            if (numOversized == oversized.length) {
+                int[] temp = oversized;
+                oversized = new int[temp.length * EXPANSION_FACTOR];
+                System.arraycopy(temp, 0, oversized, 0, numOversized);
+            }
+            oversized[numOversized] = id;
+            oversizedIndexes[id] = numOversized;
+            numOversized++;
+            return;
+        }
+        oversizedIndexes[id] = EMPTY;
+        for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                addToCell(getOrCreateCell(cellX, cellY), id);
+            }
+        }
+    }
+
+    private void remove(Proxy proxy) {
+        int id = proxy.id;
+        int oversizedIndex = oversizedIndexes[id];
+        if (oversizedIndex != EMPTY) {
+            numOversized--;
+            int last = oversized[numOversized];
+            oversized[oversizedIndex] = last;
+            oversizedIndexes[last] = oversizedIndex;
+            oversizedIndexes[id] = EMPTY;
+            return;
+        }
+        int offset = id * RANGE_STRIDE;
+        for (int cellY = ranges[offset + MIN_Y]; cellY <= ranges[offset + MAX_Y]; cellY++) {
+            for (int cellX = ranges[offset + MIN_X]; cellX <= ranges[offset + MAX_X]; cellX++) {
+                int cell = findCell(cellX, cellY);
+                assert cell != EMPTY;
+                removeFromCell(cell, id);
+            }
+        }
+    }
+
+    private int toCell(double position) {
+        return (int) Math.floor(position * inverseCellSize);
+    }
+
+    /**
+     * Each pair of entities is only checked in the cell at the top left corner of the cells that
+     * they share, which keeps a pair that shares several cells from being checked more than once.
+     */
+    private boolean isFirstSharedCell(int aId, int bId, int cellX, int cellY) {
+        int aOffset = aId * RANGE_STRIDE, bOffset = bId * RANGE_STRIDE;
+        return Math.max(ranges[aOffset + MIN_X], ranges[bOffset + MIN_X]) == cellX && Math.max
+                (ranges[aOffset + MIN_Y], ranges[bOffset + MIN_Y]) == cellY;
+    }
+
+    private void addToCell(int cell, int id) {
+        int[] entries = cellEntries[cell];
+        int count = cellSizes[cell];
+        if (count == entries.length) {
+            int[] temp = entries;
+            entries = new int[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, entries, 0, count);
+            cellEntries[cell] = entries;
+        }
+        entries[count] = id;
+        cellSizes[cell] = count + 1;
+    }
+
+    private void removeFromCell(int cell, int id) {
+        int[] entries = cellEntries[cell];
+        int count = cellSizes[cell] - 1;
+        for (int i = 0; i <= count; i++) {
+            if (entries[i] == id) {
+                entries[i] = entries[count];
+                cellSizes[cell] = count;
+                return;
+            }
+        }
+        assert false : "id: " + id + " is not in cell: " + cell;
+    }
+
+    private int findCell(int cellX, int cellY) {
+        long key = toKey(cellX, cellY);
+        int mask = tableCells.length - 1;
+        int i = hash(key) & mask;
+        while (tableCells[i] != EMPTY) {
+            if (tableKeys[i] == key) {
+                return tableCells[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private int getOrCreateCell(int cellX, int cellY) {
+        long key = toKey(cellX, cellY);
+        int mask = tableCells.length - 1;
+        int i = hash(key) & mask;
+        while (tableCells[i] != EMPTY) {
+            if (tableKeys[i] == key) {
+                return tableCells[i];
+            }
+            i = (i + 1) & mask;
+        }
+        if (numCells == cellXs.length) {
+            expandCells();
+        }
+        int cell = numCells;
+        numCells++;
+        cellXs[cell] = cellX;
+        cellYs[cell] = cellY;
+        cellSizes[cell] = 0;
+        if (cellEntries[cell] == null) {
+            cellEntries[cell] = new int[INITIAL_CELL_CAPACITY];
+        }
+        // the table is kept at most half full so the probe sequences stay short
+        if (numCells * 2 > tableCells.length) {
+            rehash(tableCells.length * EXPANSION_FACTOR);
+        } else {
+            tableKeys[i] = key;
+            tableCells[i] = cell;
+        }
+        return cell;
+    }
+
+    private void rehash(int capacity) {
+        tableKeys = new long[capacity];
+        tableCells = new int[capacity];
+        Arrays.fill(tableCells, EMPTY);
+        int mask = capacity - 1;
+        for (int cell = 0; cell < numCells; cell++) {
+            long key = toKey(cellXs[cell], cellYs[cell]);
+            int i = hash(key) & mask;
+            while (tableCells[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            tableKeys[i] = key;
+            tableCells[i] = cell;
+        }
+    }
+
+    private static long toKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key >>> 32);
+    }
+
+    private void expandCells() {
+        int capacity = cellXs.length * EXPANSION_FACTOR;
+        cellXs = Arrays.copyOf(cellXs, capacity);
+        cellYs = Arrays.copyOf(cellYs, capacity);
+        cellSizes = Arrays.copyOf(cellSizes, capacity);
+        cellEntries = Arrays.copyOf(cellEntries, capacity);
+    }
+
+    @Override
+    void idCapacityExpanded(int capacity) {
+        ranges = Arrays.copyOf(ranges, capacity * RANGE_STRIDE);
+        oversizedIndexes = Arrays.copyOf(oversizedIndexes, capacity);
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    @Override
+    public boolean isStructureCorrect() {
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            int id = proxy.id;
+            assert proxy.entity.getBroadphaseIndex() == i : "index: " + i;
+            assert proxiesById[id] == proxy : "id: " + id;
+            if (oversizedIndexes[id] != EMPTY) {
+                assert oversized[oversizedIndexes[id]] == id : "id: " + id;
+                continue;
+            }
+            int offset = id * RANGE_STRIDE;
+            for (int cellY = ranges[offset + MIN_Y]; cellY <= ranges[offset + MAX_Y]; cellY++) {
+                for (int cellX = ranges[offset + MIN_X]; cellX <= ranges[offset + MAX_X];
+                     cellX++) {
+                    int cell = findCell(cellX, cellY);
+                    assert cell != EMPTY : "id: " + id;
+                    boolean found = false;
+                    for (int j = 0; j < cellSizes[cell]; j++) {
+                        found |= cellEntries[cell][j] == id;
+                    }
+                    assert found : "id: " + id + " is missing from cell: " + cell;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package gameengine.collisiondetection.broadphase;
+
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.Renderer;
+
+/**
+ * A {@link Broadphase} that keeps the entities sorted by the left edge of their bounding boxes.
+ * Only the entities whose bounding boxes overlap on the x axis are checked against each other.
+ *
+ * The order barely changes between updates so the entities are re-sorted with an insertion sort,
+ * which is close to linear when the order is nearly sorted. After a collision is handled only
+ * the two entities involved are moved to their new place in the order.
+ *
+ * @author davidrusu
+ */
+public class SweepAndPrune extends ProxyBroadphase {
+    private double maxWidth = 0;
+
+    public SweepAndPrune(World world) {
+        super(world);
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            if (entity.getBBMinX() > maxX) {
+                return;
+            }
+            if (entity.getBBMaxX() >= minX && entity.getBBMinY() <= maxY && entity.getBBMaxY()
+                    >= minY) {
+                entity.draw(renderer);
+            }
+        }
+    }
+
+    /**
+     * Insertion sorts the proxies by the left edge of their bounding boxes, the proxies are
+     * still sorted by the positions of the last update so very few of them are moved.
+     */
+    @Override
+    void buildStructure() {
+        maxWidth = 0;
+        for (int i = 0; i < size; i++) {
+            Proxy proxy = proxies[i];
+            Entity entity = proxy.entity;
+            double minX = entity.getBBMinX();
+            maxWidth = Math.max(maxWidth, entity.getBBMaxX() - minX);
+            int j = i - 1;
+            while (j >= 0 && proxies[j].entity.getBBMinX() > minX) {
+                proxies[j + 1] = proxies[j];
+                j--;
+            }
+            proxies[j + 1] = proxy;
+        }
+        for (int i = 0; i < size; i++) {
+            proxies[i].entity.setBroadphaseIndex(i);
+        }
+    }
+
+    @Override
+    void initCalcCollision() {
+        for (int i = 0; i < size; i++) {
+            Proxy a = proxies[i];
+            Entity entity = a.entity;
+            double maxX = entity.getBBMaxX();
+            double minY = entity.getBBMinY(), maxY = entity.getBBMaxY();
+            for (int j = i + 1; j < size; j++) {
+                Proxy b = proxies[j];
+                Entity other = b.entity;
+                if (other.getBBMinX() > maxX) {
+                    break;
+                }
+                if (other.getBBMinY() <= maxY && other.getBBMaxY() >= minY) {
+                    collideShapes(a, b);
+                }
+            }
+        }
+    }
+
+    @Override
+    void checkNeighbours(Proxy proxy) {
+        Entity entity = proxy.entity;
+        double minX = entity.getBBMinX(), maxX = entity.getBBMaxX();
+        double minY = entity.getBBMinY(), maxY = entity.getBBMaxY();
+        int index = entity.getBroadphaseIndex();
+        for (int i = index + 1; i < size; i++) {
+            Proxy other = proxies[i];
+            Entity otherEntity = other.entity;
+            if (otherEntity.getBBMinX() > maxX) {
+                break;
+            }
+            if (otherEntity.getBBMinY() <= maxY && otherEntity.getBBMaxY() >= minY) {
+                collideShapes(proxy, other);
+            }
+        }
+        // the entities to the left can only reach this entity if they are within the widest
+        // bounding box of its left edge
+        double leftBound = minX - maxWidth;
+        for (int i = index - 1; i >= 0; i--) {
+            Proxy other = proxies[i];
+            Entity otherEntity = other.entity;
+            if (otherEntity.getBBMinX() < leftBound) {
+                break;
+            }
+            if (otherEntity.getBBMaxX() >= minX && otherEntity.getBBMinY() <= maxY &&
+                    otherEntity.getBBMaxY() >= minY) {
+                collideShapes(proxy, other);
+            }
+        }
+    }
+
+    @Override
+    void proxyAdded(Proxy proxy) {
+        entityMoved(proxy);
+    }
+
+    @Override
+    void proxyRemoved(Proxy proxy) {
+    }
+
+    /**
+     * Moves the proxy to its place in the order after the bounding box of its {@link Entity}
+     * changed.
+     */
+    @Override
+    void entityMoved(Proxy proxy) {
+        Entity entity = proxy.entity;
+        double minX = entity.getBBMinX();
+        maxWidth = Math.max(maxWidth, entity.getBBMaxX() - minX);
+        int i = entity.getBroadphaseIndex();
+        while (i > 0 && proxies[i - 1].entity.getBBMinX() > minX) {
+            proxies[i] = proxies[i - 1];
+            proxies[i].entity.setBroadphaseIndex(i);
+            i--;
+        }
+        while (i < size - 1 && proxies[i + 1].entity.getBBMinX() < minX) {
+            proxies[i] = proxies[i + 1];
+            proxies[i].entity.setBroadphaseIndex(i);
+            i++;
+        }
+        proxies[i] = proxy;
+        entity.setBroadphaseIndex(i);
+    }
+
+    @Override
+    void clearStructure() {
+        maxWidth = 0;
+    }
+
+    @Override
+    void removeFromArray(int index) {
+        size--;
+        for (int i = index; i < size; i++) {
+            proxies[i] = proxies[i + 1];
+            proxies[i].entity.setBroadphaseIndex(i);
+        }
+        proxies[size] = null;
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    @Override
+    public boolean isStructureCorrect() {
+        for (int i = 0; i < size; i++) {
+            Entity entity = proxies[i].entity;
+            assert entity.getBroadphaseIndex() == i : "index: " + i + " entity index: " + entity
+                    .getBroadphaseIndex();
+            assert i == 0 || proxies[i - 1].entity.getBBMinX() <= entity.getBBMinX() : "index: "
+                    + i;
+        }
+        return true;
+    }
+}
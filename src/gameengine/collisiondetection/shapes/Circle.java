@@ -5,13 +5,14 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.geometry.Vector2D;
 import gameengine.graphics.Renderer;
 
 public class Circle extends Shape {
     private double radius;
 
     public Circle(double radius) {
-        super(radius, radius);
+        super(CIRCLE, radius, radius);
         this.radius = radius;
     }
 
@@ -29,26 +30,6 @@ public class Circle extends Shape {
         return Math.PI * radius * radius;
     }
 
-    @Override
-    public void collideWithShape(Shape shape, double maxTime, Collision result) {
-        shape.collideWithCircle(this, maxTime, result);
-    }
-
-    @Override
-    public void collideWithCircle(Circle circleShape, double maxTime, Collision result) {
-        Shape.collideCircleCircle(this, circleShape, maxTime, result);
-    }
-
-    @Override
-    public void collideWithRectangle(Rectangle aabbShape, double maxTime, Collision result) {
-        Shape.collideCircleRectangle(this, aabbShape, maxTime, result);
-    }
-
-    @Override
-    public void collideWithPolygon(Polygon polygonShape, double maxTime, Collision result) {
-        Shape.collideCirclePoly(this, polygonShape, maxTime, result);
-    }
-
     @Override
     public boolean isOverlappingShape(Shape shape) {
         return shape.isOverlappingCircle(this);
@@ -69,6 +50,37 @@ public class Circle extends Shape {
         return Shape.isOverlappingCircleRectangle(this, shape);
     }
 
+    @Override
+    public boolean containsPoint(double x, double y) {
+        double deltaX = x - getX();
+        double deltaY = y - getY();
+        return deltaX * deltaX + deltaY * deltaY <= radius * radius;
+    }
+
+    @Override
+    public double raycast(double originX, double originY, double directionX, double directionY,
+                          double maxDistance, Vector2D normal) {
+        double relX = originX - getX();
+        double relY = originY - getY();
+        double projected = relX * directionX + relY * directionY;
+        double distSquared = relX * relX + relY * relY - radius * radius;
+        if (distSquared <= 0 || projected >= 0) {
+            // starting inside or moving away
+            return NO_COLLISION;
+        }
+        double discriminant = projected * projected - distSquared;
+        if (discriminant < 0) {
+            return NO_COLLISION;
+        }
+        double distance = -projected - Math.sqrt(discriminant);
+        if (distance > maxDistance) {
+            return NO_COLLISION;
+        }
+        normal.set((relX + directionX * distance) / radius, (relY + directionY * distance) /
+                radius);
+        return distance;
+    }
+
     @Override
     public void draw(Renderer renderer) {
         renderer.drawCircle(getX(), getY(), radius);
@@ -0,0 +1,106 @@
+package gameengine.collisiondetection.shapes;
+
+import gameengine.entities.Entity;
+
+/**
+ * Finds the times of impact between one circle and many others at once, used by the nodes of
+ * the broadphase that hold many circles. The positions, velocities and radii of the circles are
+ * gathered into arrays once and the times are then solved for in a loop without branches or
+ * calls, which the JIT can unroll and vectorize.
+ *
+ * The times are calculated with exactly the same operations as {@link Shape#collideCircleCircle}
+ * so they are bit identical to its collision times. Only the times are found here, the normal
+ * of the earliest collision is left to {@link Shape#collideCircleCircle}.
+ *
+ * @author davidrusu
+ */
+public class CircleBatch {
+    private static final int EXPANSION_FACTOR = 2;
+    private double[] xs = new double[0], ys = new double[0], dxs = new double[0], dys = new
+            double[0], radii = new double[0], times = new double[0];
+    private int size = 0;
+
+    /**
+     * Gathers the circles of the entities, the batch is only filled if they are all circles.
+     *
+     * @param entities the entities to gather
+     * @param count    the number of entities to gather
+     * @return true if every entity has a {@link Circle} shape
+     */
+    public boolean gather(Entity[] entities, int count) {
+        for (int i = 0; i < count; i++) {
+            if (entities[i].getShape().getKind() != Shape.CIRCLE) {
+                size = 0;
+                return false;
+            }
+        }
+        if (xs.length < count) {
+            int capacity = Math.max(count, xs.length * EXPANSION_FACTOR);
+            xs = new double[capacity];
+            ys = new double[capacity];
+            dxs = new double[capacity];
+            dys = new double[capacity];
+            radii = new double[capacity];
+            times = new double[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            Circle circle = (Circle) entities[i].getShape();
+            xs[i] = circle.getX();
+            ys[i] = circle.getY();
+            dxs[i] = circle.getDX();
+            dys[i] = circle.getDY();
+            radii[i] = circle.getRadius();
+        }
+        size = count;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Calculates the times that the circle at the index collides with each of the circles from
+     * the start to the end of the batch, the circle at the index is a of
+     * {@link Shape#collideCircleCircle}.
+     *
+     * @param index   the index of the circle to check
+     * @param start   the index of the first circle to check against
+     * @param maxTime the amount of time to check for collisions
+     */
+    public void collide(int index, int start, double maxTime) {
+        assert index < size && start <= size;
+        double aX = xs[index], aY = ys[index], aDX = dxs[index], aDY = dys[index];
+        double aRadius = radii[index];
+        for (int j = start; j < size; j++) {
+            double combinedVelX = dxs[j] - aDX;
+            double combinedVelY = dys[j] - aDY;
+            double bX = xs[j];
+            double bY = ys[j];
+            // the distance from a to the line that b travels along relative to a
+            double lineEndX = bX + combinedVelX;
+            double lineEndY = bY + combinedVelY;
+            double lineDX = bX - lineEndX;
+            double lineDY = lineEndY - bY;
+            double dist = aX * lineDY + aY * lineDX + lineEndX * bY - bX * lineEndY;
+            double distToLineSquared = dist * dist / (lineDX * lineDX + lineDY * lineDY);
+            double radiiSum = aRadius + radii[j];
+            double deltaX = aX - bX;
+            double deltaY = aY - bY;
+            double distBetween = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+            double projVelocity = (deltaX * combinedVelX + deltaY * combinedVelY) / distBetween;
+            double travelTime = (distBetween - radiiSum) / projVelocity;
+            boolean miss = combinedVelX == 0 & combinedVelY == 0 | distToLineSquared > radiiSum *
+                    radiiSum | projVelocity <= 0 | travelTime > maxTime;
+            times[j] = miss ? Shape.NO_COLLISION : travelTime < 0 ? 0 : travelTime;
+        }
+    }
+
+    /**
+     * @return the time calculated by the last {@link #collide(int, int, double)} for the circle
+     * at the index, {@link Shape#NO_COLLISION} if they don't collide
+     */
+    public double getTime(int index) {
+        return times[index];
+    }
+}
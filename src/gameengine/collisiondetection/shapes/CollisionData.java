@@ -1,5 +1,6 @@
 package gameengine.collisiondetection.shapes;
 
+import gameengine.collisiondetection.Collision;
 import gameengine.geometry.Vector2D;
 
 /**
@@ -11,6 +12,8 @@ public class CollisionData {
     private double entryTime, leaveTime, overlapTime, overlapVelocity, tempOverlapVelocity;
     private double min, max;
     private boolean overlapUpdated = false;
+    private PolygonDistance polygonDistance = null;
+    private Collision partCollision = null;
 
     public CollisionData() {
         collisionNormal = new Vector2D();
@@ -19,6 +22,27 @@ public class CollisionData {
         clear();
     }
 
+    /**
+     * @return the {@link PolygonDistance} used by the narrow phase that stores its result in the
+     * {@link gameengine.collisiondetection.Collision} owning this
+     */
+    public PolygonDistance getPolygonDistance() {
+        if (polygonDistance == null) {
+            polygonDistance = new PolygonDistance();
+        }
+        return polygonDistance;
+    }
+
+    /**
+     * @return the {@link Collision} that {@link CompoundShape} checks each of its parts with
+     */
+    public Collision getPartCollision() {
+        if (partCollision == null) {
+            partCollision = new Collision();
+        }
+        return partCollision;
+    }
+
     public Vector2D getCollisionNormal() {
         return collisionNormal;
     }
@@ -0,0 +1,353 @@
+package gameengine.collisiondetection.shapes;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.entities.Entity;
+import gameengine.geometry.Vector2D;
+import gameengine.graphics.Renderer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A shape made of {@link Circle}, {@link Rectangle} and {@link Polygon} parts at offsets from the
+ * center, so a single entity can have a shape like a spaceship or an L shaped platform instead
+ * of several entities being held together.
+ *
+ * The bounding boxes of the parts are kept in a small bounding box tree that is built once when
+ * the shape is created. The narrow phase is only run after the bounding boxes of the entities
+ * overlap, it then only checks the parts whose bounding boxes overlap the box that the other
+ * shape sweeps relative to this one. The earliest collision with a part wins and the index of
+ * the part is stored in the {@link Collision}, see {@link Collision#getPart(Entity)}.
+ *
+ * A shape that already overlaps several parts is pushed out along the line between the centers
+ * of the two shapes instead of by each part in turn, which could bounce it between parts forever.
+ *
+ * The parts move with the entity of this shape, they must not be used by another entity.
+ *
+ * @author davidrusu
+ */
+public class CompoundShape extends Shape {
+    private static final int LEAF_SIZE = 2;
+    private static final int MIN_X = 0, MIN_Y = 1, MAX_X = 2, MAX_Y = 3;
+    private final Shape[] parts;
+    private final double[] xOffsets, yOffsets;
+    private final int[] order; // the indices of the parts in the order of the tree
+    private final double[] bounds;
+    private final int[] lefts, rights, starts, ends;
+    private int nodeCount = 0;
+
+    /**
+     * @param parts    the parts of the shape, they can't be compound shapes
+     * @param xOffsets the x of the center of each part relative to the center of this shape
+     * @param yOffsets the y of the center of each part relative to the center of this shape
+     */
+    public CompoundShape(Shape[] parts, double[] xOffsets, double[] yOffsets) {
+        super(COMPOUND, getHalfLength(checkParts(parts, xOffsets, yOffsets), xOffsets, true),
+                getHalfLength(parts, yOffsets, false));
+        this.parts = parts.clone();
+        this.xOffsets = xOffsets.clone();
+        this.yOffsets = yOffsets.clone();
+        for (int i = 0; i < parts.length; i++) {
+            parts[i].setParentOffset(xOffsets[i], yOffsets[i]);
+        }
+        // splitting at the middle can leave leaves with a single part
+        int capacity = 2 * parts.length;
+        bounds = new double[capacity * 4];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        Integer[] sorted = new Integer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sorted[i] = i;
+        }
+        buildNode(sorted, 0, parts.length);
+        order = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            order[i] = sorted[i];
+        }
+    }
+
+    private static Shape[] checkParts(Shape[] parts, double[] xOffsets, double[] yOffsets) {
+        if (parts.length == 0 || parts.length != xOffsets.length || parts.length != yOffsets
+                .length) {
+            throw new IllegalArgumentException("expected an offset for each of the " + parts
+                    .length + " parts");
+        }
+        for (Shape part : parts) {
+            if (part.getKind() == COMPOUND) {
+                throw new IllegalArgumentException("compound shapes can't be nested");
+            }
+        }
+        return parts;
+    }
+
+    private static double getHalfLength(Shape[] parts, double[] offsets, boolean horizontal) {
+        double halfLength = 0;
+        for (int i = 0; i < parts.length; i++) {
+            double partHalfLength = horizontal ? parts[i].getHalfWidth() : parts[i]
+                    .getHalfHeight();
+            halfLength = Math.max(Math.abs(offsets[i]) + partHalfLength, halfLength);
+        }
+        return halfLength;
+    }
+
+    private int buildNode(Integer[] sorted, int start, int end) {
+        int node = nodeCount;
+        nodeCount++;
+        int offset = node * 4;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            int part = sorted[i];
+            minX = Math.min(minX, xOffsets[part] - parts[part].getHalfWidth());
+            minY = Math.min(minY, yOffsets[part] - parts[part].getHalfHeight());
+            maxX = Math.max(maxX, xOffsets[part] + parts[part].getHalfWidth());
+            maxY = Math.max(maxY, yOffsets[part] + parts[part].getHalfHeight());
+        }
+        bounds[offset + MIN_X] = minX;
+        bounds[offset + MIN_Y] = minY;
+        bounds[offset + MAX_X] = maxX;
+        bounds[offset + MAX_Y] = maxY;
+        starts[node] = start;
+        ends[node] = end;
+        if (end - start <= LEAF_SIZE) {
+            lefts[node] = -1;
+            rights[node] = -1;
+            return node;
+        }
+        final double[] offsets = maxX - minX > maxY - minY ? xOffsets : yOffsets;
+        Arrays.sort(sorted, start, end, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(offsets[a], offsets[b]);
+            }
+        });
+        int middle = (start + end) >>> 1;
+        lefts[node] = buildNode(sorted, start, middle);
+        rights[node] = buildNode(sorted, middle, end);
+        return node;
+    }
+
+    /**
+     * Calculates the collision between a shape and a compound shape, used by
+     * {@link Shape#collide(Shape, Shape, double, Collision)} after the bounding boxes of their
+     * entities were found to overlap.
+     */
+    public static void collideCompound(Shape a, CompoundShape b, double maxTime, Collision
+            result) {
+        Collision partCollision = result.getCollisionData().getPartCollision();
+        result.setNoCollision();
+        int partOfA = -1, partOfB = -1;
+        if (a.kind == COMPOUND) {
+            CompoundShape compound = (CompoundShape) a;
+            for (int i = 0; i < compound.parts.length; i++) {
+                int part = b.collideParts(compound.parts[i], maxTime, result, partCollision);
+                if (part != -1) {
+                    partOfA = i;
+                    partOfB = part;
+                }
+            }
+        } else {
+            partOfB = b.collideParts(a, maxTime, result, partCollision);
+        }
+        if (result.getCollisionTime() == NO_COLLISION) {
+            return;
+        }
+        if (result.getCollisionTime() == 0 && b.countOverlappingParts(a) > 1) {
+            // resolving the overlap of each part in turn can bounce the shapes between parts
+            // that push in opposite directions forever, so the overlap is resolved once along
+            // the line between the centers instead
+            double deltaX = b.getX() - a.getX(), deltaY = b.getY() - a.getY();
+            double dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+            if (dist > 0) {
+                double normalX = deltaX / dist, normalY = deltaY / dist;
+                double relVel = (b.getDX() - a.getDX()) * normalX + (b.getDY() - a.getDY()) *
+                        normalY;
+                if (relVel >= 0) {
+                    result.setNoCollision();
+                    return;
+                }
+                result.set(0, normalX, normalY, a.parent, b.parent);
+            }
+        }
+        // the narrow phase can swap the shapes
+        if (result.getA() == b.parent) {
+            result.setParts(partOfB, partOfA);
+        } else {
+            result.setParts(partOfA, partOfB);
+        }
+    }
+
+    /**
+     * Checks the shape against the parts whose bounding boxes overlap the box that the shape
+     * sweeps relative to this one, storing the collision in the result if it is earlier than
+     * the collision that is already in the result.
+     *
+     * @return the index of the part of the collision that was stored, or -1 if none was
+     */
+    private int collideParts(Shape shape, double maxTime, Collision result, Collision
+            partCollision) {
+        double relX = shape.getX() - getX();
+        double relY = shape.getY() - getY();
+        double travelX = (shape.getDX() - getDX()) * maxTime;
+        double travelY = (shape.getDY() - getDY()) * maxTime;
+        double minX = relX - shape.getHalfWidth() + Math.min(0, travelX);
+        double maxX = relX + shape.getHalfWidth() + Math.max(0, travelX);
+        double minY = relY - shape.getHalfHeight() + Math.min(0, travelY);
+        double maxY = relY + shape.getHalfHeight() + Math.max(0, travelY);
+        return collideNode(0, shape, minX, minY, maxX, maxY, maxTime, result, partCollision, -1);
+    }
+
+    private int collideNode(int node, Shape shape, double minX, double minY, double maxX, double
+            maxY, double maxTime, Collision result, Collision partCollision, int hitPart) {
+        int offset = node * 4;
+        if (bounds[offset + MAX_X] < minX || bounds[offset + MIN_X] > maxX || bounds[offset +
+                MAX_Y] < minY || bounds[offset + MIN_Y] > maxY) {
+            return hitPart;
+        }
+        if (lefts[node] != -1) {
+            hitPart = collideNode(lefts[node], shape, minX, minY, maxX, maxY, maxTime, result,
+                    partCollision, hitPart);
+            return collideNode(rights[node], shape, minX, minY, maxX, maxY, maxTime, result,
+                    partCollision, hitPart);
+        }
+        for (int i = starts[node]; i < ends[node]; i++) {
+            int part = order[i];
+            // a later part only matters if it is hit before the earliest collision so far
+            collide(shape, parts[part], Math.min(maxTime, result.getCollisionTime()),
+                    partCollision);
+            if (partCollision.getCollisionTime() < result.getCollisionTime()) {
+                result.set(partCollision);
+                hitPart = part;
+            }
+        }
+        return hitPart;
+    }
+
+    /**
+     * @return the number of parts of this shape that overlap the shape, or the parts of it if
+     * it is compound, stopping at 2
+     */
+    private int countOverlappingParts(Shape shape) {
+        int count = 0;
+        for (int i = 0; i < parts.length && count < 2; i++) {
+            if (shape.kind != COMPOUND) {
+                if (parts[i].isOverlappingShape(shape)) {
+                    count++;
+                }
+                continue;
+            }
+            CompoundShape compound = (CompoundShape) shape;
+            for (int j = 0; j < compound.parts.length && count < 2; j++) {
+                if (parts[i].isOverlappingShape(compound.parts[j])) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int getPartCount() {
+        return parts.length;
+    }
+
+    public Shape getPart(int index) {
+        return parts[index];
+    }
+
+    public double getPartOffsetX(int index) {
+        return xOffsets[index];
+    }
+
+    public double getPartOffsetY(int index) {
+        return yOffsets[index];
+    }
+
+    @Override
+    public void setParent(Entity parent) {
+        super.setParent(parent);
+        for (Shape part : parts) {
+            part.setParent(parent);
+        }
+    }
+
+    @Override
+    public void setParentOffset(double offsetX, double offsetY) {
+        super.setParentOffset(offsetX, offsetY);
+        for (int i = 0; i < parts.length; i++) {
+            parts[i].setParentOffset(offsetX + xOffsets[i], offsetY + yOffsets[i]);
+        }
+    }
+
+    @Override
+    public double getArea() {
+        double area = 0;
+        for (Shape part : parts) {
+            area += part.getArea();
+        }
+        return area;
+    }
+
+    @Override
+    public boolean isOverlappingShape(Shape shape) {
+        for (Shape part : parts) {
+            if (part.isOverlappingShape(shape)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isOverlappingPolygon(Polygon shape) {
+        return isOverlappingShape(shape);
+    }
+
+    @Override
+    public boolean isOverlappingCircle(Circle shape) {
+        return isOverlappingShape(shape);
+    }
+
+    @Override
+    public boolean isOverlappingRectangle(Rectangle shape) {
+        return isOverlappingShape(shape);
+    }
+
+    @Override
+    public boolean containsPoint(double x, double y) {
+        for (Shape part : parts) {
+            if (part.containsPoint(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double raycast(double originX, double originY, double directionX, double directionY,
+                          double maxDistance, Vector2D normal) {
+        double nearest = NO_COLLISION;
+        double normalX = 0, normalY = 0;
+        for (Shape part : parts) {
+            double distance = part.raycast(originX, originY, directionX, directionY, Math.min
+                    (maxDistance, nearest), normal);
+            if (distance < nearest) {
+                nearest = distance;
+                normalX = normal.getX();
+                normalY = normal.getY();
+            }
+        }
+        if (nearest != NO_COLLISION) {
+            normal.set(normalX, normalY);
+        }
+        return nearest;
+    }
+
+    @Override
+    public void draw(Renderer renderer) {
+        for (Shape part : parts) {
+            part.draw(renderer);
+        }
+    }
+}
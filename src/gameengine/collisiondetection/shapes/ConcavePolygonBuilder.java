@@ -0,0 +1,432 @@
+package gameengine.collisiondetection.shapes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds shapes from outlines that can be concave. {@link Polygon} and the narrow phase assume
+ * that polygons are convex, so a concave outline is split into convex polygons that are the
+ * parts of a {@link CompoundShape}.
+ *
+ * The outline is triangulated by clipping ears and the triangles are then merged back together
+ * with the Hertel-Mehlhorn algorithm, which removes each diagonal that leaves a convex polygon
+ * when it is removed. This gives at most four times the fewest possible convex parts, usually
+ * far fewer than that. Points that are nearly on the line between their neighbours are removed
+ * first, so they don't split parts that are convex up to the precision of the outline.
+ *
+ * Decomposing an outline is much slower than building the shapes, so the convex parts of the
+ * most recently used outlines are cached and shapes built from the same outline again only
+ * create new {@link Polygon Polygons} from them. The cache is shared by every world and holds
+ * at most {@link #getMaxCacheSize()} outlines, the least recently used outline is dropped when
+ * it is full.
+ *
+ * @author davidrusu
+ */
+public class ConcavePolygonBuilder {
+    /**
+     * A point is removed if the sine of the angle between the edges on either side of it is at
+     * most this
+     */
+    private static final double COLLINEAR_TOLERANCE = 1e-6;
+    public static final int DEFAULT_MAX_CACHE_SIZE = 256;
+    private static int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private static final LinkedHashMap<Outline, double[][]> cache = new LinkedHashMap<Outline,
+            double[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Outline, double[][]> eldest) {
+            return size() > maxCacheSize;
+        }
+    };
+
+    /**
+     * Creates a shape from the outline, a {@link Polygon} if the outline is convex and a
+     * {@link CompoundShape} of convex polygons otherwise. The outline must be a simple polygon,
+     * its points can be in either direction.
+     *
+     * The convex parts of the outline are kept in the cache until the outline is dropped as the
+     * least recently used one or {@link #clearCache()} is called. Outlines that are only built
+     * once, like procedurally generated terrain, can be built with {@code useCache} false so
+     * they don't push out the outlines that are built again.
+     *
+     * @param xPoints the x of each point of the outline relative to the center of the shape
+     * @param yPoints the y of each point of the outline relative to the center of the shape
+     * @return the shape
+     */
+    public static Shape createShape(double[] xPoints, double[] yPoints) {
+        return createShape(xPoints, yPoints, true);
+    }
+
+    /**
+     * Creates a shape from the outline like {@link #createShape(double[], double[])}.
+     *
+     * @param useCache false to decompose the outline without looking it up in or adding it to
+     *                 the cache
+     */
+    public static Shape createShape(double[] xPoints, double[] yPoints, boolean useCache) {
+        double[][] pieces = getConvexPieces(xPoints, yPoints, useCache);
+        if (pieces.length == 1) {
+            double[] piece = pieces[0];
+            return new Polygon(getCoordinates(piece, 0, 0), getCoordinates(piece, 1, 0));
+        }
+        Shape[] parts = new Shape[pieces.length];
+        double[] xOffsets = new double[pieces.length];
+        double[] yOffsets = new double[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            double[] piece = pieces[i];
+            // centering each part on its bounding box keeps the bounding box of the part tight
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int j = 0; j < piece.length; j += 2) {
+                minX = Math.min(minX, piece[j]);
+                maxX = Math.max(maxX, piece[j]);
+                minY = Math.min(minY, piece[j + 1]);
+                maxY = Math.max(maxY, piece[j + 1]);
+            }
+            xOffsets[i] = (minX + maxX) * 0.5;
+            yOffsets[i] = (minY + maxY) * 0.5;
+            parts[i] = new Polygon(getCoordinates(piece, 0, xOffsets[i]), getCoordinates(piece,
+                    1, yOffsets[i]));
+        }
+        return new CompoundShape(parts, xOffsets, yOffsets);
+    }
+
+    /**
+     * @return the number of outlines whose convex parts are cached
+     */
+    public static int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public static int getMaxCacheSize() {
+        synchronized (cache) {
+            return maxCacheSize;
+        }
+    }
+
+    /**
+     * Sets the largest number of outlines to keep in the cache, dropping the least recently used
+     * outlines if there are more than that.
+     *
+     * @param maxCacheSize the largest number of outlines to keep, 0 disables the cache
+     */
+    public static void setMaxCacheSize(int maxCacheSize) {
+        if (maxCacheSize < 0) {
+            throw new IllegalArgumentException("the cache size can't be negative: " +
+                    maxCacheSize);
+        }
+        synchronized (cache) {
+            ConcavePolygonBuilder.maxCacheSize = maxCacheSize;
+            while (cache.size() > maxCacheSize) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static double[] getCoordinates(double[] piece, int axis, double offset) {
+        double[] coordinates = new double[piece.length / 2];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = piece[i * 2 + axis] - offset;
+        }
+        return coordinates;
+    }
+
+    /**
+     * @return the convex pieces of the outline, each packed as x, y pairs in the direction of
+     * the points of {@link Polygon#getCircle(double, int)}
+     */
+    private static double[][] getConvexPieces(double[] xPoints, double[] yPoints, boolean
+            useCache) {
+        if (xPoints.length != yPoints.length) {
+            throw new IllegalArgumentException("expected a y for each of the " + xPoints.length
+                    + " x points");
+        }
+        if (!useCache) {
+            return decompose(xPoints, yPoints);
+        }
+        Outline outline = new Outline(xPoints.clone(), yPoints.clone());
+        double[][] pieces;
+        synchronized (cache) {
+            pieces = cache.get(outline);
+        }
+        if (pieces == null) {
+            // decomposing outside of the lock lets other threads use the cache in the meantime,
+            // an outline that is decomposed by two threads at once is just stored twice
+            pieces = decompose(outline.xPoints, outline.yPoints);
+            synchronized (cache) {
+                cache.put(outline, pieces);
+            }
+        }
+        return pieces;
+    }
+
+    private static double[][] decompose(double[] xPoints, double[] yPoints) {
+        int[] outline = new int[xPoints.length];
+        for (int i = 0; i < outline.length; i++) {
+            outline[i] = i;
+        }
+        outline = removeCollinearPoints(outline, xPoints, yPoints);
+        if (outline.length < 3) {
+            throw new IllegalArgumentException("the outline doesn't enclose an area");
+        }
+        // the points are worked on counter clockwise, where the interior is to the left of
+        // each edge
+        if (getDoubleArea(outline, xPoints, yPoints) < 0) {
+            reverse(outline);
+        }
+        ArrayList<int[]> pieces = triangulate(outline, xPoints, yPoints);
+        mergePieces(pieces, xPoints, yPoints);
+        double[][] result = new double[pieces.size()][];
+        for (int i = 0; i < result.length; i++) {
+            int[] piece = removeCollinearPoints(pieces.get(i), xPoints, yPoints);
+            // the polygons from getCircle go clockwise
+            reverse(piece);
+            double[] packed = new double[piece.length * 2];
+            for (int j = 0; j < piece.length; j++) {
+                packed[j * 2] = xPoints[piece[j]];
+                packed[j * 2 + 1] = yPoints[piece[j]];
+            }
+            result[i] = packed;
+        }
+        return result;
+    }
+
+    /**
+     * Clips ears off of the outline until only a triangle is left.
+     */
+    private static ArrayList<int[]> triangulate(int[] outline, double[] xPoints, double[]
+            yPoints) {
+        ArrayList<int[]> triangles = new ArrayList<>();
+        int[] remaining = outline.clone();
+        int count = remaining.length;
+        while (count > 3) {
+            int ear = -1;
+            for (int i = 0; i < count && ear == -1; i++) {
+                if (isEar(remaining, count, i, xPoints, yPoints)) {
+                    ear = i;
+                }
+            }
+            if (ear == -1) {
+                throw new IllegalArgumentException("the outline must be a simple polygon");
+            }
+            int prev = remaining[(ear + count - 1) % count];
+            int next = remaining[(ear + 1) % count];
+            triangles.add(new int[]{prev, remaining[ear], next});
+            System.arraycopy(remaining, ear + 1, remaining, ear, count - ear - 1);
+            count--;
+        }
+        triangles.add(new int[]{remaining[0], remaining[1], remaining[2]});
+        return triangles;
+    }
+
+    private static boolean isEar(int[] remaining, int count, int index, double[] xPoints,
+                                 double[] yPoints) {
+        int prev = remaining[(index + count - 1) % count];
+        int point = remaining[index];
+        int next = remaining[(index + 1) % count];
+        if (cross(prev, point, next, xPoints, yPoints) <= 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int other = remaining[i];
+            if (other == prev || other == point || other == next) {
+                continue;
+            }
+            // only points that are on the boundary or reflex can be inside of the ear
+            if (cross(prev, other, next, xPoints, yPoints) >= 0 && cross(prev, point, other,
+                    xPoints, yPoints) >= 0 && cross(point, next, other, xPoints, yPoints) >= 0 &&
+                    cross(next, prev, other, xPoints, yPoints) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the diagonals between the pieces that leave a convex piece when they are removed,
+     * longest diagonal first since removing a long diagonal usually gives a fatter piece.
+     */
+    private static void mergePieces(ArrayList<int[]> pieces, double[] xPoints, double[]
+            yPoints) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            double longest = -1;
+            int bestA = -1, bestB = -1;
+            int[] bestPiece = null;
+            for (int a = 0; a < pieces.size(); a++) {
+                int[] pieceA = pieces.get(a);
+                for (int b = a + 1; b < pieces.size(); b++) {
+                    int[] mergedPiece = merge(pieceA, pieces.get(b), xPoints, yPoints);
+                    if (mergedPiece == null) {
+                        continue;
+                    }
+                    double length = getSharedEdgeLengthSquared(pieceA, pieces.get(b), xPoints,
+                            yPoints);
+                    if (length > longest) {
+                        longest = length;
+                        bestA = a;
+                        bestB = b;
+                        bestPiece = mergedPiece;
+                    }
+                }
+            }
+            if (bestPiece != null) {
+                pieces.set(bestA, bestPiece);
+                pieces.remove(bestB);
+                merged = true;
+            }
+        }
+    }
+
+    /**
+     * @return the piece that covers both pieces if they share an edge and it is convex, null
+     * otherwise
+     */
+    private static int[] merge(int[] a, int[] b, double[] xPoints, double[] yPoints) {
+        for (int i = 0; i < a.length; i++) {
+            int u = a[i];
+            int v = a[(i + 1) % a.length];
+            for (int j = 0; j < b.length; j++) {
+                if (b[j] != v || b[(j + 1) % b.length] != u) {
+                    continue;
+                }
+                // a from v around to u, then b from after u around to before v
+                int[] merged = new int[a.length + b.length - 2];
+                int size = 0;
+                for (int k = 0; k < a.length; k++) {
+                    merged[size++] = a[(i + 1 + k) % a.length];
+                }
+                for (int k = 2; k < b.length; k++) {
+                    merged[size++] = b[(j + k) % b.length];
+                }
+                return isConvex(merged, xPoints, yPoints) ? merged : null;
+            }
+        }
+        return null;
+    }
+
+    private static double getSharedEdgeLengthSquared(int[] a, int[] b, double[] xPoints, double[]
+            yPoints) {
+        for (int i = 0; i < a.length; i++) {
+            int u = a[i];
+            int v = a[(i + 1) % a.length];
+            for (int j = 0; j < b.length; j++) {
+                if (b[j] == v && b[(j + 1) % b.length] == u) {
+                    double deltaX = xPoints[v] - xPoints[u], deltaY = yPoints[v] - yPoints[u];
+                    return deltaX * deltaX + deltaY * deltaY;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isConvex(int[] piece, double[] xPoints, double[] yPoints) {
+        for (int i = 0; i < piece.length; i++) {
+            int prev = piece[(i + piece.length - 1) % piece.length];
+            int next = piece[(i + 1) % piece.length];
+            if (cross(prev, piece[i], next, xPoints, yPoints) < -COLLINEAR_TOLERANCE * length
+                    (prev, piece[i], xPoints, yPoints) * length(piece[i], next, xPoints,
+                    yPoints)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the points that are on top of the point before them or nearly on the line between
+     * their neighbours, until none are left.
+     */
+    private static int[] removeCollinearPoints(int[] points, double[] xPoints, double[] yPoints) {
+        int[] remaining = points.clone();
+        int count = remaining.length;
+        boolean removed = true;
+        while (removed && count >= 3) {
+            removed = false;
+            for (int i = 0; i < count && count >= 3; i++) {
+                int prev = remaining[(i + count - 1) % count];
+                int next = remaining[(i + 1) % count];
+                double before = length(prev, remaining[i], xPoints, yPoints);
+                double after = length(remaining[i], next, xPoints, yPoints);
+                if (before == 0 || Math.abs(cross(prev, remaining[i], next, xPoints, yPoints))
+                        <= COLLINEAR_TOLERANCE * before * after) {
+                    System.arraycopy(remaining, i + 1, remaining, i, count - i - 1);
+                    count--;
+                    i--;
+                    removed = true;
+                }
+            }
+        }
+        return Arrays.copyOf(remaining, count);
+    }
+
+    /**
+     * @return the cross product of the edge from a to b and the edge from b to c, positive if
+     * the points turn counter clockwise
+     */
+    private static double cross(int a, int b, int c, double[] xPoints, double[] yPoints) {
+        return (xPoints[b] - xPoints[a]) * (yPoints[c] - yPoints[b]) - (yPoints[b] - yPoints[a]) *
+                (xPoints[c] - xPoints[b]);
+    }
+
+    private static double length(int a, int b, double[] xPoints, double[] yPoints) {
+        double deltaX = xPoints[b] - xPoints[a], deltaY = yPoints[b] - yPoints[a];
+        return Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+    }
+
+    private static double getDoubleArea(int[] points, double[] xPoints, double[] yPoints) {
+        double sum = 0;
+        for (int i = 0; i < points.length; i++) {
+            int point = points[i];
+            int next = points[(i + 1) % points.length];
+            sum += xPoints[point] * yPoints[next] - xPoints[next] * yPoints[point];
+        }
+        return sum;
+    }
+
+    private static void reverse(int[] points) {
+        for (int i = 0, j = points.length - 1; i < j; i++, j--) {
+            int temp = points[i];
+            points[i] = points[j];
+            points[j] = temp;
+        }
+    }
+
+    /**
+     * The key of the cache, the points of an outline compared by value.
+     */
+    private static class Outline {
+        private final double[] xPoints, yPoints;
+        private final int hash;
+
+        private Outline(double[] xPoints, double[] yPoints) {
+            this.xPoints = xPoints;
+            this.yPoints = yPoints;
+            hash = 31 * Arrays.hashCode(xPoints) + Arrays.hashCode(yPoints);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Outline)) {
+                return false;
+            }
+            Outline other = (Outline) obj;
+            return Arrays.equals(xPoints, other.xPoints) && Arrays.equals(yPoints, other.yPoints);
+        }
+    }
+}
@@ -1,26 +1,41 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.entities.Entity;
 import gameengine.geometry.Vector2D;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 
 import java.util.Random;
 
+/**
+ * A convex polygon. The points and the edges are packed into flat arrays so the separating axis
+ * tests of {@link Shape} read them from contiguous memory without going through an object for
+ * each vertex.
+ *
+ * The points are stored as x, y pairs relative to the center. Each edge is stored as
+ * {@link #EDGE_STRIDE} values, the x and y of its unit normal followed by the min and max of the
+ * points projected onto the normal.
+ */
 public class Polygon extends Shape {
+    public static final int NORMAL_X = 0, NORMAL_Y = 1, NORMAL_MIN = 2, NORMAL_MAX = 3;
+    public static final int EDGE_STRIDE = 4;
+    private static final int SUPPORT_CACHE_SIZE = 4; //this must be a power of 2
     private static Random rand = new Random(0);
-    private Vector2D[] normals, points; // points are relative to the center
-    private double[] normalMins, normalMaxs;
+    private double[] points, edges;
+    // the support points that PolygonDistance last finished on against a few other polygons
+    private long[] supportCache = new long[SUPPORT_CACHE_SIZE];
+    private Vector2D[] pointVectors; // only used for drawing
     private double width, height, minX, maxX, minY, maxY;
     private int numPoints;
 
     public Polygon(double[] xPoints, double[] yPoints) {
-        super(getHalfLength(xPoints), getHalfLength(yPoints));
+        super(POLYGON, getHalfLength(xPoints), getHalfLength(yPoints));
         numPoints = xPoints.length;
-        points = new Vector2D[numPoints];
-        normals = new Vector2D[numPoints];
-        normalMins = new double[numPoints];
-        normalMaxs = new double[numPoints];
+        assert numPoints <= 0xFFFF : "the support cache packs the indices in 16 bits";
+        points = new double[numPoints * 2];
+        edges = new double[numPoints * EDGE_STRIDE];
+        pointVectors = new Vector2D[numPoints];
         setupPoints(xPoints, yPoints);
         setupMaxMin();
         setupNormalsAndShadows();
@@ -70,61 +85,115 @@ public class Polygon extends Shape {
     }
 
     @Override
-    public void collideWithShape(Shape shape, double maxTime, Collision result) {
-        shape.collideWithPolygon(this, maxTime, result);
+    public boolean isOverlappingShape(Shape shape) {
+        return shape.isOverlappingPolygon(this);
     }
 
     @Override
-    public void collideWithCircle(Circle circleShape, double maxTime, Collision result) {
-        Shape.collideCirclePoly(circleShape, this, maxTime, result);
+    public boolean isOverlappingPolygon(Polygon shape) {
+        return Shape.isOverlappingPolyPoly(this, shape);
     }
 
     @Override
-    public void collideWithRectangle(Rectangle aabbShape, double maxTime, Collision result) {
-        Shape.collideRectanglePoly(aabbShape, this, maxTime, result);
+    public boolean isOverlappingCircle(Circle shape) {
+        return Shape.isOverlappingPolyCircle(this, shape);
     }
 
     @Override
-    public void collideWithPolygon(Polygon polygonShape, double maxTime, Collision result) {
-        Shape.collidePolyPoly(this, polygonShape, maxTime, result);
+    public boolean isOverlappingRectangle(Rectangle shape) {
+        return Shape.isOverlappingPolyRectangle(this, shape);
     }
 
     @Override
-    public boolean isOverlappingShape(Shape shape) {
-        return shape.isOverlappingPolygon(this);
+    public boolean containsPoint(double x, double y) {
+        double relX = x - getX();
+        double relY = y - getY();
+        double[] edges = this.edges;
+        for (int offset = 0; offset < edges.length; offset += EDGE_STRIDE) {
+            double dist = relX * edges[offset + NORMAL_X] + relY * edges[offset + NORMAL_Y];
+            if (dist < edges[offset + NORMAL_MIN] || dist > edges[offset + NORMAL_MAX]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
-    public boolean isOverlappingPolygon(Polygon shape) {
-        return Shape.isOverlappingPolyPoly(this, shape);
+    public double raycast(double originX, double originY, double directionX, double directionY,
+                          double maxDistance, Vector2D normal) {
+        double relX = originX - getX();
+        double relY = originY - getY();
+        // the polygon is where the points are inside the max of every edge's normal
+        double entry = -Double.MAX_VALUE, exit = maxDistance;
+        int entryOffset = -1;
+        double[] edges = this.edges;
+        for (int offset = 0; offset < edges.length; offset += EDGE_STRIDE) {
+            double normalX = edges[offset + NORMAL_X], normalY = edges[offset + NORMAL_Y];
+            double dist = relX * normalX + relY * normalY;
+            double speed = directionX * normalX + directionY * normalY;
+            double gap = edges[offset + NORMAL_MAX] - dist;
+            if (speed == 0) {
+                if (gap < 0) {
+                    return NO_COLLISION;
+                }
+                continue;
+            }
+            double time = gap / speed;
+            if (speed < 0) {
+                if (time > entry) {
+                    entry = time;
+                    entryOffset = offset;
+                }
+            } else if (time < exit) {
+                exit = time;
+            }
+            if (entry > exit) {
+                return NO_COLLISION;
+            }
+        }
+        if (entryOffset == -1 || entry < 0) {
+            // starting inside
+            return NO_COLLISION;
+        }
+        normal.set(edges[entryOffset + NORMAL_X], edges[entryOffset + NORMAL_Y]);
+        return entry;
     }
 
-    @Override
-    public boolean isOverlappingCircle(Circle shape) {
-        return Shape.isOverlappingPolyCircle(this, shape);
+    /**
+     * The first edge is the line from the last point to the first point, the second edge is the
+     * line from the first point to the second point.
+     *
+     * @return the edges packed {@link #EDGE_STRIDE} values at a time, the x and y of the outward
+     * unit normal and then the min and max of the points projected onto the normal
+     */
+    public double[] getEdgeData() {
+        return edges;
     }
 
-    @Override
-    public boolean isOverlappingRectangle(Rectangle shape) {
-        return Shape.isOverlappingPolyRectangle(this, shape);
+    /**
+     * @return the points packed as x, y pairs that are relative to the center
+     */
+    public double[] getPointData() {
+        return points;
     }
 
     /**
-     * the first normal in the array is for the line points[points.length - 1] and points[0],
-     * the second normal is for line points[0] and points[1].
-     *
-     * @return an array of {@link Vector2D} point outwards
+     * @return the smallest x of the points relative to the center
      */
-    public Vector2D[] getNormals() {
-        return normals;
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
     }
 
-    public double[] getNormalMins() {
-        return normalMins;
+    public double getMinY() {
+        return minY;
     }
 
-    public double[] getNormalMaxs() {
-        return normalMaxs;
+    public double getMaxY() {
+        return maxY;
     }
 
     public double getWidth() {
@@ -136,11 +205,17 @@ public class Polygon extends Shape {
     }
 
     /**
-     * Points are relative to the center
+     * Points are relative to the center, the collision routines use {@link #getPointData()}
+     * instead
      *
-     * @return {@link Vector2D} array with points that are relative to the center
+     * @return a copy of the points as {@link Vector2D Vector2Ds} that are relative to the center,
+     * changing them doesn't change this polygon
      */
     public Vector2D[] getPoints() {
+        Vector2D[] points = new Vector2D[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            points[i] = new Vector2D(pointVectors[i]);
+        }
         return points;
     }
 
@@ -148,13 +223,76 @@ public class Polygon extends Shape {
         return numPoints;
     }
 
+    /**
+     * Finds the point that is the farthest in the direction by walking along the points from the
+     * start, which is only a few steps when the start is the support point of a nearby direction.
+     * Of two points that are equally far the one with the lower index is returned, so the result
+     * doesn't depend on the start.
+     *
+     * @param dirX  the x of the direction
+     * @param dirY  the y of the direction
+     * @param start the index of the point to start walking from
+     * @return the index of the point
+     */
+    public int getSupportIndex(double dirX, double dirY, int start) {
+        double[] points = this.points;
+        int best = start;
+        double bestDist = points[best * 2] * dirX + points[best * 2 + 1] * dirY;
+        int next = best + 1 == numPoints ? 0 : best + 1;
+        double nextDist = points[next * 2] * dirX + points[next * 2 + 1] * dirY;
+        int step = 1;
+        if (nextDist <= bestDist) {
+            next = best == 0 ? numPoints - 1 : best - 1;
+            nextDist = points[next * 2] * dirX + points[next * 2 + 1] * dirY;
+            step = numPoints - 1;
+        }
+        // the distances only rise once and then fall around a convex polygon
+        while (nextDist > bestDist) {
+            best = next;
+            bestDist = nextDist;
+            next = (best + step) % numPoints;
+            nextDist = points[next * 2] * dirX + points[next * 2 + 1] * dirY;
+        }
+        int before = best == 0 ? numPoints - 1 : best - 1;
+        int after = best + 1 == numPoints ? 0 : best + 1;
+        if (before < best && points[before * 2] * dirX + points[before * 2 + 1] * dirY ==
+                bestDist) {
+            best = before;
+        } else if (after < best && points[after * 2] * dirX + points[after * 2 + 1] * dirY ==
+                bestDist) {
+            best = after;
+        }
+        return best;
+    }
+
+    /**
+     * @return the support points cached against the other entity packed by
+     * {@link #cacheSupport(Entity, int, int)}, or 0 if there aren't any
+     */
+    long getCachedSupport(Entity other) {
+        int id = other.getId();
+        long cached = supportCache[id & (SUPPORT_CACHE_SIZE - 1)];
+        return (int) (cached >>> 32) == id ? cached : 0;
+    }
+
+    /**
+     * Caches the index of a point of this polygon and of the polygon of the other entity. The
+     * cache is read and written without locking during the parallel collision checks, so the
+     * indices are checked against the point counts before they are used.
+     */
+    void cacheSupport(Entity other, int index, int otherIndex) {
+        int id = other.getId();
+        supportCache[id & (SUPPORT_CACHE_SIZE - 1)] = (long) id << 32 | (long) index << 16 |
+                otherIndex;
+    }
+
     @Override
     public double getArea() {
         double sum = 0;
-        double lastX = points[numPoints - 1].getX(), lastY = points[numPoints - 1].getY();
+        double lastX = points[numPoints * 2 - 2], lastY = points[numPoints * 2 - 1];
         for (int i = 0; i < numPoints; i++) {
-            double x = points[i].getX();
-            double y = points[i].getY();
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
             sum += lastX * y - lastY * x;
             lastX = x;
             lastY = y;
@@ -164,15 +302,14 @@ public class Polygon extends Shape {
 
     @Override
     public void draw(Renderer renderer) {
-        renderer.fillPolygon(points, getX(), getY());
+        renderer.fillPolygon(pointVectors, getX(), getY());
     }
 
     private void drawPoints(Renderer renderer, RColor color) {
         int radius = 2;
         renderer.setForegroundColor(color);
         for (int i = 0; i < numPoints; i++) {
-            Vector2D point = points[i];
-            renderer.fillCircle(point.getX(), point.getY(), radius);
+            renderer.fillCircle(points[i * 2], points[i * 2 + 1], radius);
         }
     }
 
@@ -181,14 +318,17 @@ public class Polygon extends Shape {
         renderer.setForegroundColor(color);
         double x = getX();
         double y = getY();
-        for (Vector2D normal : normals) {
-            renderer.drawLine(x, y, x + normal.getX() * scale, y + normal.getY() * scale);
+        for (int offset = 0; offset < edges.length; offset += EDGE_STRIDE) {
+            renderer.drawLine(x, y, x + edges[offset + NORMAL_X] * scale, y + edges[offset +
+                    NORMAL_Y] * scale);
         }
     }
 
     private void setupPoints(double[] xPoints, double[] yPoints) {
         for (int i = 0; i < numPoints; i++) {
-            points[i] = new Vector2D(xPoints[i], yPoints[i]);
+            points[i * 2] = xPoints[i];
+            points[i * 2 + 1] = yPoints[i];
+            pointVectors[i] = new Vector2D(xPoints[i], yPoints[i]);
         }
     }
 
@@ -197,9 +337,9 @@ public class Polygon extends Shape {
         maxX = -Double.MAX_VALUE;
         minY = Double.MAX_VALUE;
         maxY = -Double.MAX_VALUE;
-        for (Vector2D point : points) {
-            double x = point.getX();
-            double y = point.getY();
+        for (int i = 0; i < numPoints; i++) {
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
             if (x < minX) {
                 minX = x;
             }
@@ -218,16 +358,14 @@ public class Polygon extends Shape {
     }
 
     private void setupNormalsAndShadows() {
-        Vector2D point = points[numPoints - 1];
-        double lastX = point.getX();
-        double lastY = point.getY();
+        double lastX = points[numPoints * 2 - 2];
+        double lastY = points[numPoints * 2 - 1];
+        Vector2D normal = new Vector2D();
         for (int i = 0; i < numPoints; i++) {
-            point = points[i];
-            double x = point.getX();
-            double y = point.getY();
-            Vector2D normal = new Vector2D(y - lastY, lastX - x);
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
+            normal.set(y - lastY, lastX - x);
             normal.unit();
-            normals[i] = normal;
             lastX = x;
             lastY = y;
 
@@ -236,7 +374,7 @@ public class Polygon extends Shape {
             double min = Double.MAX_VALUE;
             double max = -Double.MAX_VALUE;
             for (int q = 0; q < numPoints; q++) {
-                double dist = points[q].unitScalarProject(normal);
+                double dist = Vector2D.unitScalarProject(points[q * 2], points[q * 2 + 1], normal);
                 if (dist < min) {
                     min = dist;
                 }
@@ -244,8 +382,11 @@ public class Polygon extends Shape {
                     max = dist;
                 }
             }
-            normalMins[i] = min;
-            normalMaxs[i] = max;
+            int offset = i * EDGE_STRIDE;
+            edges[offset + NORMAL_X] = normal.getX();
+            edges[offset + NORMAL_Y] = normal.getY();
+            edges[offset + NORMAL_MIN] = min;
+            edges[offset + NORMAL_MAX] = max;
         }
     }
 }
@@ -0,0 +1,257 @@
+package gameengine.collisiondetection.shapes;
+
+import gameengine.collisiondetection.Collision;
+
+/**
+ * Finds the time of impact of two convex polygons by conservative advancement, used instead of
+ * the separating axis test of {@link Shape#collidePolyPoly} for polygons with many points. The
+ * separating axis test projects every point of each polygon onto every normal of the other, so
+ * its cost grows with the product of the point counts.
+ *
+ * The distance between the polygons is found with GJK, which walks the Minkowski difference of
+ * the polygons towards the origin and only needs the farthest point of each polygon in a few
+ * directions. Shapes only move by translation, so the polygons can't touch before the gap along
+ * the direction between their closest points is closed by their relative velocity. The
+ * polygons are moved forward by that time until the gap is within {@link #TOLERANCE}.
+ *
+ * The closest points that a pair finishes on are cached in the first polygon and the next check
+ * of the pair starts from them, since the closest points of two shapes that only move a little
+ * between updates rarely change. The result is found from the closest points in the same order
+ * however the search got to them, so it doesn't depend on the cache.
+ *
+ * Polygons that already overlap and searches that don't converge are left to
+ * {@link Shape#collidePolyPoly}.
+ *
+ * @author davidrusu
+ */
+public class PolygonDistance {
+    /**
+     * Pairs of polygons whose point counts multiply to at least this are checked with
+     * conservative advancement instead of the separating axis test
+     */
+    public static final int MIN_POINT_PRODUCT = 64;
+    /**
+     * A collision is found once the gap between the polygons is at most this
+     */
+    public static final double TOLERANCE = 1e-6;
+    private static final double OVERLAPPING = -1;
+    // GJK stops when a new point is closer to the origin than this fraction of the distance
+    private static final double MIN_PROGRESS = 1e-12;
+    private static final int MAX_GJK_ITERATIONS = 32, MAX_ADVANCEMENTS = 32;
+    // the simplex, up to two points of the Minkowski difference and the points they came from
+    private double x0, y0, x1, y1;
+    private int a0, b0, a1, b1;
+    private int simplexSize = 0;
+    private double closestX, closestY;
+
+    /**
+     * Checks if the polygons should be checked with
+     * {@link #collide(Polygon, Polygon, double, Collision)} instead of
+     * {@link Shape#collidePolyPoly}.
+     */
+    public static boolean isWorthUsing(Polygon a, Polygon b) {
+        return a.getNumPoints() * b.getNumPoints() >= MIN_POINT_PRODUCT;
+    }
+
+    /**
+     * Calculates the collision between the two polygons with the same contract as
+     * {@link Shape#collidePolyPoly}.
+     */
+    public void collide(Polygon a, Polygon b, double maxTime, Collision result) {
+        double offsetX = b.getX() - a.getX(), offsetY = b.getY() - a.getY();
+        double relVelX = b.getDX() - a.getDX(), relVelY = b.getDY() - a.getDY();
+        loadCachedSupport(a, b);
+        double time = 0;
+        double normalX = 0, normalY = 0;
+        for (int i = 0; i < MAX_ADVANCEMENTS; i++) {
+            double dist = distance(a, b, offsetX + relVelX * time, offsetY + relVelY * time);
+            if (dist == OVERLAPPING) {
+                if (time == 0) {
+                    Shape.collidePolyPoly(a, b, maxTime, result);
+                } else {
+                    // the last advancement was rounded into touching
+                    result.set(time, normalX, normalY, a.parent, b.parent);
+                }
+                cacheSupport(a, b);
+                return;
+            }
+            // the closest point of the difference points from b to a, the normal from a to b
+            normalX = -closestX / dist;
+            normalY = -closestY / dist;
+            double closingSpeed = -(relVelX * normalX + relVelY * normalY);
+            if (closingSpeed <= 0) {
+                result.setNoCollision();
+                cacheSupport(a, b);
+                return;
+            }
+            if (dist <= TOLERANCE) {
+                result.set(time, normalX, normalY, a.parent, b.parent);
+                cacheSupport(a, b);
+                return;
+            }
+            // aiming inside the tolerance so the polygons aren't advanced into each other
+            time += (dist - TOLERANCE * 0.5) / closingSpeed;
+            if (time > maxTime) {
+                result.setNoCollision();
+                cacheSupport(a, b);
+                return;
+            }
+        }
+        Shape.collidePolyPoly(a, b, maxTime, result);
+    }
+
+    private void loadCachedSupport(Polygon a, Polygon b) {
+        a0 = 0;
+        b0 = 0;
+        simplexSize = 1;
+        if (a.parent == null || b.parent == null) {
+            return;
+        }
+        long cached = a.getCachedSupport(b.parent);
+        int index = (int) (cached >>> 16) & 0xFFFF;
+        int otherIndex = (int) cached & 0xFFFF;
+        if (index < a.getNumPoints() && otherIndex < b.getNumPoints()) {
+            a0 = index;
+            b0 = otherIndex;
+        }
+    }
+
+    private void cacheSupport(Polygon a, Polygon b) {
+        if (a.parent != null && b.parent != null) {
+            a.cacheSupport(b.parent, a0, b0);
+        }
+    }
+
+    /**
+     * Finds the distance between the polygons with GJK, starting from the current simplex.
+     *
+     * @param offsetX the x of b relative to a
+     * @param offsetY the y of b relative to a
+     * @return the distance, or {@link #OVERLAPPING} if the polygons overlap or touch
+     */
+    private double distance(Polygon a, Polygon b, double offsetX, double offsetY) {
+        double[] aPoints = a.getPointData(), bPoints = b.getPointData();
+        x0 = aPoints[a0 * 2] - bPoints[b0 * 2] - offsetX;
+        y0 = aPoints[a0 * 2 + 1] - bPoints[b0 * 2 + 1] - offsetY;
+        if (simplexSize == 2) {
+            x1 = aPoints[a1 * 2] - bPoints[b1 * 2] - offsetX;
+            y1 = aPoints[a1 * 2 + 1] - bPoints[b1 * 2 + 1] - offsetY;
+            solveSegment();
+        } else {
+            closestX = x0;
+            closestY = y0;
+        }
+        for (int i = 0; i < MAX_GJK_ITERATIONS; i++) {
+            double distSquared = closestX * closestX + closestY * closestY;
+            if (distSquared == 0) {
+                return OVERLAPPING;
+            }
+            int supportA = a.getSupportIndex(-closestX, -closestY, a0);
+            int supportB = b.getSupportIndex(closestX, closestY, b0);
+            if (supportA == a0 && supportB == b0 || simplexSize == 2 && supportA == a1 &&
+                    supportB == b1) {
+                break;
+            }
+            double x = aPoints[supportA * 2] - bPoints[supportB * 2] - offsetX;
+            double y = aPoints[supportA * 2 + 1] - bPoints[supportB * 2 + 1] - offsetY;
+            if (distSquared - (closestX * x + closestY * y) <= MIN_PROGRESS * distSquared) {
+                break;
+            }
+            if (simplexSize == 1) {
+                setSecondPoint(x, y, supportA, supportB);
+                solveSegment();
+            } else if (!solveTriangle(x, y, supportA, supportB)) {
+                return OVERLAPPING;
+            }
+        }
+        if (simplexSize == 2 && (a1 < a0 || a1 == a0 && b1 < b0)) {
+            double tempX = x0, tempY = y0;
+            int tempA = a0, tempB = b0;
+            x0 = x1;
+            y0 = y1;
+            a0 = a1;
+            b0 = b1;
+            setSecondPoint(tempX, tempY, tempA, tempB);
+            solveSegment();
+        }
+        return Math.sqrt(closestX * closestX + closestY * closestY);
+    }
+
+    private void setSecondPoint(double x, double y, int a, int b) {
+        x1 = x;
+        y1 = y;
+        a1 = a;
+        b1 = b;
+        simplexSize = 2;
+    }
+
+    /**
+     * Finds the closest point to the origin on the segment of the simplex, dropping the point
+     * that isn't needed if the closest point is an end of the segment.
+     */
+    private void solveSegment() {
+        double t = segmentParameter(x0, y0, x1, y1);
+        if (t <= 0) {
+            simplexSize = 1;
+            closestX = x0;
+            closestY = y0;
+        } else if (t >= 1) {
+            x0 = x1;
+            y0 = y1;
+            a0 = a1;
+            b0 = b1;
+            simplexSize = 1;
+            closestX = x0;
+            closestY = y0;
+        } else {
+            closestX = x0 + (x1 - x0) * t;
+            closestY = y0 + (y1 - y0) * t;
+        }
+    }
+
+    /**
+     * Finds the closest point to the origin on the triangle of the simplex and the new point,
+     * keeping the edge or point that it is on.
+     *
+     * @return false if the origin is inside the triangle
+     */
+    private boolean solveTriangle(double x, double y, int a, int b) {
+        double cross01 = x0 * y1 - y0 * x1;
+        double cross1 = x1 * y - y1 * x;
+        double cross0 = x * y0 - y * x0;
+        if (cross01 >= 0 && cross1 >= 0 && cross0 >= 0 || cross01 <= 0 && cross1 <= 0 &&
+                cross0 <= 0) {
+            return false;
+        }
+        // the new point is the farthest towards the origin, so the closest point is on one of
+        // the edges that end at it
+        double t0 = segmentParameter(x0, y0, x, y);
+        double closestX0 = x0 + (x - x0) * t0, closestY0 = y0 + (y - y0) * t0;
+        double t1 = segmentParameter(x1, y1, x, y);
+        double closestX1 = x1 + (x - x1) * t1, closestY1 = y1 + (y - y1) * t1;
+        if (closestX1 * closestX1 + closestY1 * closestY1 < closestX0 * closestX0 + closestY0 *
+                closestY0) {
+            x0 = x1;
+            y0 = y1;
+            a0 = a1;
+            b0 = b1;
+        }
+        setSecondPoint(x, y, a, b);
+        solveSegment();
+        return true;
+    }
+
+    /**
+     * @return the fraction of the way from the first point to the second point that the closest
+     * point to the origin on the segment between them is at, between 0 and 1
+     */
+    private static double segmentParameter(double x0, double y0, double x1, double y1) {
+        double deltaX = x1 - x0, deltaY = y1 - y0;
+        double lengthSquared = deltaX * deltaX + deltaY * deltaY;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double t = -(x0 * deltaX + y0 * deltaY) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+}
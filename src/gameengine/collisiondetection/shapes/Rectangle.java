@@ -1,6 +1,7 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.geometry.Vector2D;
 import gameengine.graphics.Renderer;
 
 /**
@@ -10,7 +11,7 @@ public class Rectangle extends Shape {
     private double width, height;
 
     public Rectangle(double width, double height) {
-        super(width * 0.5, height * 0.5);
+        super(RECTANGLE, width * 0.5, height * 0.5);
         init(width, height);
     }
 
@@ -24,26 +25,6 @@ public class Rectangle extends Shape {
         this.height = height;
     }
 
-    @Override
-    public void collideWithShape(Shape shape, double maxTime, Collision result) {
-        shape.collideWithRectangle(this, maxTime, result);
-    }
-
-    @Override
-    public void collideWithCircle(Circle circleShape, double maxTime, Collision result) {
-        Shape.collideCircleRectangle(circleShape, this, maxTime, result);
-    }
-
-    @Override
-    public void collideWithRectangle(Rectangle aabbShape, double maxTime, Collision result) {
-        Shape.collideRectangleRectangle(this, aabbShape, maxTime, result);
-    }
-
-    @Override
-    public void collideWithPolygon(Polygon polygonShape, double maxTime, Collision result) {
-        Shape.collideRectanglePoly(this, polygonShape, maxTime, result);
-    }
-
     @Override
     public boolean isOverlappingShape(Shape shape) {
         return shape.isOverlappingRectangle(this);
@@ -64,6 +45,50 @@ public class Rectangle extends Shape {
         return Shape.isOverlappingRectangleRectangle(shape, this);
     }
 
+    @Override
+    public boolean containsPoint(double x, double y) {
+        return Math.abs(x - getX()) <= getHalfWidth() && Math.abs(y - getY()) <= getHalfHeight();
+    }
+
+    @Override
+    public double raycast(double originX, double originY, double directionX, double directionY,
+                          double maxDistance, Vector2D normal) {
+        double relX = originX - getX();
+        double relY = originY - getY();
+        double halfWidth = getHalfWidth(), halfHeight = getHalfHeight();
+        if (Math.abs(relX) <= halfWidth && Math.abs(relY) <= halfHeight) {
+            return NO_COLLISION;
+        }
+        double entryX = -Double.MAX_VALUE, exitX = Double.MAX_VALUE;
+        if (directionX != 0) {
+            double near = (directionX > 0 ? -halfWidth : halfWidth) - relX;
+            double far = (directionX > 0 ? halfWidth : -halfWidth) - relX;
+            entryX = near / directionX;
+            exitX = far / directionX;
+        } else if (Math.abs(relX) > halfWidth) {
+            return NO_COLLISION;
+        }
+        double entryY = -Double.MAX_VALUE, exitY = Double.MAX_VALUE;
+        if (directionY != 0) {
+            double near = (directionY > 0 ? -halfHeight : halfHeight) - relY;
+            double far = (directionY > 0 ? halfHeight : -halfHeight) - relY;
+            entryY = near / directionY;
+            exitY = far / directionY;
+        } else if (Math.abs(relY) > halfHeight) {
+            return NO_COLLISION;
+        }
+        double entry = Math.max(entryX, entryY);
+        if (entry < 0 || entry > maxDistance || entry > Math.min(exitX, exitY)) {
+            return NO_COLLISION;
+        }
+        if (entryX > entryY) {
+            normal.set(directionX > 0 ? -1 : 1, 0);
+        } else {
+            normal.set(0, directionY > 0 ? -1 : 1);
+        }
+        return entry;
+    }
+
     public double getWidth() {
         return width;
     }
@@ -10,11 +10,18 @@ import gameengine.graphics.Renderer;
  */
 public abstract class Shape {
     public static final double NO_COLLISION = Double.MAX_VALUE;
+    /**
+     * The kinds of shapes, the narrow phase is picked by the kinds of the two shapes
+     */
+    public static final int CIRCLE = 0, RECTANGLE = 1, POLYGON = 2, COMPOUND = 3;
+    private static final int KIND_COUNT = 4;
+    protected final int kind;
     protected double parentOffsetX, parentOffsetY;
     protected double halfWidth, halfHeight, width, height;
     protected Entity parent = null;
 
-    public Shape(double halfWidth, double halfHeight) {
+    public Shape(int kind, double halfWidth, double halfHeight) {
+        this.kind = kind;
         this.halfWidth = halfWidth;
         this.halfHeight = halfHeight;
         width = halfWidth * 2;
@@ -24,18 +31,71 @@ public abstract class Shape {
     }
 
     public static void collideShapes(Shape a, Shape b, double maxTime, Collision result) {
-        Entity aParent = a.parent;
-        Entity bParent = b.parent;
-        double combinedHalfWidths = aParent.getBBHalfWidth() + bParent.getBBHalfWidth();
-        double combinedHalfHeights = aParent.getBBHalfHeight() + bParent.getBBHalfHeight();
-
-        if (Math.abs(aParent.getBBCenterX() - bParent.getBBCenterX()) > combinedHalfWidths ||
-                Math.abs(aParent.getBBCenterY() - bParent.getBBCenterY()) > combinedHalfHeights) {
+        if (!boundingBoxesOverlap(a.parent, b.parent)) {
             result.setNoCollision();
             return;
         }
 
-        a.collideWithShape(b, maxTime, result);
+        collide(a, b, maxTime, result);
+    }
+
+    /**
+     * Runs the narrow phase routine for the kinds of the two shapes without checking their
+     * bounding boxes first. The routines take the shape of the lower kind first, this is the
+     * only place that swaps the shapes to match, so the {@link Collision} can have the shapes
+     * in either order.
+     */
+    public static void collide(Shape a, Shape b, double maxTime, Collision result) {
+        if (a.kind > b.kind) {
+            Shape temp = a;
+            a = b;
+            b = temp;
+        }
+        switch (a.kind * KIND_COUNT + b.kind) {
+            case CIRCLE * KIND_COUNT + CIRCLE:
+                collideCircleCircle((Circle) a, (Circle) b, maxTime, result);
+                break;
+            case CIRCLE * KIND_COUNT + RECTANGLE:
+                collideCircleRectangle((Circle) a, (Rectangle) b, maxTime, result);
+                break;
+            case CIRCLE * KIND_COUNT + POLYGON:
+                collideCirclePoly((Circle) a, (Polygon) b, maxTime, result);
+                break;
+            case RECTANGLE * KIND_COUNT + RECTANGLE:
+                collideRectangleRectangle((Rectangle) a, (Rectangle) b, maxTime, result);
+                break;
+            case RECTANGLE * KIND_COUNT + POLYGON:
+                collideRectanglePoly((Rectangle) a, (Polygon) b, maxTime, result);
+                break;
+            case POLYGON * KIND_COUNT + POLYGON:
+                if (PolygonDistance.isWorthUsing((Polygon) a, (Polygon) b)) {
+                    result.getCollisionData().getPolygonDistance().collide((Polygon) a, (Polygon)
+                            b, maxTime, result);
+                } else {
+                    collidePolyPoly((Polygon) a, (Polygon) b, maxTime, result);
+                }
+                break;
+            case CIRCLE * KIND_COUNT + COMPOUND:
+            case RECTANGLE * KIND_COUNT + COMPOUND:
+            case POLYGON * KIND_COUNT + COMPOUND:
+            case COMPOUND * KIND_COUNT + COMPOUND:
+                CompoundShape.collideCompound(a, (CompoundShape) b, maxTime, result);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape kinds: " + a.kind + ", " + b
+                        .kind);
+        }
+    }
+
+    /**
+     * @return true if the bounding boxes of the two entities overlap, the entities can't collide
+     * during the time their bounding boxes were calculated for if they don't
+     */
+    public static boolean boundingBoxesOverlap(Entity a, Entity b) {
+        double combinedHalfWidths = a.getBBHalfWidth() + b.getBBHalfWidth();
+        double combinedHalfHeights = a.getBBHalfHeight() + b.getBBHalfHeight();
+        return Math.abs(a.getBBCenterX() - b.getBBCenterX()) <= combinedHalfWidths && Math.abs(a
+                .getBBCenterY() - b.getBBCenterY()) <= combinedHalfHeights;
     }
 
     public static void collidePolyPoly(Polygon a, Polygon b, double maxTime, Collision result) {
@@ -74,19 +134,21 @@ public abstract class Shape {
         double bX = b.getX();
         double minX = aX - a.halfWidth - bX, maxX = aX + a.halfWidth - bX;
         double minY = a.getY() - a.halfHeight - b.getY(), maxY = a.getY() + a.halfHeight - b.getY();
-        for (int i = 0; i < b.getNumPoints(); i++) {
-            Vector2D normal = b.getNormals()[i];
-            double bMin = b.getNormalMins()[i];
-            double bMax = b.getNormalMaxs()[i];
-            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normal);
-            calcTOIUsingPolyNormalAndSetMinMaxValues(minX, maxX, minY, maxY, normal, bMin, bMax,
-                    projVel, collisionData);
+        double[] edges = b.getEdgeData();
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double normalX = edges[offset + Polygon.NORMAL_X];
+            double normalY = edges[offset + Polygon.NORMAL_Y];
+            double bMin = edges[offset + Polygon.NORMAL_MIN];
+            double bMax = edges[offset + Polygon.NORMAL_MAX];
+            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normalX, normalY);
+            calcTOIUsingPolyNormalAndSetMinMaxValues(minX, maxX, minY, maxY, normalX, normalY,
+                    bMin, bMax, projVel, collisionData);
             if (collisionData.isCollisionNotPossible()) {
                 result.setNoCollision();
                 return;
             }
             double dist = bMax - collisionData.getMin();
-            collisionData.updateTempOverlapData(dist, projVel, normal.getX(), normal.getY());
+            collisionData.updateTempOverlapData(dist, projVel, normalX, normalY);
         }
 
         calcCollisionWithBoxNormals(a, b, relVelX, relVelY, collisionData);
@@ -106,38 +168,31 @@ public abstract class Shape {
     }
 
     private static void calcTOIUsingPolyNormalAndSetMinMaxValues(double minX, double maxX, double
-            minY, double maxY, Vector2D normal, double bMin, double bMax, double projVel,
-                                                                 CollisionData collisionData) {
+            minY, double maxY, double normalX, double normalY, double bMin, double bMax, double
+            projVel, CollisionData collisionData) {
         collisionData.clearMinMax();
-        double projDist = Vector2D.unitScalarProject(minX, minY, normal);
+        double projDist = Vector2D.unitScalarProject(minX, minY, normalX, normalY);
         collisionData.updateMinMax(projDist);
-        projDist = Vector2D.unitScalarProject(maxX, minY, normal);
+        projDist = Vector2D.unitScalarProject(maxX, minY, normalX, normalY);
         collisionData.updateMinMax(projDist);
-        projDist = Vector2D.unitScalarProject(maxX, maxY, normal);
+        projDist = Vector2D.unitScalarProject(maxX, maxY, normalX, normalY);
         collisionData.updateMinMax(projDist);
-        projDist = Vector2D.unitScalarProject(minX, maxY, normal);
+        projDist = Vector2D.unitScalarProject(minX, maxY, normalX, normalY);
         collisionData.updateMinMax(projDist);
         calcTOIAlongAxis(collisionData.getMin(), collisionData.getMax(), bMin, bMax, projVel,
-                collisionData, normal);
+                collisionData, normalX, normalY);
     }
 
     private static void calcCollisionWithBoxNormals(Rectangle a, Polygon b, double relVelX,
                                                     double relVelY, CollisionData collisionData) {
-        double bMinX = Double.MAX_VALUE;
-        double bMaxX = -Double.MAX_VALUE;
-        double bMinY = Double.MAX_VALUE;
-        double bMaxY = -Double.MAX_VALUE;
+        // adding the offset doesn't change which point is the farthest along an axis, so the
+        // cached extents of the polygon give the same values as offsetting every point
         double offsetX = b.getX() - a.getX();
         double offsetY = b.getY() - a.getY();
-        for (int i = 0; i < b.getNumPoints(); i++) {
-            Vector2D point = b.getPoints()[i];
-            double x = point.getX() + offsetX;
-            bMinX = Math.min(bMinX, x);
-            bMaxX = Math.max(bMaxX, x);
-            double y = point.getY() + offsetY;
-            bMinY = Math.min(bMinY, y);
-            bMaxY = Math.max(bMaxY, y);
-        }
+        double bMinX = b.getMinX() + offsetX;
+        double bMaxX = b.getMaxX() + offsetX;
+        double bMinY = b.getMinY() + offsetY;
+        double bMaxY = b.getMaxY() + offsetY;
         double minX = -a.halfWidth;
         double maxX = a.halfWidth;
         double minY = -a.halfHeight;
@@ -169,19 +224,17 @@ public abstract class Shape {
         final double aX = a.getX(), aY = a.getY(), bX = b.getX(), bY = b.getY();
         final double aMax = a.getRadius(), aMin = -aMax;
 
-        Vector2D[] normals = b.getNormals();
-        double[] mins = b.getNormalMins();
-        double[] maxs = b.getNormalMaxs();
-
-        for (int i = 0; i < normals.length; i++) {
-            Vector2D normal = normals[i];
-            double aPos = Vector2D.unitScalarProject(aX, aY, normal);
-            double bPos = Vector2D.unitScalarProject(bX, bY, normal);
+        double[] edges = b.getEdgeData();
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double normalX = edges[offset + Polygon.NORMAL_X];
+            double normalY = edges[offset + Polygon.NORMAL_Y];
+            double aPos = Vector2D.unitScalarProject(aX, aY, normalX, normalY);
+            double bPos = Vector2D.unitScalarProject(bX, bY, normalX, normalY);
             double deltaPos = bPos - aPos;
-            double bMin = mins[i] + deltaPos;
-            double bMax = maxs[i] + deltaPos;
+            double bMin = edges[offset + Polygon.NORMAL_MIN] + deltaPos;
+            double bMax = edges[offset + Polygon.NORMAL_MAX] + deltaPos;
 
-            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normal);
+            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normalX, normalY);
             double normalEntryTime = getEntryTimeAlongAxis(aMin, aMax, bMin, bMax, projVel);
             if (normalEntryTime == NO_COLLISION) {
                 result.setNoCollision();
@@ -189,8 +242,8 @@ public abstract class Shape {
             }
             if (normalEntryTime > entryTime) {
                 entryTime = normalEntryTime;
-                collisionNormalX = normal.getX();
-                collisionNormalY = normal.getY();
+                collisionNormalX = normalX;
+                collisionNormalY = normalY;
             }
             leaveTime = Math.min(getLeaveTimeAlongAxis(aMin, aMax, bMin, bMax, projVel), leaveTime);
 
@@ -202,8 +255,8 @@ public abstract class Shape {
                 if (exitTime < overlapExitTime) {
                     overlapExitTime = exitTime;
                     overlapVel = projVel;
-                    overlapNormalX = normal.getX();
-                    overlapNormalY = normal.getY();
+                    overlapNormalX = normalX;
+                    overlapNormalY = normalY;
                 }
             }
         }
@@ -211,21 +264,19 @@ public abstract class Shape {
         double diffX = bX - aX;
         double diffY = bY - aY;
 
-        Vector2D[] verticies = b.getPoints();
-        for (int i = 0; i < verticies.length; i++) {
-            Vector2D vertex = verticies[i];
-            double bRelX = vertex.getX() + diffX;
-            double bRelY = vertex.getY() + diffY;
+        double[] points = b.getPointData();
+        for (int i = 0; i < points.length; i += 2) {
+            double bRelX = points[i] + diffX;
+            double bRelY = points[i + 1] + diffY;
             double dist = Math.sqrt(bRelX * bRelX + bRelY * bRelY);
             double normalX = bRelX / dist;
             double normalY = bRelY / dist;
 
             double bMin = Double.MAX_VALUE;
             double bMax = -Double.MAX_VALUE;
-            for (int j = 0; j < verticies.length; j++) {
-                Vector2D point = verticies[j];
-                double x = point.getX() + diffX;
-                double y = point.getY() + diffY;
+            for (int j = 0; j < points.length; j += 2) {
+                double x = points[j] + diffX;
+                double y = points[j + 1] + diffY;
                 double projection = Vector2D.unitScalarProject(x, y, normalX, normalY);
                 bMin = Math.min(projection, bMin);
                 bMax = Math.max(projection, bMax);
@@ -619,33 +670,32 @@ public abstract class Shape {
         collisionData.resetOverlapUpdated();
         double relVelX = a.getDX() - b.getDX();
         double relVelY = a.getDY() - b.getDY();
-        for (int i = 0; i < a.getNumPoints(); i++) {
-            Vector2D normal = a.getNormals()[i];
+        double aX = a.getX(), bX = b.getX(), aY = a.getY(), bY = b.getY();
+        double[] edges = a.getEdgeData();
+        double[] points = b.getPointData();
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double normalX = edges[offset + Polygon.NORMAL_X];
+            double normalY = edges[offset + Polygon.NORMAL_Y];
             collisionData.clearMinMax();
-            for (Vector2D point : b.getPoints()) {
-                double dist = Vector2D.unitScalarProject(point.getX() + b.getX() - a.getX(),
-                        point.getY() + b.getY() - a.getY(), normal);
+            for (int j = 0; j < points.length; j += 2) {
+                double dist = Vector2D.unitScalarProject(points[j] + bX - aX, points[j + 1] + bY
+                        - aY, normalX, normalY);
                 collisionData.updateMinMax(dist);
             }
-            double aMin = a.getNormalMins()[i];
-            double aMax = a.getNormalMaxs()[i];
-            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normal);
+            double aMin = edges[offset + Polygon.NORMAL_MIN];
+            double aMax = edges[offset + Polygon.NORMAL_MAX];
+            double projVel = Vector2D.unitScalarProject(relVelX, relVelY, normalX, normalY);
             calcTOIAlongAxis(aMin, aMax, collisionData.getMin(), collisionData.getMax(), projVel,
-                    collisionData, normal);
+                    collisionData, normalX, normalY);
             if (collisionData.isCollisionNotPossible()) {
                 return;
             }
             double dist = collisionData.getMax() - aMin;
-            collisionData.updateTempOverlapData(dist, projVel, normal.getX(), normal.getY());
+            collisionData.updateTempOverlapData(dist, projVel, normalX, normalY);
         }
         collisionData.updateOverlapData();
     }
 
-    private static void calcTOIAlongAxis(double aMin, double aMax, double bMin, double bMax,
-                                         double vel, CollisionData collisionData, Vector2D axis) {
-        calcTOIAlongAxis(aMin, aMax, bMin, bMax, vel, collisionData, axis.getX(), axis.getY());
-    }
-
     private static double getLeaveTimeAlongAxis(double aMin, double aMax, double bMin, double
             bMax, double vel) {
         double leaveTime = Double.MAX_VALUE;
@@ -679,50 +729,35 @@ public abstract class Shape {
     }
 
     public static boolean isOverlappingPolyPoly(Polygon a, Polygon b) {
-        final double aX = a.parent.getX(), aY = a.parent.getY();
-        final double bX = b.parent.getX(), bY = b.parent.getY();
+        final double aX = a.getX(), aY = a.getY();
+        final double bX = b.getX(), bY = b.getY();
         final double deltaX = aX - bX;
         final double deltaY = aY - bY;
-        Vector2D[] aPoints = a.getPoints();
-        Vector2D[] bNormals = b.getNormals();
-        double[] bMins = b.getNormalMins();
-        double[] bMaxs = b.getNormalMaxs();
-        for (int i = 0; i < bNormals.length; i++) {
-            Vector2D normal = bNormals[i];
-            double min = Double.MAX_VALUE;
-            double max = -Double.MIN_VALUE;
-            for (int j = 0; j < aPoints.length; j++) {
-                Vector2D aPoint = aPoints[j];
-                double pX = aPoint.getX() - deltaX;
-                double pY = aPoint.getY() - deltaY;
-                double dist = Vector2D.unitScalarProject(pX, pY, normal);
-                if (dist < min) {
-                    min = dist;
-                }
-                if (dist > max) {
-                    max = dist;
-                }
-            }
+        return !isSeparatedAlongEdges(a.getPointData(), -deltaX, -deltaY, b.getEdgeData()) &&
+                !isSeparatedAlongEdges(b.getPointData(), deltaX, deltaY, a.getEdgeData());
+    }
 
-            double bMin = bMins[i];
-            double bMax = bMaxs[i];
-            if (max < bMin || min > bMax) {
-                return false;
-            }
-        }
-        Vector2D[] bPoints = b.getPoints();
-        Vector2D[] aNormals = a.getNormals();
-        double[] aMins = a.getNormalMins();
-        double[] aMaxs = a.getNormalMaxs();
-        for (int i = 0; i < aNormals.length; i++) {
-            Vector2D normal = aNormals[i];
+    /**
+     * Checks if the points, moved by the offset, are separated from a polygon along one of the
+     * normals of its edges.
+     *
+     * @param points  the packed points of the other polygon
+     * @param offsetX the offset to add to the x of each point
+     * @param offsetY the offset to add to the y of each point
+     * @param edges   the packed edges of the polygon, see {@link Polygon#getEdgeData()}
+     * @return true if the points are outside of the shadow of the polygon on one of its normals
+     */
+    private static boolean isSeparatedAlongEdges(double[] points, double offsetX, double offsetY,
+                                                 double[] edges) {
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double normalX = edges[offset + Polygon.NORMAL_X];
+            double normalY = edges[offset + Polygon.NORMAL_Y];
             double min = Double.MAX_VALUE;
             double max = -Double.MIN_VALUE;
-            for (int j = 0; j < bPoints.length; j++) {
-                Vector2D bPoint = bPoints[j];
-                double pX = bPoint.getX() + deltaX;
-                double pY = bPoint.getY() + deltaY;
-                double dist = Vector2D.unitScalarProject(pX, pY, normal);
+            for (int j = 0; j < points.length; j += 2) {
+                double pX = points[j] + offsetX;
+                double pY = points[j + 1] + offsetY;
+                double dist = pX * normalX + pY * normalY;
                 if (dist < min) {
                     min = dist;
                 }
@@ -730,46 +765,39 @@ public abstract class Shape {
                     max = dist;
                 }
             }
-
-            double aMin = aMins[i];
-            double aMax = aMaxs[i];
-            if (max < aMin || min > aMax) {
-                return false;
+            if (max < edges[offset + Polygon.NORMAL_MIN] || min > edges[offset + Polygon
+                    .NORMAL_MAX]) {
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
     public static boolean isOverlappingPolyCircle(Polygon a, Circle b) {
-        final double aX = a.parent.getX(), aY = a.parent.getY();
-        final double bX = b.parent.getX(), bY = b.parent.getY();
+        final double aX = a.getX(), aY = a.getY();
+        final double bX = b.getX(), bY = b.getY();
         double bRadius = b.getRadius();
 
         final double deltaX = bX - aX;
         final double deltaY = bY - aY;
-        Vector2D[] aNormals = a.getNormals();
-        double[] aMins = a.getNormalMins();
-        double[] aMaxs = a.getNormalMaxs();
-        for (int i = 0; i < aNormals.length; i++) {
-            Vector2D normal = aNormals[i];
-            double bPos = Vector2D.unitScalarProject(deltaX, deltaY, normal);
+        double[] edges = a.getEdgeData();
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double bPos = Vector2D.unitScalarProject(deltaX, deltaY, edges[offset + Polygon
+                    .NORMAL_X], edges[offset + Polygon.NORMAL_Y]);
             double bMin = bPos - bRadius;
             double bMax = bPos + bRadius;
-
-            double aMin = aMins[i];
-            double aMax = aMaxs[i];
-            if (bMax < aMin || bMin > aMax) {
+            if (bMax < edges[offset + Polygon.NORMAL_MIN] || bMin > edges[offset + Polygon
+                    .NORMAL_MAX]) {
                 return false;
             }
         }
 
         double minDX = 0, minDY = 0;
         double minDistSquard = Double.MAX_VALUE;
-        Vector2D[] aPoints = a.getPoints();
-        for (int i = 0; i < aPoints.length; i++) {
-            Vector2D point = aPoints[i];
-            double pX = point.getX() + aX;
-            double pY = point.getY() + aY;
+        double[] aPoints = a.getPointData();
+        for (int i = 0; i < aPoints.length; i += 2) {
+            double pX = aPoints[i] + aX;
+            double pY = aPoints[i + 1] + aY;
             double dX = bX - pX;
             double dY = bY - pY;
             double distSquared = dX * dX + dY * dY;
@@ -784,11 +812,9 @@ public abstract class Shape {
         double normalY = minDY / dist;
         double aMin = Double.MAX_VALUE;
         double aMax = -Double.MAX_VALUE;
-        for (int i = 0; i < aPoints.length; i++) {
-            Vector2D point = aPoints[i];
-            double pX = point.getX();
-            double pY = point.getY();
-            double shadow = Vector2D.unitScalarProject(pX, pY, normalX, normalY);
+        for (int i = 0; i < aPoints.length; i += 2) {
+            double shadow = Vector2D.unitScalarProject(aPoints[i], aPoints[i + 1], normalX,
+                    normalY);
             if (shadow < aMin) {
                 aMin = shadow;
             }
@@ -804,8 +830,8 @@ public abstract class Shape {
     }
 
     public static boolean isOverlappingPolyRectangle(Polygon a, Rectangle b) {
-        final double aX = a.parent.getX(), aY = a.parent.getY();
-        final double bX = b.parent.getX(), bY = b.parent.getY();
+        final double aX = a.getX(), aY = a.getY();
+        final double bX = b.getX(), bY = b.getY();
         double bHalfWidth = b.getHalfWidth();
         double bHalfHeight = b.getHalfHeight();
         final double deltaX = bX - aX;
@@ -814,85 +840,45 @@ public abstract class Shape {
         final double bMaxX = deltaX + bHalfWidth;
         final double bMinY = deltaY - bHalfHeight;
         final double bMaxY = deltaY + bHalfHeight;
-        Vector2D[] aNormals = a.getNormals();
-        double[] aMins = a.getNormalMins();
-        double[] aMaxs = a.getNormalMaxs();
-        for (int i = 0; i < aNormals.length; i++) {
-            Vector2D normal = aNormals[i];
+        double[] edges = a.getEdgeData();
+        for (int offset = 0; offset < edges.length; offset += Polygon.EDGE_STRIDE) {
+            double normalX = edges[offset + Polygon.NORMAL_X];
+            double normalY = edges[offset + Polygon.NORMAL_Y];
 
-            double bPointShadow = Vector2D.unitScalarProject(bMinX, bMinY, normal);
+            double bPointShadow = Vector2D.unitScalarProject(bMinX, bMinY, normalX, normalY);
             double bMin = bPointShadow;
             double bMax = bPointShadow;
 
-            bPointShadow = Vector2D.unitScalarProject(bMaxX, bMinY, normal);
+            bPointShadow = Vector2D.unitScalarProject(bMaxX, bMinY, normalX, normalY);
             if (bPointShadow < bMin) {
                 bMin = bPointShadow;
             } else {
                 bMax = bPointShadow;
             }
 
-            bPointShadow = Vector2D.unitScalarProject(bMaxX, bMaxY, normal);
+            bPointShadow = Vector2D.unitScalarProject(bMaxX, bMaxY, normalX, normalY);
             if (bPointShadow < bMin) {
                 bMin = bPointShadow;
             } else if (bPointShadow > bMax) {
                 bMax = bPointShadow;
             }
 
-            bPointShadow = Vector2D.unitScalarProject(bMinX, bMaxY, normal);
+            bPointShadow = Vector2D.unitScalarProject(bMinX, bMaxY, normalX, normalY);
             if (bPointShadow < bMin) {
                 bMin = bPointShadow;
             } else if (bPointShadow > bMax) {
                 bMax = bPointShadow;
             }
 
-            double aMin = aMins[i];
-            double aMax = aMaxs[i];
-            if (bMax < aMin || bMin > aMax) {
+            if (bMax < edges[offset + Polygon.NORMAL_MIN] || bMin > edges[offset + Polygon
+                    .NORMAL_MAX]) {
                 return false;
             }
         }
 
-        double normalX = 1;
-        double normalY = 0;
-        double aMin = Double.MAX_VALUE;
-        double aMax = -Double.MAX_VALUE;
-        Vector2D[] aPoints = a.getPoints();
-        for (int i = 0; i < aPoints.length; i++) {
-            Vector2D point = aPoints[i];
-            double pX = point.getX();
-            double pY = point.getY();
-            double shadow = Vector2D.unitScalarProject(pX, pY, normalX, normalY);
-            if (shadow < aMin) {
-                aMin = shadow;
-            }
-            if (shadow > aMax) {
-                aMax = shadow;
-            }
-        }
-        if (bMaxX < aMin || bMinX > aMax) {
-            return false;
-        }
-
-        normalX = 0;
-        normalY = 1;
-        aMin = Double.MAX_VALUE;
-        aMax = -Double.MAX_VALUE;
-        for (int i = 0; i < aPoints.length; i++) {
-            Vector2D point = aPoints[i];
-            double pX = point.getX();
-            double pY = point.getY();
-            double shadow = Vector2D.unitScalarProject(pX, pY, normalX, normalY);
-            if (shadow < aMin) {
-                aMin = shadow;
-            }
-            if (shadow > aMax) {
-                aMax = shadow;
-            }
-        }
-        if (bMaxY < aMin || bMinY > aMax) {
-            return false;
-        }
-        return true;
+        // the shadows of the polygon on the x and y axes are its cached extents
+        return !(bMaxX < a.getMinX() || bMinX > a.getMaxX() || bMaxY < a.getMinY() || bMinY > a
+                .getMaxY());
     }
 
     public static boolean isOverlappingCircleCircle(Circle a, Circle b) {
@@ -905,8 +891,8 @@ public abstract class Shape {
     }
 
     public static boolean isOverlappingCircleRectangle(Circle a, Rectangle b) {
-        final double aX = a.parent.getX(), aY = a.parent.getY();
-        final double bX = b.parent.getX(), bY = b.parent.getY();
+        final double aX = a.getX(), aY = a.getY();
+        final double bX = b.getX(), bY = b.getY();
         double bHalfWidth = b.getHalfWidth();
         double bHalfHeight = b.getHalfHeight();
         final double deltaX = bX - aX;
@@ -1031,16 +1017,22 @@ public abstract class Shape {
         return halfHeight;
     }
 
-    public abstract double getArea();
-
-    public abstract void collideWithShape(Shape shape, double maxTime, Collision result);
-
-    public abstract void collideWithCircle(Circle circleShape, double maxTime, Collision result);
+    /**
+     * @return the kind of this shape, one of {@link #CIRCLE}, {@link #RECTANGLE},
+     * {@link #POLYGON} or {@link #COMPOUND}
+     */
+    public int getKind() {
+        return kind;
+    }
 
-    public abstract void collideWithRectangle(Rectangle aabbShape, double maxTime, Collision
-            result);
+    public abstract double getArea();
 
-    public abstract void collideWithPolygon(Polygon polygonShape, double maxTime, Collision result);
+    /**
+     * Same as {@link #collide(Shape, Shape, double, Collision)} with this shape first.
+     */
+    public final void collideWithShape(Shape shape, double maxTime, Collision result) {
+        collide(this, shape, maxTime, result);
+    }
 
     public abstract boolean isOverlappingShape(Shape shape);
 
@@ -1050,6 +1042,26 @@ public abstract class Shape {
 
     public abstract boolean isOverlappingRectangle(Rectangle shape);
 
+    /**
+     * @return true if the point is inside this shape at the current position of its parent
+     */
+    public abstract boolean containsPoint(double x, double y);
+
+    /**
+     * Finds where the ray enters this shape at the current position of its parent, a ray that
+     * starts inside the shape doesn't hit it.
+     *
+     * @param originX     the x position the ray starts at
+     * @param originY     the y position the ray starts at
+     * @param directionX  the x component of the unit direction of the ray
+     * @param directionY  the y component of the unit direction of the ray
+     * @param maxDistance the length of the ray
+     * @param normal      set to the unit normal of the surface that was hit, if it was hit
+     * @return the distance along the ray to the hit or {@link #NO_COLLISION} if the ray misses
+     */
+    public abstract double raycast(double originX, double originY, double directionX, double
+            directionY, double maxDistance, Vector2D normal);
+
     /**
      * Draws the shape using the current foreground color.
      *
@@ -4,46 +4,35 @@ import gameengine.collisiondetection.Collision;
 import gameengine.collisiondetection.shapes.Shape;
 
 /**
- * A linked list that stores all of the active trees sorted by the time of the
- * next collision in the tree
+ * An indexed d-ary min heap that stores all of the active trees by the time of the next
+ * collision in the tree. Every {@link CollisionNode} knows its own index in the heap so a node
+ * whose collision time changed is moved to its new position in O(log n) instead of walking the
+ * nodes one by one.
  *
  * User: davidrusu
  * Date: 19/02/13
  * Time: 2:56 PM
  */
 public class CollisionList {
-    private CollisionNode sentinel = new CollisionNode();
-
-    public CollisionList() {
-        sentinel.setCollisionTime(-1);
-    }
+    private static final int ARITY = 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    private CollisionNode[] heap = new CollisionNode[INITIAL_CAPACITY];
+    private int size = 0;
+    private Collision noCollision = new Collision();
 
     /**
      * Called if a {@link Tree} updated its {@link CollisionNode} with a new collision time.
-     * The method inserts the tree's node to it's proper location in the list
+     * The method moves the tree's node to it's proper location in the heap
      *
      * @param node the {@link CollisionNode} that has been updated
      */
     public void collisionUpdated(CollisionNode node) {
-        double collisionTime = node.getCollisionTime();
+        int index = node.getHeapIndex();
+        assert index >= 0 && heap[index] == node : "node is not in the heap";
 
-        if (collisionTime < node.getPrev().getCollisionTime()) {
-            CollisionNode before = node.getPrev();
-            do {
-                before = before.getPrev();
-            } while (collisionTime < before.getCollisionTime());
-
-            remove(node);
-            insertNodeAfter(node, before);
-        } else if (node.getNext() != null && collisionTime > node.getNext().getCollisionTime()) {
-            CollisionNode after = node.getNext();
-            CollisionNode before;
-            do {
-                before = after;
-                after = after.getNext();
-            } while (after != null && collisionTime > after.getCollisionTime());
-            remove(node);
-            insertNodeAfter(node, before);
+        if (siftUp(index) == index) {
+            siftDown(index);
         }
 
         assert areNodesSorted() : "nodes are not sorted after sort";
@@ -55,12 +44,18 @@ public class CollisionList {
      * @param node the {@link CollisionNode} to add
      */
     public void add(CollisionNode node) {
-        assert node.getPrev() == null;
-        assert node.getNext() == null;
+        assert node.getHeapIndex() == -1;
         assert node.getCollisionTime() == Shape.NO_COLLISION;
 
-        insertNodeAfter(node, sentinel);
-        collisionUpdated(node);
+        if (size == heap.length) {
+            CollisionNode[] temp = heap;
+            heap = new CollisionNode[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, heap, 0, size);
+        }
+        heap[size] = node;
+        node.setHeapIndex(size);
+        size++;
+        siftUp(size - 1);
     }
 
     /**
@@ -69,21 +64,41 @@ public class CollisionList {
      * @param node the {@link CollisionNode} to remove
      */
     public void remove(CollisionNode node) {
-        CollisionNode next = node.getNext();
-        if (next != null) {
-            next.setPrev(node.getPrev());
+        int index = node.getHeapIndex();
+        assert index >= 0 && heap[index] == node : "node is not in the heap";
+
+        size--;
+        CollisionNode last = heap[size];
+        heap[size] = null;
+        node.setHeapIndex(-1);
+        if (index != size) {
+            heap[index] = last;
+            last.setHeapIndex(index);
+            collisionUpdated(last);
         }
-
-        assert node.getPrev() != null;
-        node.getPrev().setNext(next);
     }
 
     /**
      * Clears the list
      */
     public void clear() {
-        sentinel.disintegrateList();
-        sentinel.setCollisionTime(-1);
+        for (int i = 0; i < size; i++) {
+            heap[i].clear();
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Restores the heap order of every node in the list. Used when the collision times of
+     * many nodes have been changed without calling {@link #collisionUpdated(CollisionNode)}.
+     */
+    public void heapify() {
+        for (int i = (size - 2) / ARITY; i >= 0; i--) {
+            siftDown(i);
+        }
+
+        assert areNodesSorted() : "nodes are not sorted after heapify";
     }
 
     /**
@@ -92,52 +107,117 @@ public class CollisionList {
      * @return the next {@link Collision} in the list
      */
     public Collision getNextCollision() {
-        return sentinel.getNext().getCollision();
+        if (size == 0) {
+            return noCollision;
+        }
+        return heap[0].getCollision();
+    }
+
+    /**
+     * Returns the {@link CollisionNode} with the earliest collision
+     *
+     * @return the {@link CollisionNode} with the earliest collision or null if the list is empty
+     */
+    public CollisionNode getNextNode() {
+        if (size == 0) {
+            return null;
+        }
+        return heap[0];
     }
 
-    private void insertNodeAfter(CollisionNode node, CollisionNode before) {
-        assert before != null;
+    public int size() {
+        return size;
+    }
 
-        node.setPrev(before);
-        node.setNext(before.getNext());
+    /**
+     * Moves the node at the index towards the root until its parent has an earlier collision.
+     *
+     * @param index the index of the node to move
+     * @return the new index of the node
+     */
+    private int siftUp(int index) {
+        CollisionNode node = heap[index];
+        double collisionTime = node.getCollisionTime();
+        while (index > 0) {
+            int parentIndex = (index - 1) / ARITY;
+            CollisionNode parent = heap[parentIndex];
+            if (parent.getCollisionTime() <= collisionTime) {
+                break;
+            }
+            heap[index] = parent;
+            parent.setHeapIndex(index);
+            index = parentIndex;
+        }
+        heap[index] = node;
+        node.setHeapIndex(index);
+        return index;
+    }
 
-        node.getPrev().setNext(node);
-        if (node.getNext() != null) {
-            node.getNext().setPrev(node);
+    /**
+     * Moves the node at the index away from the root until none of its children have an
+     * earlier collision.
+     *
+     * @param index the index of the node to move
+     */
+    private void siftDown(int index) {
+        CollisionNode node = heap[index];
+        double collisionTime = node.getCollisionTime();
+        while (true) {
+            int firstChild = index * ARITY + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            int lastChild = Math.min(firstChild + ARITY, size);
+            int minChild = firstChild;
+            double minTime = heap[firstChild].getCollisionTime();
+            for (int i = firstChild + 1; i < lastChild; i++) {
+                double time = heap[i].getCollisionTime();
+                if (time < minTime) {
+                    minTime = time;
+                    minChild = i;
+                }
+            }
+            if (minTime >= collisionTime) {
+                break;
+            }
+            CollisionNode child = heap[minChild];
+            heap[index] = child;
+            child.setHeapIndex(index);
+            index = minChild;
         }
+        heap[index] = node;
+        node.setHeapIndex(index);
     }
 
     //------------------------ testing methods ----------------------------
     public boolean areNodesSorted() {
-        CollisionNode prev = sentinel, current = sentinel.getNext();
-        while (current != null) {
-            assert current.getPrev() == prev : "nodes prev is not what it should be";
-            assert prev.getCollisionTime() <= current.getCollisionTime() :
-                    "prev: " + prev.getCollisionTime() + " next: " + current.getCollisionTime();
-            prev = current;
-            current = current.getNext();
+        for (int i = 0; i < size; i++) {
+            CollisionNode node = heap[i];
+            assert node.getHeapIndex() == i : "nodes index is not what it should be";
+            if (i > 0) {
+                CollisionNode parent = heap[(i - 1) / ARITY];
+                assert parent.getCollisionTime() <= node.getCollisionTime() :
+                        "parent: " + parent.getCollisionTime() + " child: " + node
+                                .getCollisionTime();
+            }
         }
         return true;
     }
 
     public boolean checkNodeCollision() {
-        CollisionNode current = sentinel.getNext();
-        while (current != null) {
-            assert current.getCollision().assertCollision();
-            current = current.getNext();
+        for (int i = 0; i < size; i++) {
+            assert heap[i].getCollision().assertCollision();
         }
         return true;
     }
 
     public boolean doAllNodesHaveNoCollision(double elapsedTime) {
-        CollisionNode current = sentinel.getNext();
-        while (current != null) {
-            Collision collision = current.getCollision();
+        for (int i = 0; i < size; i++) {
+            Collision collision = heap[i].getCollision();
             assert collision.getCollisionTime() == Shape.NO_COLLISION :
                     "nodes are not all set to NoCollision: " + collision.getCollisionTime() + " " + elapsedTime;
             assert collision.getA() == null : "nodes are not all set to NoCollision";
             assert collision.getB() == null : "nodes are not all set to NoCollision";
-            current = current.getNext();
         }
         return true;
     }
@@ -3,28 +3,20 @@ package gameengine.collisiondetection.tree;
 import gameengine.collisiondetection.Collision;
 
 /**
- * Node for {@link CollisionList} linked list
+ * Node for the {@link CollisionList} heap
  *
  * @author davidrusu
  */
 public class CollisionNode {
-    private CollisionNode prev = null, next = null;
+    private int heapIndex = -1;
     private Collision collision = new Collision();
 
-    public CollisionNode getPrev() {
-        return prev;
+    public int getHeapIndex() {
+        return heapIndex;
     }
 
-    public CollisionNode getNext() {
-        return next;
-    }
-
-    public void setPrev(CollisionNode prev) {
-        this.prev = prev;
-    }
-
-    public void setNext(CollisionNode next) {
-        this.next = next;
+    public void setHeapIndex(int heapIndex) {
+        this.heapIndex = heapIndex;
     }
 
     public double getCollisionTime() {
@@ -41,14 +33,6 @@ public class CollisionNode {
 
     public void clear() {
         collision.setNoCollision();
-        prev = null;
-        next = null;
-    }
-
-    public void disintegrateList() {
-        if (next != null) {
-            next.disintegrateList();
-        }
-        clear();
+        heapIndex = -1;
     }
 }
@@ -0,0 +1,55 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.Collision;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task that calculates the initial collisions of a sub tree. The four children of a
+ * {@link Quad} are forked as separate tasks until the cutoff depth or entity count is reached,
+ * below that the sub tree is calculated sequentially.
+ *
+ * Each task uses its own scratch {@link Collision} and none of them touch the
+ * {@link CollisionList}, so the list must be reordered once the root task has completed.
+ *
+ * @author davidrusu
+ */
+class InitCalcCollisionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Tree tree;
+    private final double timeToCheck;
+    private final int depth, maxDepth, minEntityCount;
+
+    InitCalcCollisionTask(Tree tree, double timeToCheck, int depth, int maxDepth, int
+            minEntityCount) {
+        this.tree = tree;
+        this.timeToCheck = timeToCheck;
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.minEntityCount = minEntityCount;
+    }
+
+    @Override
+    protected void compute() {
+        Collision temp = new Collision();
+        if (!(tree instanceof Quad) || depth >= maxDepth || tree.getEntityCount() <
+                minEntityCount) {
+            tree.initCalcCollisionUnsorted(timeToCheck, temp);
+            return;
+        }
+        Quad quad = (Quad) tree;
+        // the entities at this level are checked against the sub trees before any of the sub
+        // trees are forked so no two tasks ever touch the same tree at the same time
+        quad.initCalcCollisionAtLevel(timeToCheck, temp);
+
+        int childDepth = depth + 1;
+        invokeAll(new InitCalcCollisionTask(quad.getTopLeft(), timeToCheck, childDepth, maxDepth,
+                        minEntityCount),
+                new InitCalcCollisionTask(quad.getTopRight(), timeToCheck, childDepth, maxDepth,
+                        minEntityCount),
+                new InitCalcCollisionTask(quad.getBottomLeft(), timeToCheck, childDepth,
+                        maxDepth, minEntityCount),
+                new InitCalcCollisionTask(quad.getBottomRight(), timeToCheck, childDepth,
+                        maxDepth, minEntityCount));
+    }
+}
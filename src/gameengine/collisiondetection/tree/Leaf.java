@@ -14,17 +14,6 @@ import gameengine.graphics.Renderer;
  */
 public class Leaf extends Tree {
 
-    public static final int INITIAL_NUM_LEAFS = 32;
-    private static final int EXPANSION_FACTOR = 2;
-    private static Leaf[] recycledLeafs = new Leaf[INITIAL_NUM_LEAFS];
-    private static int numRecycledLeafs = INITIAL_NUM_LEAFS;
-
-    static {
-        for (int i = 0; i < INITIAL_NUM_LEAFS; i++) {
-            recycledLeafs[i] = new Leaf();
-        }
-    }
-
     private Leaf(World world, Parent parent, double centerX, double centerY, double halfLength) {
         super(world, parent, centerX, centerY, halfLength);
     }
@@ -33,29 +22,25 @@ public class Leaf extends Tree {
         super(world);
     }
 
-    private Leaf() {
+    Leaf() {
         super();
     }
 
     public static Leaf createInstance(World world, Parent parent, double centerX, double centerY,
                                       double halfLength) {
-        if (numRecycledLeafs == 0) {
+        Leaf leafInstance = world.getNodePool().pollLeaf();
+        if (leafInstance == null) {
             return new Leaf(world, parent, centerX, centerY, halfLength);
         }
-        numRecycledLeafs--;
-        Leaf leafInstance = recycledLeafs[numRecycledLeafs];
-        recycledLeafs[numRecycledLeafs] = null;
         leafInstance.init(world, parent, centerX, centerY, halfLength);
         return leafInstance;
     }
 
     public static Leaf createInstance(World world) {
-        if (numRecycledLeafs == 0) {
+        Leaf leafInstance = world.getNodePool().pollLeaf();
+        if (leafInstance == null) {
             return new Leaf(world);
         }
-        numRecycledLeafs--;
-        Leaf leafInstance = recycledLeafs[numRecycledLeafs];
-        recycledLeafs[numRecycledLeafs] = null;
         leafInstance.init(world);
         return leafInstance;
     }
@@ -64,13 +49,7 @@ public class Leaf extends Tree {
     public void recycle() {
         assert isClean();
 
-        if (numRecycledLeafs == recycledLeafs.length) {
-            Leaf[] temp = new Leaf[numRecycledLeafs * EXPANSION_FACTOR];
-            System.arraycopy(recycledLeafs, 0, temp, 0, numRecycledLeafs);
-            recycledLeafs = temp;
-        }
-        recycledLeafs[numRecycledLeafs] = this;
-        numRecycledLeafs++;
+        pool.recycle(this);
     }
 
     @Override
@@ -84,7 +63,10 @@ public class Leaf extends Tree {
         int index = 0;
         while (index < entityListPos) {
             Entity entity = entities[index];
-            entity.calculateBoundingBox(time);
+            if (!entity.isAsleep()) {
+                // sleeping entities don't move so their bounding boxes are still correct
+                entity.calculateBoundingBox(time);
+            }
 
             if (!isContainedInTree(entity)) {
                 assert isEntityCountCorrect();
@@ -167,10 +149,17 @@ public class Leaf extends Tree {
     }
 
     @Override
-    public void initCheckCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+    public void initCalcCollisionUnsorted(double timeToCheck, Collision temp) {
+        timeInTree = 0;
+        calcCollisionAtLevel(timeToCheck, temp);
+    }
+
+    @Override
+    public void initCheckCollisionWithEntity(Collision result, Collision temp, double timeToCheck,
+                                             Entity entity) {
         timeInTree = 0;
         for (int i = 0; i < entityListPos; i++) {
-            collideShapes(result, timeToCheck, entity, entities[i]);
+            collideShapes(result, temp, timeToCheck, entity, entities[i]);
         }
     }
 
@@ -197,6 +186,7 @@ public class Leaf extends Tree {
             addAndCheck(timeToCheck, entity);
             parent.childEntityUpdated(timeToCheck, entity);
         } else {
+            world.getRelocationStats().eventRelocation();
             parent.relocateAndCheck(timeToCheck, entity);
         }
     }
@@ -220,6 +210,7 @@ public class Leaf extends Tree {
     @Override
     public void addAndCheck(double timeToCheck, Entity entity) {
         checkCollisionWithEntity(node.getCollision(), timeToCheck, entity);
+        collideWithStatics(node.getCollision(), world.getTempCollision(), timeToCheck, entity);
         addEntityToList(entity);
         entityCount++;
         world.getCollisionList().collisionUpdated(node);
@@ -254,14 +245,17 @@ public class Leaf extends Tree {
     }
 
     private void calcCollision(double timeToCheck) {
+        calcCollisionAtLevel(timeToCheck, world.getTempCollision());
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    private void calcCollisionAtLevel(double timeToCheck, Collision temp) {
         assert node.getCollisionTime() == Shape.NO_COLLISION;
         Collision collision = node.getCollision();
+        boolean batched = gatherLevel();
         for (int i = 0; i < entityListPos; i++) {
-            Entity a = entities[i];
-            for (int j = i + 1; j < entityListPos; j++) {
-                collideShapes(collision, timeToCheck, a, entities[j]);
-            }
+            collideWithLevel(collision, temp, timeToCheck, i, batched);
+            collideWithStatics(collision, temp, timeToCheck, entities[i]);
         }
-        world.getCollisionList().collisionUpdated(node);
     }
 }
@@ -0,0 +1,176 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+
+/**
+ * Recycles the {@link Quad} and {@link Leaf} nodes of a single {@link World}'s spatial tree.
+ * Each world owns its own pool so worlds can be updated on separate threads without locking.
+ *
+ * Recycled nodes above the high water mark are released instead of being kept, and
+ * {@link #trim()} releases every idle node above the initial capacity.
+ *
+ * @author davidrusu
+ */
+public class NodePool {
+    public static final int DEFAULT_INITIAL_CAPACITY = 32;
+    private static final int EXPANSION_FACTOR = 2;
+    private final int initialLeafCapacity, initialQuadCapacity;
+    private int highWaterMark;
+    private Leaf[] leafs;
+    private Quad[] quads;
+    private int numLeafs, numQuads;
+    private long hits, misses;
+
+    /**
+     * Creates a pool with the default initial capacity that keeps every recycled node.
+     */
+    public NodePool() {
+        this(DEFAULT_INITIAL_CAPACITY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param initialCapacity the number of {@link Leaf} nodes that are created up front, a
+     *                        quarter as many {@link Quad} nodes are created as well
+     * @param highWaterMark   the maximum number of idle nodes of each kind that are kept
+     */
+    public NodePool(int initialCapacity, int highWaterMark) {
+        assert initialCapacity >= 0;
+        assert highWaterMark >= initialCapacity;
+
+        initialLeafCapacity = initialCapacity;
+        initialQuadCapacity = initialCapacity / 4 + 1;
+        this.highWaterMark = highWaterMark;
+        leafs = new Leaf[Math.max(initialLeafCapacity, 1)];
+        quads = new Quad[initialQuadCapacity];
+        for (int i = 0; i < initialLeafCapacity; i++) {
+            leafs[i] = new Leaf();
+        }
+        for (int i = 0; i < initialQuadCapacity; i++) {
+            quads[i] = new Quad();
+        }
+        numLeafs = initialLeafCapacity;
+        numQuads = initialQuadCapacity;
+    }
+
+    /**
+     * @return a recycled {@link Leaf} or null if the pool has none
+     */
+    Leaf pollLeaf() {
+        if (numLeafs == 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        numLeafs--;
+        Leaf leaf = leafs[numLeafs];
+        leafs[numLeafs] = null;
+        return leaf;
+    }
+
+    /**
+     * @return a recycled {@link Quad} or null if the pool has none
+     */
+    Quad pollQuad() {
+        if (numQuads == 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        numQuads--;
+        Quad quad = quads[numQuads];
+        quads[numQuads] = null;
+        return quad;
+    }
+
+    void recycle(Leaf leaf) {
+        if (numLeafs >= highWaterMark) {
+            return;
+        }
+        if (numLeafs == leafs.length) {
+            Leaf[] temp = new Leaf[numLeafs * EXPANSION_FACTOR];
+            System.arraycopy(leafs, 0, temp, 0, numLeafs);
+            leafs = temp;
+        }
+        leafs[numLeafs] = leaf;
+        numLeafs++;
+    }
+
+    void recycle(Quad quad) {
+        if (numQuads >= highWaterMark) {
+            return;
+        }
+        if (numQuads == quads.length) {
+            Quad[] temp = new Quad[numQuads * EXPANSION_FACTOR];
+            System.arraycopy(quads, 0, temp, 0, numQuads);
+            quads = temp;
+        }
+        quads[numQuads] = quad;
+        numQuads++;
+    }
+
+    /**
+     * Releases the idle nodes that are above the initial capacity.
+     */
+    public void trim() {
+        if (numLeafs > initialLeafCapacity) {
+            Leaf[] temp = new Leaf[Math.max(initialLeafCapacity, 1)];
+            System.arraycopy(leafs, 0, temp, 0, initialLeafCapacity);
+            leafs = temp;
+            numLeafs = initialLeafCapacity;
+        }
+        if (numQuads > initialQuadCapacity) {
+            Quad[] temp = new Quad[initialQuadCapacity];
+            System.arraycopy(quads, 0, temp, 0, initialQuadCapacity);
+            quads = temp;
+            numQuads = initialQuadCapacity;
+        }
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Sets the maximum number of idle nodes of each kind that are kept, nodes that are recycled
+     * while the pool is at the high water mark are left to the garbage collector.
+     *
+     * @param highWaterMark the maximum number of idle nodes of each kind
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the number of nodes that were taken from the pool
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of nodes that had to be created because the pool was empty
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the number of idle nodes currently in the pool
+     */
+    public int getSize() {
+        return numLeafs + numQuads;
+    }
+
+    public int getLeafCount() {
+        return numLeafs;
+    }
+
+    public int getQuadCount() {
+        return numQuads;
+    }
+}
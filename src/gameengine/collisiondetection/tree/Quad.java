@@ -1,7 +1,9 @@
 package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.CastResult;
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.QueryResult;
 import gameengine.collisiondetection.World;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.entities.Entity;
@@ -18,23 +20,32 @@ import java.awt.geom.Rectangle2D;
  * @author davidrusu
  */
 public class Quad extends Tree implements Parent {
-    private static final int INITIAL_NUM_QUADS = Leaf.INITIAL_NUM_LEAFS / 4 + 1;
-    private static final int EXPANSION_FACTOR = 2;
-    private static Quad[] recycledQuads = new Quad[INITIAL_NUM_QUADS];
-    private static int numRecycledQuads = INITIAL_NUM_QUADS;
-
-    static {
-        for (int i = 0; i < INITIAL_NUM_QUADS; i++) {
-            recycledQuads[i] = new Quad();
-        }
-    }
-
+    /**
+     * The two children of each pair that {@link #betweenCollisions} keeps the collisions of, the
+     * children are numbered top left, top right, bottom left and bottom right.
+     */
+    private static final int[] FIRST_CHILDREN = {0, 0, 0, 1, 1, 2};
+    private static final int[] SECOND_CHILDREN = {1, 2, 3, 2, 3, 3};
     private Tree topLeft = null;
     private Tree topRight = null;
     private Tree bottomLeft = null;
     private Tree bottomRight = null;
+    /**
+     * In loose mode the collisions kept by this quad are split into the pairs with an entity at
+     * this level and the pairs between each two children, the collision of the node is the
+     * earliest of them. When an entity is updated only the groups whose earliest collision
+     * involved it have to be calculated again.
+     */
+    private final Collision levelCollision = new Collision();
+    private final Collision[] betweenCollisions = new Collision[FIRST_CHILDREN.length];
+
+    {
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            betweenCollisions[i] = new Collision();
+        }
+    }
 
-    private Quad() {
+    Quad() {
         super();
     }
 
@@ -51,12 +62,10 @@ public class Quad extends Tree implements Parent {
 
     public static Quad createInstance(World world, Parent parent, double centerX, double centerY,
                                       double halfLength) {
-        if (numRecycledQuads == 0) {
+        Quad quad = world.getNodePool().pollQuad();
+        if (quad == null) {
             return new Quad(world, parent, centerX, centerY, halfLength);
         }
-        numRecycledQuads--;
-        Quad quad = recycledQuads[numRecycledQuads];
-
         quad.init(world, parent, centerX, centerY, halfLength);
         quad.initQuads(world);
         return quad;
@@ -65,12 +74,11 @@ public class Quad extends Tree implements Parent {
     public static Quad createInstance(World world, Parent parent, double centerX, double centerY,
                                       double halfLength, Tree topLeft, Tree topRight, Tree
                                               bottomLeft, Tree bottomRight) {
-        if (numRecycledQuads == 0) {
+        Quad quad = world.getNodePool().pollQuad();
+        if (quad == null) {
             return new Quad(world, parent, centerX, centerY, halfLength, topLeft, topRight,
                     bottomLeft, bottomRight);
         }
-        numRecycledQuads--;
-        Quad quad = recycledQuads[numRecycledQuads];
         quad.init(world, parent, centerX, centerY, halfLength);
         quad.initQuads(topLeft, topRight, bottomLeft, bottomRight);
         return quad;
@@ -87,6 +95,8 @@ public class Quad extends Tree implements Parent {
         bottomRight.parent = this;
         entityCount = topLeft.entityCount + topRight.entityCount + bottomLeft.entityCount +
                 bottomRight.entityCount;
+        layerMask = topLeft.layerMask | topRight.layerMask | bottomLeft.layerMask | bottomRight
+                .layerMask;
     }
 
     private void initQuads(World world) {
@@ -113,7 +123,10 @@ public class Quad extends Tree implements Parent {
         int index = 0;
         while (index < entityListPos) {
             Entity entity = entities[index];
-            entity.calculateBoundingBox(time);
+            if (!entity.isAsleep()) {
+                // sleeping entities don't move so their bounding boxes are still correct
+                entity.calculateBoundingBox(time);
+            }
 
             if (!isContainedInTree(entity)) {
                 assert isEntityCountCorrect();
@@ -121,6 +134,9 @@ public class Quad extends Tree implements Parent {
                 preRelocateRemove(index);
                 parent.relocate(entity);
 
+                assert isEntityCountCorrect();
+            } else if (loose) {
+                index = ensureLooselyContained(index, entity);
                 assert isEntityCountCorrect();
             } else if (entity.getBBMinX() > getCenterX()) {
                 assert isEntityCountCorrect();
@@ -208,17 +224,7 @@ public class Quad extends Tree implements Parent {
 
     @Override
     public void initCalcCollision(double timeToCheck) {
-        assert node.getCollision().getCollisionTime() == Shape.NO_COLLISION;
-        assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
-        timeInTree = 0;
-
-        for (int i = 0; i < entityListPos; i++) {
-            Entity a = entities[i];
-            for (int j = i + 1; j < entityListPos; j++) {
-                collideShapes(node.getCollision(), timeToCheck, a, entities[j]);
-            }
-            initCheckCollisionInSubTrees(node.getCollision(), timeToCheck, a);
-        }
+        initCalcCollisionAtLevel(timeToCheck, world.getTempCollision());
         world.getCollisionList().collisionUpdated(node);
 
         topLeft.initCalcCollision(timeToCheck);
@@ -230,12 +236,23 @@ public class Quad extends Tree implements Parent {
     }
 
     @Override
-    public void initCheckCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+    public void initCalcCollisionUnsorted(double timeToCheck, Collision temp) {
+        initCalcCollisionAtLevel(timeToCheck, temp);
+
+        topLeft.initCalcCollisionUnsorted(timeToCheck, temp);
+        topRight.initCalcCollisionUnsorted(timeToCheck, temp);
+        bottomLeft.initCalcCollisionUnsorted(timeToCheck, temp);
+        bottomRight.initCalcCollisionUnsorted(timeToCheck, temp);
+    }
+
+    @Override
+    public void initCheckCollisionWithEntity(Collision result, Collision temp, double timeToCheck,
+                                             Entity entity) {
         timeInTree = 0;
         for (int i = 0; i < entityListPos; i++) {
-            collideShapes(result, timeToCheck, entity, entities[i]);
+            collideShapes(result, temp, timeToCheck, entity, entities[i]);
         }
-        initCheckCollisionInSubTrees(result, timeToCheck, entity);
+        initCheckCollisionInSubTrees(result, temp, timeToCheck, entity);
     }
 
     @Override
@@ -249,10 +266,21 @@ public class Quad extends Tree implements Parent {
 
     @Override
     public void childEntityUpdated(double timeToCheck, Entity entity) {
-        Collision collision = node.getCollision();
         updateEntityPositions(entity.getContainingTree().timeInTree);
-        for (int i = 0; i < entityListPos; i++) {
-            collideShapes(collision, timeToCheck, entity, entities[i]);
+        if (loose) {
+            // this tree holds the collisions between entities in different children, which
+            // are not cleared on the way up to the tree the entity was added to
+            recalcCollisionsInvolving(timeToCheck, timeInTree, entity);
+            for (int i = 0; i < entityListPos; i++) {
+                collideShapes(levelCollision, timeToCheck, entity, entities[i]);
+            }
+            checkCollisionWithSiblingsOf(timeToCheck, entity, getChildContaining(entity));
+            updateNodeCollision();
+        } else {
+            Collision collision = node.getCollision();
+            for (int i = 0; i < entityListPos; i++) {
+                collideShapes(collision, timeToCheck, entity, entities[i]);
+            }
         }
         world.getCollisionList().collisionUpdated(node);
         parent.childEntityUpdated(timeToCheck, entity);
@@ -264,7 +292,9 @@ public class Quad extends Tree implements Parent {
                 "" + "is called";
         entityCount--;
         Collision collision = node.getCollision();
-        if (entity == collision.getA() || entity == collision.getB()) {
+        if (loose) {
+            recalcCollisionsInvolving(timeToCheck, entity.getContainingTree().timeInTree, entity);
+        } else if (entity == collision.getA() || entity == collision.getB()) {
             collision.setNoCollision();
             updateEntityPositions(entity.getContainingTree().timeInTree);
             calcCollisionsAtLevel(timeToCheck);
@@ -273,15 +303,21 @@ public class Quad extends Tree implements Parent {
             addAndCheck(timeToCheck, entity);
             parent.childEntityUpdated(timeToCheck, entity);
         } else {
+            world.getRelocationStats().eventRelocation();
             parent.relocateAndCheck(timeToCheck, entity);
         }
     }
 
     @Override
     public void addAndCheck(double timeToCheck, Entity entity) {
-        checkCollisionWithEntity(node.getCollision(), timeToCheck, entity);
+        Collision collision = loose ? levelCollision : node.getCollision();
+        checkCollisionWithEntity(collision, timeToCheck, entity);
+        collideWithStatics(collision, world.getTempCollision(), timeToCheck, entity);
         addEntityToList(entity);
         entityCount++;
+        if (loose) {
+            updateNodeCollision();
+        }
         world.getCollisionList().collisionUpdated(node);
     }
 
@@ -294,7 +330,9 @@ public class Quad extends Tree implements Parent {
 
         // entityCount has already been decremented by the removeFromWorld method
         Collision collision = node.getCollision();
-        if (collision.getA() == entity || collision.getB() == entity) {
+        if (loose) {
+            recalcCollisionsInvolving(timeToCheck, currentTime, entity);
+        } else if (collision.getA() == entity || collision.getB() == entity) {
             updateEntityPositions(currentTime);
             collision.setNoCollision();
             calcCollisionsAtLevel(timeToCheck);
@@ -317,13 +355,7 @@ public class Quad extends Tree implements Parent {
         topRight.recycle();
         bottomLeft.recycle();
         bottomRight.recycle();
-        if (numRecycledQuads == recycledQuads.length) {
-            Quad[] temp = new Quad[numRecycledQuads * EXPANSION_FACTOR];
-            System.arraycopy(recycledQuads, 0, temp, 0, numRecycledQuads);
-            recycledQuads = temp;
-        }
-        recycledQuads[numRecycledQuads] = this;
-        numRecycledQuads++;
+        pool.recycle(this);
     }
 
     @Override
@@ -331,19 +363,19 @@ public class Quad extends Tree implements Parent {
         for (int i = 0; i < entityListPos; i++) {
             entities[i].draw(renderer);
         }
-        if (minX < topLeft.getMaxX()) {
-            if (minY < topLeft.getMaxY()) {
+        if (minX < topLeft.getLooseMaxX()) {
+            if (minY < topLeft.getLooseMaxY()) {
                 topLeft.draw(minX, maxX, minY, maxY, renderer);
             }
-            if (maxY > bottomLeft.getMinY()) {
+            if (maxY > bottomLeft.getLooseMinY()) {
                 bottomLeft.draw(minX, maxX, minY, maxY, renderer);
             }
         }
-        if (maxX > topRight.getMinX()) {
-            if (minY < topRight.getMaxY()) {
+        if (maxX > topRight.getLooseMinX()) {
+            if (minY < topRight.getLooseMaxY()) {
                 topRight.draw(minX, maxX, minY, maxY, renderer);
             }
-            if (maxY > bottomRight.getMinY()) {
+            if (maxY > bottomRight.getLooseMinY()) {
                 bottomRight.draw(minX, maxX, minY, maxY, renderer);
             }
         }
@@ -380,9 +412,91 @@ public class Quad extends Tree implements Parent {
         return count;
     }
 
+    @Override
+    int copyEntities(Entity[] dest, int offset) {
+        offset = super.copyEntities(dest, offset);
+        offset = topLeft.copyEntities(dest, offset);
+        offset = topRight.copyEntities(dest, offset);
+        offset = bottomLeft.copyEntities(dest, offset);
+        return bottomRight.copyEntities(dest, offset);
+    }
+
+    @Override
+    void queryRegion(double time, double minX, double minY, double maxX, double maxY, int
+            typeMask, QueryResult result) {
+        super.queryRegion(time, minX, minY, maxX, maxY, typeMask, result);
+        queryRegion(topLeft, time, minX, minY, maxX, maxY, typeMask, result);
+        queryRegion(topRight, time, minX, minY, maxX, maxY, typeMask, result);
+        queryRegion(bottomLeft, time, minX, minY, maxX, maxY, typeMask, result);
+        queryRegion(bottomRight, time, minX, minY, maxX, maxY, typeMask, result);
+    }
+
+    @Override
+    void queryNearest(double time, double x, double y, int typeMask, QueryResult result) {
+        super.queryNearest(time, x, y, typeMask, result);
+        queryNearest(topLeft, time, x, y, typeMask, result);
+        queryNearest(topRight, time, x, y, typeMask, result);
+        queryNearest(bottomLeft, time, x, y, typeMask, result);
+        queryNearest(bottomRight, time, x, y, typeMask, result);
+    }
+
+    /**
+     * Visits the children front to back along the cast so that the hits in the nearer children
+     * rule out the farther ones.
+     */
+    @Override
+    void cast(double time, CastResult result) {
+        super.cast(time, result);
+        boolean fromRight = result.getVelocityX() < 0;
+        boolean fromBottom = result.getVelocityY() < 0;
+        cast(getChild(fromRight, fromBottom), time, result);
+        cast(getChild(!fromRight, fromBottom), time, result);
+        cast(getChild(fromRight, !fromBottom), time, result);
+        cast(getChild(!fromRight, !fromBottom), time, result);
+    }
+
+    private Tree getChild(boolean right, boolean bottom) {
+        if (bottom) {
+            return right ? bottomRight : bottomLeft;
+        }
+        return right ? topRight : topLeft;
+    }
+
+    private static void cast(Tree child, double time, CastResult result) {
+        if (child.entityCount > 0 && child.getEntryTime(result) != Shape.NO_COLLISION) {
+            child.cast(time, result);
+        }
+    }
+
+    private static void queryRegion(Tree child, double time, double minX, double minY, double
+            maxX, double maxY, int typeMask, QueryResult result) {
+        if (child.entityCount > 0 && child.isOverlappingRegion(minX, minY, maxX, maxY)) {
+            child.queryRegion(time, minX, minY, maxX, maxY, typeMask, result);
+        }
+    }
+
+    private static void queryNearest(Tree child, double time, double x, double y, int typeMask,
+                                     QueryResult result) {
+        if (child.entityCount > 0 && child.getDistanceTo(x, y) < result.getMaxDistance()) {
+            child.queryNearest(time, x, y, typeMask, result);
+        }
+    }
+
+    @Override
+    public long updateLayerMasks() {
+        layerMask = super.updateLayerMasks() | topLeft.updateLayerMasks() | topRight
+                .updateLayerMasks() | bottomLeft.updateLayerMasks() | bottomRight
+                .updateLayerMasks();
+        return layerMask;
+    }
+
     @Override
     public void clear() {
         super.clear();
+        levelCollision.setNoCollision();
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            betweenCollisions[i].setNoCollision();
+        }
         topLeft.clear();
         topRight.clear();
         bottomLeft.clear();
@@ -412,27 +526,172 @@ public class Quad extends Tree implements Parent {
         g.drawString(string, (int) (getCenterX() - rect.getWidth() / 2), (int) (getCenterY()));
     }
 
+    /**
+     * Calculates the collisions of the entities at this level, against each other and against
+     * the entities in the sub trees, without touching the sub trees' own collisions.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param temp        scratch {@link Collision} used by the narrow phase
+     */
+    void initCalcCollisionAtLevel(double timeToCheck, Collision temp) {
+        assert node.getCollision().getCollisionTime() == Shape.NO_COLLISION;
+        assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
+        timeInTree = 0;
+
+        Collision collision = loose ? levelCollision : node.getCollision();
+        boolean batched = gatherLevel();
+        for (int i = 0; i < entityListPos; i++) {
+            Entity a = entities[i];
+            collideWithLevel(collision, temp, timeToCheck, i, batched);
+            initCheckCollisionInSubTrees(collision, temp, timeToCheck, a);
+            collideWithStatics(collision, temp, timeToCheck, a);
+        }
+        if (loose) {
+            initCalcCollisionsBetweenChildren(timeToCheck, temp);
+            updateNodeCollision();
+        }
+    }
+
+    /**
+     * @return the only child with entities or null if this quad has entities at its own level
+     * or in more than one child
+     */
+    Tree getOnlyOccupiedChild() {
+        if (entityListPos > 0) {
+            return null;
+        }
+        Tree occupied = null;
+        int numOccupied = 0;
+        if (topLeft.entityCount > 0) {
+            occupied = topLeft;
+            numOccupied++;
+        }
+        if (topRight.entityCount > 0) {
+            occupied = topRight;
+            numOccupied++;
+        }
+        if (bottomLeft.entityCount > 0) {
+            occupied = bottomLeft;
+            numOccupied++;
+        }
+        if (bottomRight.entityCount > 0) {
+            occupied = bottomRight;
+            numOccupied++;
+        }
+        return numOccupied == 1 ? occupied : null;
+    }
+
+    /**
+     * Replaces the child with an empty {@link Leaf} so this quad can be cleared and recycled
+     * without the child.
+     *
+     * @param child the child to detach, its parent is set to null
+     */
+    void detachChild(Tree child) {
+        Leaf leaf = Leaf.createInstance(world, this, child.centerX, child.centerY, child
+                .halfLength);
+        if (child == topLeft) {
+            topLeft = leaf;
+        } else if (child == topRight) {
+            topRight = leaf;
+        } else if (child == bottomLeft) {
+            bottomLeft = leaf;
+        } else {
+            assert child == bottomRight;
+            bottomRight = leaf;
+        }
+        child.parent = null;
+    }
+
+    Tree getTopLeft() {
+        return topLeft;
+    }
+
+    Tree getTopRight() {
+        return topRight;
+    }
+
+    Tree getBottomLeft() {
+        return bottomLeft;
+    }
+
+    Tree getBottomRight() {
+        return bottomRight;
+    }
+
     private void calcCollisionsAtLevel(double timeToCheck) {
+        calcCollisionsAtLevel(node.getCollision(), timeToCheck);
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    private void calcCollisionsAtLevel(Collision result, double timeToCheck) {
+        boolean batched = gatherLevel();
         for (int i = 0; i < entityListPos; i++) {
             Entity a = entities[i];
-            for (int j = i + 1; j < entityListPos; j++) {
-                collideShapes(node.getCollision(), timeToCheck, a, entities[j]);
+            collideWithLevel(result, world.getTempCollision(), timeToCheck, i, batched);
+            checkCollisionInSubTrees(result, timeToCheck, a);
+            collideWithStatics(result, world.getTempCollision(), timeToCheck, a);
+        }
+    }
+
+    /**
+     * Calculates again only the groups of collisions whose earliest collision involves the
+     * entity, used in loose mode in place of calculating every collision of this quad again.
+     *
+     * @param currentTime the time to move the entities to if a group is calculated again
+     */
+    private void recalcCollisionsInvolving(double timeToCheck, double currentTime, Entity
+            entity) {
+        boolean recalculated = false;
+        if (involves(levelCollision, entity)) {
+            updateEntityPositions(currentTime);
+            levelCollision.setNoCollision();
+            calcCollisionsAtLevel(levelCollision, timeToCheck);
+            recalculated = true;
+        }
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            Collision collision = betweenCollisions[i];
+            if (involves(collision, entity)) {
+                updateEntityPositions(currentTime);
+                collision.setNoCollision();
+                getChild(FIRST_CHILDREN[i]).checkSubTreeAgainst(collision, timeToCheck,
+                        timeInTree, getChild(SECOND_CHILDREN[i]));
+                recalculated = true;
             }
-            checkCollisionInSubTrees(node.getCollision(), timeToCheck, a);
         }
-        world.getCollisionList().collisionUpdated(node);
+        if (recalculated) {
+            updateNodeCollision();
+            world.getCollisionList().collisionUpdated(node);
+        }
+    }
+
+    private static boolean involves(Collision collision, Entity entity) {
+        return entity == collision.getA() || entity == collision.getB();
+    }
+
+    /**
+     * Sets the collision of the node to the earliest of the loose mode collisions.
+     */
+    private void updateNodeCollision() {
+        Collision earliest = levelCollision;
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            if (betweenCollisions[i].getCollisionTime() < earliest.getCollisionTime()) {
+                earliest = betweenCollisions[i];
+            }
+        }
+        node.getCollision().set(earliest);
     }
 
     private void checkHalfTree(Collision result, double timeToCheck, Entity entity, Tree top,
                                Tree bottom) {
         if (Math.abs(top.getCenterX() - entity.getBBCenterX()) < entity.getBBHalfWidth() + top
-                .getHalfLength()) {
-            if (Math.abs(top.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight() +
-                    top.getHalfLength()) {
+                .getLooseHalfLength()) {
+            if (top.mayCollideWith(entity) && Math.abs(top.getCenterY() - entity.getBBCenterY())
+                    < entity.getBBHalfHeight() + top.getLooseHalfLength()) {
                 top.checkCollisionWithEntity(result, timeToCheck, entity);
             }
-            if (Math.abs(bottom.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight()
-                    + bottom.getHalfLength()) {
+            if (bottom.mayCollideWith(entity) && Math.abs(bottom.getCenterY() - entity
+                    .getBBCenterY()) < entity.getBBHalfHeight() + bottom.getLooseHalfLength()) {
                 bottom.checkCollisionWithEntity(result, timeToCheck, entity);
             }
         }
@@ -443,26 +702,150 @@ public class Quad extends Tree implements Parent {
         checkHalfTree(result, timeToCheck, entity, topRight, bottomRight);
     }
 
-    private void initCheckCollisionInSubTrees(Collision result, double timeToCheck, Entity entity) {
-        initCheckHalfTree(result, timeToCheck, entity, topLeft, bottomLeft);
-        initCheckHalfTree(result, timeToCheck, entity, topRight, bottomRight);
+    private void initCheckCollisionInSubTrees(Collision result, Collision temp, double
+            timeToCheck, Entity entity) {
+        initCheckHalfTree(result, temp, timeToCheck, entity, topLeft, bottomLeft);
+        initCheckHalfTree(result, temp, timeToCheck, entity, topRight, bottomRight);
     }
 
-    private void initCheckHalfTree(Collision result, double timeToCheck, Entity entity, Tree top,
-                                   Tree bottom) {
+    private void initCheckHalfTree(Collision result, Collision temp, double timeToCheck, Entity
+            entity, Tree top, Tree bottom) {
         if (Math.abs(top.getCenterX() - entity.getBBCenterX()) < entity.getBBHalfWidth() + top
-                .getHalfLength()) {
-            if (Math.abs(top.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight() +
-                    top.getHalfLength()) {
-                top.initCheckCollisionWithEntity(result, timeToCheck, entity);
+                .getLooseHalfLength()) {
+            if (top.mayCollideWith(entity) && Math.abs(top.getCenterY() - entity.getBBCenterY())
+                    < entity.getBBHalfHeight() + top.getLooseHalfLength()) {
+                top.initCheckCollisionWithEntity(result, temp, timeToCheck, entity);
             }
-            if (Math.abs(bottom.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight()
-                    + bottom.getHalfLength()) {
-                bottom.initCheckCollisionWithEntity(result, timeToCheck, entity);
+            if (bottom.mayCollideWith(entity) && Math.abs(bottom.getCenterY() - entity
+                    .getBBCenterY()) < entity.getBBHalfHeight() + bottom.getLooseHalfLength()) {
+                bottom.initCheckCollisionWithEntity(result, temp, timeToCheck, entity);
             }
         }
     }
 
+    /**
+     * The loose bounds of the children overlap, so an entity in one child can collide with an
+     * entity in a sibling. Those pairs have no other common ancestor, so this node keeps their
+     * collisions.
+     */
+    private void initCalcCollisionsBetweenChildren(double timeToCheck, Collision temp) {
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            getChild(FIRST_CHILDREN[i]).initCheckSubTreeAgainst(betweenCollisions[i], temp,
+                    timeToCheck, getChild(SECOND_CHILDREN[i]));
+        }
+    }
+
+    /**
+     * Checks the entity against the children it overlaps other than the one it is in, each
+     * into the collision of that pair of children.
+     */
+    private void checkCollisionWithSiblingsOf(double timeToCheck, Entity entity, Tree child) {
+        int childIndex = getChildIndex(child);
+        for (int i = 0; i < betweenCollisions.length; i++) {
+            if (FIRST_CHILDREN[i] == childIndex) {
+                checkTree(betweenCollisions[i], timeToCheck, entity, getChild(SECOND_CHILDREN
+                        [i]));
+            } else if (SECOND_CHILDREN[i] == childIndex) {
+                checkTree(betweenCollisions[i], timeToCheck, entity, getChild(FIRST_CHILDREN
+                        [i]));
+            }
+        }
+    }
+
+    private Tree getChild(int index) {
+        switch (index) {
+            case 0:
+                return topLeft;
+            case 1:
+                return topRight;
+            case 2:
+                return bottomLeft;
+            default:
+                return bottomRight;
+        }
+    }
+
+    private int getChildIndex(Tree child) {
+        if (child == topLeft) {
+            return 0;
+        } else if (child == topRight) {
+            return 1;
+        } else if (child == bottomLeft) {
+            return 2;
+        }
+        assert child == bottomRight;
+        return 3;
+    }
+
+    private void checkTree(Collision result, double timeToCheck, Entity entity, Tree tree) {
+        if (tree.mayCollideWith(entity) && tree.overlapsLooseBounds(entity)) {
+            tree.checkCollisionWithEntity(result, timeToCheck, entity);
+        }
+    }
+
+    /**
+     * @return the child of this tree that the entity is stored in
+     */
+    private Tree getChildContaining(Entity entity) {
+        Tree tree = entity.getContainingTree();
+        while (tree.parent != this) {
+            tree = (Tree) tree.parent;
+        }
+        return tree;
+    }
+
+    @Override
+    void initCheckSubTreeAgainst(Collision result, Collision temp, double timeToCheck, Tree
+            other) {
+        if (layerMask == 0 || !overlapsLooseBounds(other)) {
+            return;
+        }
+        super.initCheckSubTreeAgainst(result, temp, timeToCheck, other);
+        topLeft.initCheckSubTreeAgainst(result, temp, timeToCheck, other);
+        topRight.initCheckSubTreeAgainst(result, temp, timeToCheck, other);
+        bottomLeft.initCheckSubTreeAgainst(result, temp, timeToCheck, other);
+        bottomRight.initCheckSubTreeAgainst(result, temp, timeToCheck, other);
+    }
+
+    @Override
+    void checkSubTreeAgainst(Collision result, double timeToCheck, double currentTime, Tree
+            other) {
+        if (layerMask == 0 || !overlapsLooseBounds(other)) {
+            return;
+        }
+        super.checkSubTreeAgainst(result, timeToCheck, currentTime, other);
+        topLeft.checkSubTreeAgainst(result, timeToCheck, currentTime, other);
+        topRight.checkSubTreeAgainst(result, timeToCheck, currentTime, other);
+        bottomLeft.checkSubTreeAgainst(result, timeToCheck, currentTime, other);
+        bottomRight.checkSubTreeAgainst(result, timeToCheck, currentTime, other);
+    }
+
+    /**
+     * Moves the entity into the child whose square contains the center of its bounding box if
+     * the child's loose bounds contain the whole bounding box.
+     *
+     * @return the index of the next entity to check
+     */
+    private int ensureLooselyContained(int index, Entity entity) {
+        Tree quadrant = getQuadrant(entity);
+        if (quadrant.isContainedInTree(entity)) {
+            removeEntityFromList(index);
+            quadrant.addEntity(entity);
+            return index;
+        }
+        return index + 1;
+    }
+
+    /**
+     * @return the child whose square contains the center of the entity's bounding box
+     */
+    private Tree getQuadrant(Entity entity) {
+        if (entity.getBBCenterX() < getCenterX()) {
+            return entity.getBBCenterY() < getCenterY() ? topLeft : bottomLeft;
+        }
+        return entity.getBBCenterY() < getCenterY() ? topRight : bottomRight;
+    }
+
     private int ensureVerticallyContained(int index, Entity entity, double minY, double maxY,
                                           Tree bottom, Tree top) {
         if (minY > getCenterY()) {
@@ -481,6 +864,14 @@ public class Quad extends Tree implements Parent {
         addEntityToList(entity);
     }
 
+    /**
+     * Adds the entity to this node without trying to insert it into the children
+     */
+    void addEntityToLevel(Entity entity) {
+        addToThis(entity);
+        entityCount++;
+    }
+
     private void insertVertically(Entity entity, Tree top, Tree bottom) {
         if (entity.getBBMaxY() < getCenterY()) {
             top.addEntity(entity);
@@ -495,7 +886,14 @@ public class Quad extends Tree implements Parent {
         assert checkEntities();
         assert entity != null;
 
-        if (entity.getBBMaxX() < getCenterX()) {
+        if (loose) {
+            Tree quadrant = getQuadrant(entity);
+            if (quadrant.isContainedInTree(entity)) {
+                quadrant.addEntity(entity);
+            } else {
+                addToThis(entity);
+            }
+        } else if (entity.getBBMaxX() < getCenterX()) {
             insertVertically(entity, topLeft, bottomLeft);
         } else if (entity.getBBMinX() > getCenterX()) {
             insertVertically(entity, topRight, bottomRight);
@@ -0,0 +1,40 @@
+package gameengine.collisiondetection.tree;
+
+/**
+ * Counts how often entities leave the tree node they are stored in, used to measure the effect
+ * of the world's looseness on the spatial tree.
+ *
+ * @author davidrusu
+ */
+public class RelocationStats {
+    private long containmentRelocations, eventRelocations;
+
+    void containmentRelocation() {
+        containmentRelocations++;
+    }
+
+    void eventRelocation() {
+        eventRelocations++;
+    }
+
+    /**
+     * @return the number of entities that had to be moved up the tree because their bounding
+     * box left their node while the tree was being prepared for an update
+     */
+    public long getContainmentRelocations() {
+        return containmentRelocations;
+    }
+
+    /**
+     * @return the number of entities that had to be moved up the tree after a collision changed
+     * their bounding box
+     */
+    public long getEventRelocations() {
+        return eventRelocations;
+    }
+
+    public void reset() {
+        containmentRelocations = 0;
+        eventRelocations = 0;
+    }
+}
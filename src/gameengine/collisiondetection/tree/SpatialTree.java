@@ -1,25 +1,51 @@
 package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.CastResult;
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.OutOfBoundsListener;
+import gameengine.collisiondetection.OutOfBoundsPolicy;
+import gameengine.collisiondetection.PairCache;
+import gameengine.collisiondetection.QueryResult;
 import gameengine.collisiondetection.World;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.context.Context;
 import gameengine.entities.Entity;
-import gameengine.entities.RegionSensor;
+import gameengine.entities.SleepManager;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 /**
- * The root of the spatial tree, used to access the spatial tree.
+ * The root of the spatial tree, used to access the spatial tree. This is the default
+ * {@link Broadphase} of a {@link World}.
+ *
+ * The root grows as entities leave it, up to the world's maximum root size, and contracts back
+ * to one of its children once all of the entities fit in that child again. Past the maximum root
+ * size entities are handled by the world's {@link OutOfBoundsPolicy}.
  *
  * @author davidrusu
  */
-public class SpatialTree implements Parent {
+public class SpatialTree implements Parent, Broadphase {
+    private static final double CLAMP_MARGIN = 1e-9;
     private Tree tree;
     private double initCenterX, initCenterY, initHalfLength;
     private World world;
+    /**
+     * The time that the bounding boxes of the entities being relocated were calculated for
+     */
+    private double relocationTime = 0;
+    /**
+     * The time of the collision being handled, queries move the entities they look at to this
+     * time
+     */
+    private double queryTime = 0;
+    private UnorderedArrayList<Entity> outOfBoundsEntities = new UnorderedArrayList<>();
+    private Entity[] scratchEntities = new Entity[0];
 
     public SpatialTree(World world, double centerX, double centerY, double halfLength) {
         this.world = world;
@@ -29,9 +55,12 @@ public class SpatialTree implements Parent {
         initHalfLength = halfLength;
     }
 
+    @Override
     public void addEntity(Entity entity) {
         // TODO enforce adding an entity only once
+        entity.setBroadphase(this);
         entity.calculateBoundingBox(0);
+        relocationTime = 0;
         if (isNotContainedInTree(entity)) {
             relocate(entity);
         } else {
@@ -39,6 +68,90 @@ public class SpatialTree implements Parent {
         }
     }
 
+    /**
+     * Adds all of the entities at once. If the tree is empty the final tree is built from the
+     * bottom up, growing the root to contain all of the entities and splitting every node that
+     * would be split by later updates, so the first update starts with a complete tree.
+     *
+     * @param entities the entities to add
+     */
+    @Override
+    public void addEntities(Entity[] entities) {
+        if (tree.getEntityCount() > 0 || entities.length < Tree.GROW_THRESH) {
+            for (int i = 0; i < entities.length; i++) {
+                addEntity(entities[i]);
+            }
+            return;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < entities.length; i++) {
+            Entity entity = entities[i];
+            entity.setBroadphase(this);
+            entity.calculateBoundingBox(0);
+            minX = Math.min(minX, entity.getBBMinX());
+            minY = Math.min(minY, entity.getBBMinY());
+            maxX = Math.max(maxX, entity.getBBMaxX());
+            maxY = Math.max(maxY, entity.getBBMaxY());
+        }
+
+        // grows the root the same way relocate would so the nodes line up with the original tree,
+        // and stops at the same maximum size
+        double centerX = tree.getCenterX(), centerY = tree.getCenterY();
+        double halfLength = tree.getHalfLength();
+        double looseness = world.getLooseness();
+        double boundsCenterX = (minX + maxX) / 2, boundsCenterY = (minY + maxY) / 2;
+        while ((minX <= centerX - halfLength * looseness || maxX >= centerX + halfLength *
+                looseness || minY <= centerY - halfLength * looseness || maxY >= centerY +
+                halfLength * looseness) && halfLength * 2 <= world.getMaxRootHalfLength()) {
+            centerX += boundsCenterX < centerX ? -halfLength : halfLength;
+            centerY += boundsCenterY < centerY ? -halfLength : halfLength;
+            halfLength *= 2;
+        }
+
+        // the entities that don't fit in the largest root are added one at a time afterwards, so
+        // they go through the out of bounds policy the same way as single adds
+        Entity[] contained = new Entity[entities.length];
+        int containedCount = 0;
+        for (int i = 0; i < entities.length; i++) {
+            if (isContained(entities[i], centerX, centerY, halfLength * looseness)) {
+                contained[containedCount] = entities[i];
+                containedCount++;
+            }
+        }
+
+        tree.clear();
+        tree.recycle();
+        tree = new TreeBuilder(world, Arrays.copyOf(contained, containedCount)).build(this,
+                centerX, centerY, halfLength);
+        for (int i = 0; i < entities.length; i++) {
+            if (!isContained(entities[i], centerX, centerY, halfLength * looseness)) {
+                addEntity(entities[i]);
+            }
+        }
+
+        assert tree.isEntityCountCorrect();
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        entity.getContainingTree().removeEntityFromWorld(entity);
+    }
+
+    @Override
+    public void update(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects, Context
+            context) {
+        updateMotions(elapsedTime, worldEffects);
+        ensureEntitiesAreContained(elapsedTime);
+        calcCollision(elapsedTime, context);
+        contract();
+        if (world.isRootRecentering()) {
+            tryRecenter();
+        }
+        notifyOutOfBoundsEntities();
+    }
+
+    @Override
     public void clear() {
         tree.clear();
         tree.recycle();
@@ -50,6 +163,7 @@ public class SpatialTree implements Parent {
     public void ensureEntitiesAreContained(double time) {
         assert tree.isEntityCountCorrect();
 
+        relocationTime = time;
         tree.ensureEntitiesAreContained(time);
 
         assert tree.isEntityCountCorrect();
@@ -65,9 +179,24 @@ public class SpatialTree implements Parent {
         assert list.areNodesSorted();
         assert tree.isEntityCountCorrect();
 
+        tree.updateLayerMasks();
         double currentTime;
         double timeLeft = elapsedTime;
-        tree.initCalcCollision(timeLeft);
+        if (world.isParallelCollisionInit()) {
+            // the pair cache can't be shared between the tasks
+            PairCache pairCache = world.getPairCache();
+            if (pairCache != null) {
+                pairCache.setSuspended(true);
+            }
+            ForkJoinPool.commonPool().invoke(new InitCalcCollisionTask(tree, timeLeft, 0, world
+                    .getParallelMaxDepth(), world.getParallelMinEntityCount()));
+            if (pairCache != null) {
+                pairCache.setSuspended(false);
+            }
+            list.heapify();
+        } else {
+            tree.initCalcCollision(timeLeft);
+        }
 
         assert tree.isEntityCountCorrect();
         assert list.areNodesSorted();
@@ -76,38 +205,42 @@ public class SpatialTree implements Parent {
         double timeToUpdate = collision.getCollisionTime();
         while (timeToUpdate <= timeLeft) {
             currentTime = collision.getCollisionTime();
+            queryTime = currentTime;
 
             Entity a = collision.getA();
             Entity b = collision.getB();
             assert a != null;
             assert b != null;
             assert a.getContainingTree() != null;
-            assert b.getContainingTree() != null;
+            // the static entity of a collision is always b, it isn't in the tree and stays out of
+            // it if it was removed from the static layer after the collision was found
+            boolean isStatic = b.getContainingTree() == null;
             a.getContainingTree().updateEntityPositions(currentTime);
-            b.getContainingTree().updateEntityPositions(currentTime);
+            if (!isStatic) {
+                b.getContainingTree().updateEntityPositions(currentTime);
+            }
 
             Tree aTree = a.getContainingTree();
             Tree bTree = b.getContainingTree();
-            boolean isRegion = false;
-            //region sensors could be configured to be aware of other region sensors so they need
-            //to be checked independently and possibly add each other to both
-            if (a instanceof RegionSensor) {
-                ((RegionSensor) a).addEntity(b);
-                isRegion = true;
-            }
-            if (b instanceof RegionSensor) {
-                ((RegionSensor) b).addEntity(a);
-                isRegion = true;
-            }
-            if (!isRegion) {
-                context.handleCollision(collision);
+            // a collision with a static entity that has since been removed is dropped and only
+            // the collisions of a are recalculated
+            if (!isStatic || b.isInWorld()) {
+                handleCollision(collision, context);
             }
 
 //            assert ensureNoCollisionAfterHandleCollision(collision);
             assert tree.isEntityCountCorrect();
 
             timeLeft -= timeToUpdate;
-            if (a.getContainingTree() != null) {
+            if (isStatic) {
+                if (a.getContainingTree() != null) {
+                    aTree.removeEntityFromList(a.getIndexInTree());
+                    a.calculateBoundingBox(timeLeft);
+                    aTree.entityUpdated(timeLeft, a);
+                } else {
+                    aTree.entityRemovedDuringCollision(timeLeft, a, currentTime);
+                }
+            } else if (a.getContainingTree() != null) {
                 aTree.removeEntityFromList(a.getIndexInTree());
                 a.calculateBoundingBox(timeLeft);
                 if (b.getContainingTree() != null) {
@@ -134,11 +267,20 @@ public class SpatialTree implements Parent {
             timeToUpdate = collision.getCollisionTime() - currentTime;
         }
         tree = tree.updateAllEntityPositionsAndResize(elapsedTime);
+        queryTime = 0;
         assert list.checkNodeCollision();
         assert list.doAllNodesHaveNoCollision(elapsedTime);
         assert tree.isEntityCountCorrect();
     }
 
+    private void handleCollision(Collision collision, Context context) {
+        SleepManager sleepManager = world.getSleepManager();
+        if (sleepManager != null) {
+            sleepManager.entitiesCollided(collision.getA(), collision.getB());
+        }
+        context.handleCollision(collision);
+    }
+
     private boolean ensureNoCollisionAfterHandleCollision(Collision collision) {
         Collision tempCollision = world.getTempCollision();
         tempCollision.set(collision);
@@ -174,7 +316,12 @@ public class SpatialTree implements Parent {
 
     @Override
     public void relocateAndCheck(double timeToCheck, Entity entity) {
+        relocationTime = timeToCheck;
         relocate(entity);
+        if (entity.getContainingTree() == null) {
+            // removed by the out of bounds policy
+            return;
+        }
         // TODO adding the entity in the relocate method and then removing it here
         assert tree == entity.getContainingTree();
         entity.getContainingTree().removeEntityFromList(entity.getIndexInTree());
@@ -183,6 +330,10 @@ public class SpatialTree implements Parent {
 
     @Override
     public void relocate(Entity entity) {
+        if (tree.getHalfLength() * 2 > world.getMaxRootHalfLength()) {
+            handleOutOfBounds(entity);
+            return;
+        }
         Shape shape = entity.getShape();
         double centerX = tree.getCenterX(), centerY = tree.getCenterY();
         Tree topLeft, topRight, bottomLeft, bottomRight;
@@ -219,6 +370,139 @@ public class SpatialTree implements Parent {
         tree.addEntity(entity);
     }
 
+    /**
+     * Handles an entity that is outside of the root when the root can't grow any larger, the
+     * entity is either put back into the root or removed from the world.
+     */
+    private void handleOutOfBounds(Entity entity) {
+        OutOfBoundsPolicy policy = world.getOutOfBoundsPolicy();
+        if (policy == OutOfBoundsPolicy.CLAMP && clamp(entity)) {
+            tree.addEntity(entity);
+            return;
+        }
+        entity.setContainingTree(null, -1);
+        entity.setBroadphase(null);
+        if (policy == OutOfBoundsPolicy.NOTIFY) {
+            outOfBoundsEntities.add(entity);
+        }
+    }
+
+    /**
+     * Moves the entity back inside the root and stops it from moving out of the root.
+     *
+     * @return false if the entity is too large to fit in the root
+     */
+    private boolean clamp(Entity entity) {
+        double bound = tree.getLooseHalfLength();
+        double margin = bound * CLAMP_MARGIN;
+        double offsetX = getClampOffset(entity.getBBMinX(), entity.getBBMaxX(), tree.getCenterX
+                () - bound + margin, tree.getCenterX() + bound - margin);
+        double offsetY = getClampOffset(entity.getBBMinY(), entity.getBBMaxY(), tree.getCenterY
+                () - bound + margin, tree.getCenterY() + bound - margin);
+        double dx = entity.getDX(), dy = entity.getDY();
+        if (offsetX > 0 && dx < 0 || offsetX < 0 && dx > 0) {
+            dx = 0;
+        }
+        if (offsetY > 0 && dy < 0 || offsetY < 0 && dy > 0) {
+            dy = 0;
+        }
+        entity.setPosition(entity.getX() + offsetX, entity.getY() + offsetY);
+        entity.setVelocity(dx, dy);
+        entity.calculateBoundingBox(relocationTime);
+        return !isNotContainedInTree(entity);
+    }
+
+    private static double getClampOffset(double min, double max, double lowerBound, double
+            upperBound) {
+        if (min < lowerBound) {
+            return lowerBound - min;
+        } else if (max > upperBound) {
+            return upperBound - max;
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the root with its only occupied child for as long as all of the entities fit in
+     * one child and the root is larger than its initial size.
+     */
+    private void contract() {
+        while (tree instanceof Quad && tree.getHalfLength() > initHalfLength) {
+            Quad quad = (Quad) tree;
+            Tree child = quad.getOnlyOccupiedChild();
+            if (child == null) {
+                return;
+            }
+            quad.detachChild(child);
+            quad.clear();
+            quad.recycle();
+            child.parent = this;
+            tree = child;
+        }
+        if (tree.getEntityCount() == 0 && tree.getHalfLength() > initHalfLength) {
+            tree.clear();
+            tree.recycle();
+            tree = Leaf.createInstance(world, this, initCenterX, initCenterY, initHalfLength);
+        }
+        assert tree.isEntityCountCorrect();
+    }
+
+    /**
+     * Rebuilds the tree around the centroid of the entities if that lets the root be at most
+     * half its current size, which happens when the entities have moved off to one side of the
+     * root but straddle the center of one of its children.
+     */
+    private void tryRecenter() {
+        int entityCount = tree.getEntityCount();
+        if (entityCount < Tree.GROW_THRESH || tree.getHalfLength() < initHalfLength * 2) {
+            return;
+        }
+        if (scratchEntities.length < entityCount) {
+            scratchEntities = new Entity[entityCount];
+        }
+        Entity[] entities = scratchEntities;
+        int count = tree.copyEntities(entities, 0);
+        assert count == entityCount;
+
+        double centroidX = 0, centroidY = 0;
+        for (int i = 0; i < count; i++) {
+            Entity entity = entities[i];
+            entity.calculateBoundingBox(0);
+            centroidX += entity.getBBCenterX();
+            centroidY += entity.getBBCenterY();
+        }
+        centroidX /= count;
+        centroidY /= count;
+        double reach = 0;
+        for (int i = 0; i < count; i++) {
+            Entity entity = entities[i];
+            reach = Math.max(reach, Math.max(Math.max(centroidX - entity.getBBMinX(), entity
+                    .getBBMaxX() - centroidX), Math.max(centroidY - entity.getBBMinY(), entity
+                    .getBBMaxY() - centroidY)));
+        }
+        double halfLength = Math.max(initHalfLength, reach / world.getLooseness() * (1 +
+                CLAMP_MARGIN));
+        if (halfLength <= tree.getHalfLength() / 2) {
+            tree.clear();
+            tree.recycle();
+            tree = new TreeBuilder(world, Arrays.copyOf(entities, count)).build(this, centroidX,
+                    centroidY, halfLength);
+            assert tree.isEntityCountCorrect();
+        }
+        Arrays.fill(entities, 0, count, null);
+    }
+
+    private void notifyOutOfBoundsEntities() {
+        OutOfBoundsListener listener = world.getOutOfBoundsListener();
+        for (int i = 0; i < outOfBoundsEntities.size(); i++) {
+            if (listener != null) {
+                listener.entityOutOfBounds(outOfBoundsEntities.get(i));
+            }
+        }
+        outOfBoundsEntities.clear();
+    }
+
+    @Override
     public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
         tree.draw(minX, maxX, minY, maxY, renderer);
     }
@@ -227,6 +511,11 @@ public class SpatialTree implements Parent {
         tree.drawTree(renderer, color);
     }
 
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        drawTree(renderer, color);
+    }
+
     private void grow(double centerX, double centerY, double halfLength, Tree topLeft, Tree
             topRight, Tree bottomLeft, Tree bottomRight) {
         double quartLength = halfLength / 2;
@@ -247,11 +536,41 @@ public class SpatialTree implements Parent {
                 !isContained(entity.getBBCenterY(), tree.getCenterY(), entity.getBBHalfHeight());
     }
 
+    private static boolean isContained(Entity entity, double centerX, double centerY, double
+            looseHalfLength) {
+        return Math.abs(centerX - entity.getBBCenterX()) < looseHalfLength - entity
+                .getBBHalfWidth() && Math.abs(centerY - entity.getBBCenterY()) <
+                looseHalfLength - entity.getBBHalfHeight();
+    }
+
     private boolean isContained(double shapePosition, double treePosition, double shapeHalfLength) {
-        return Math.abs(treePosition - shapePosition) < tree.getHalfLength() - shapeHalfLength;
+        return Math.abs(treePosition - shapePosition) < tree.getLooseHalfLength() -
+                shapeHalfLength;
     }
 
+    @Override
     public int getEntityCount() {
         return tree.getEntityCount();
     }
+
+    @Override
+    public int copyEntities(Entity[] entities) {
+        return tree.copyEntities(entities, 0);
+    }
+
+    @Override
+    public void queryRegion(double minX, double minY, double maxX, double maxY, int typeMask,
+                            QueryResult result) {
+        tree.queryRegion(queryTime, minX, minY, maxX, maxY, typeMask, result);
+    }
+
+    @Override
+    public void queryNearest(double x, double y, int typeMask, QueryResult result) {
+        tree.queryNearest(queryTime, x, y, typeMask, result);
+    }
+
+    @Override
+    public void cast(CastResult result) {
+        tree.cast(queryTime, result);
+    }
 }
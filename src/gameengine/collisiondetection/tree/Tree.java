@@ -1,11 +1,15 @@
 package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.CastResult;
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.CollisionLayers;
+import gameengine.collisiondetection.PairCache;
+import gameengine.collisiondetection.QueryResult;
 import gameengine.collisiondetection.World;
+import gameengine.collisiondetection.shapes.CircleBatch;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.entities.Entity;
-import gameengine.entities.RegionSensor;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
@@ -17,14 +21,41 @@ import gameengine.motion.environmentmotions.WorldEffect;
  */
 public abstract class Tree {
     public static final int GROW_THRESH = 2;
+    /**
+     * The entities at the level of a tree are checked against each other with a
+     * {@link CircleBatch} once there are at least this many and they are all circles
+     */
+    public static final int BATCH_THRESH = 8;
     private static final double EXPAND_RATE = 1.5;
     protected World world = null;
     protected double centerX, centerY, halfLength, minX, minY, maxX, maxY;
+    /**
+     * Half length of the region that entities in this tree must be contained in, this is the
+     * half length scaled by the world's looseness.
+     */
+    protected double looseHalfLength;
+    /**
+     * True if the loose bounds of this tree are larger than its square, in which case the
+     * entities of sibling trees can overlap.
+     */
+    protected boolean loose;
     protected double timeInTree = 0;
     protected Entity[] entities = new Entity[GROW_THRESH + 2];
     protected int entityListPos, entityCount;
+    /**
+     * Summary of the layers of the entities in this tree and its sub trees, see
+     * {@link CollisionLayers}. Adding an entity sets its bit here and in the ancestors right
+     * away, removing one leaves the bit set until {@link #updateLayerMasks()} recalculates it.
+     */
+    protected long layerMask;
     protected Parent parent;
+    /**
+     * The pool of the world this tree was last initialized in, kept after {@link #clear()} so
+     * the tree can be recycled back into it.
+     */
+    protected NodePool pool;
     protected CollisionNode node = new CollisionNode();
+    private CircleBatch circleBatch = null;
 
     public Tree() {
     }
@@ -44,6 +75,7 @@ public abstract class Tree {
     protected void init(World world) {
         assert world != null;
         this.world = world;
+        pool = world.getNodePool();
         world.getCollisionList().add(node);
     }
 
@@ -52,6 +84,7 @@ public abstract class Tree {
         assert world != null;
         this.world = world;
         this.parent = parent;
+        pool = world.getNodePool();
         world.getCollisionList().add(node);
         resize(centerX, centerY, halfLength);
     }
@@ -68,6 +101,10 @@ public abstract class Tree {
         return halfLength;
     }
 
+    public double getLooseHalfLength() {
+        return looseHalfLength;
+    }
+
     public double getMinX() {
         return minX;
     }
@@ -84,6 +121,22 @@ public abstract class Tree {
         return maxY;
     }
 
+    public double getLooseMinX() {
+        return centerX - looseHalfLength;
+    }
+
+    public double getLooseMinY() {
+        return centerY - looseHalfLength;
+    }
+
+    public double getLooseMaxX() {
+        return centerX + looseHalfLength;
+    }
+
+    public double getLooseMaxY() {
+        return centerY + looseHalfLength;
+    }
+
     public int getEntityCount() {
         return entityCount;
     }
@@ -95,6 +148,7 @@ public abstract class Tree {
         parent = null;
         entityCount = 0;
         entityListPos = 0;
+        layerMask = 0;
         timeInTree = 0;
         world.getCollisionList().remove(node);
         world = null;
@@ -107,7 +161,84 @@ public abstract class Tree {
     }
 
     private boolean isContained(double shapePosition, double treePosition, double shapeHalfLength) {
-        return Math.abs(treePosition - shapePosition) <= getHalfLength() - shapeHalfLength;
+        return Math.abs(treePosition - shapePosition) <= looseHalfLength - shapeHalfLength;
+    }
+
+    /**
+     * @return true if the entity's bounding box overlaps the loose bounds of this tree
+     */
+    public boolean overlapsLooseBounds(Entity entity) {
+        return Math.abs(getCenterX() - entity.getBBCenterX()) < entity.getBBHalfWidth() +
+                looseHalfLength && Math.abs(getCenterY() - entity.getBBCenterY()) < entity
+                .getBBHalfHeight() + looseHalfLength;
+    }
+
+    /**
+     * @return true if this tree or its sub trees might hold an entity that the entity collides
+     * with
+     */
+    public boolean mayCollideWith(Entity entity) {
+        return (layerMask & world.getCollisionLayers().getSummary(entity.getLayer())) != 0;
+    }
+
+    /**
+     * Recalculates the layer masks of this tree and its sub trees from the entities they hold,
+     * clearing the bits of the entities that have left.
+     *
+     * @return the layer mask of this tree
+     */
+    public long updateLayerMasks() {
+        long mask = 0;
+        for (int i = 0; i < entityListPos; i++) {
+            mask |= CollisionLayers.getSummaryBit(entities[i].getLayer());
+        }
+        layerMask = mask;
+        return mask;
+    }
+
+    /**
+     * @return true if the loose bounds of the two trees overlap
+     */
+    public boolean overlapsLooseBounds(Tree other) {
+        double combinedHalfLength = looseHalfLength + other.looseHalfLength;
+        return Math.abs(getCenterX() - other.getCenterX()) < combinedHalfLength && Math.abs
+                (getCenterY() - other.getCenterY()) < combinedHalfLength;
+    }
+
+    /**
+     * Checks the entities in this tree and its sub trees for collisions with the entities in
+     * the other tree, used to check the children of a loose tree against each other.
+     *
+     * @param result      the {@link Collision} to update
+     * @param temp        scratch {@link Collision} used by the narrow phase
+     * @param timeToCheck the amount of time to check for collisions
+     * @param other       the tree to check against, it must not be an ancestor or descendant of
+     *                    this tree
+     */
+    void initCheckSubTreeAgainst(Collision result, Collision temp, double timeToCheck, Tree
+            other) {
+        timeInTree = 0;
+        for (int i = 0; i < entityListPos; i++) {
+            Entity entity = entities[i];
+            if (other.mayCollideWith(entity) && other.overlapsLooseBounds(entity)) {
+                other.initCheckCollisionWithEntity(result, temp, timeToCheck, entity);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #initCheckSubTreeAgainst(Collision, Collision, double, Tree)} but used
+     * during an update, the entities are first moved to the current time.
+     */
+    void checkSubTreeAgainst(Collision result, double timeToCheck, double currentTime, Tree
+            other) {
+        updateEntityPositions(currentTime);
+        for (int i = 0; i < entityListPos; i++) {
+            Entity entity = entities[i];
+            if (other.mayCollideWith(entity) && other.overlapsLooseBounds(entity)) {
+                other.checkCollisionWithEntity(result, timeToCheck, entity);
+            }
+        }
     }
 
     public void removeEntityFromList(int index) {
@@ -134,26 +265,155 @@ public abstract class Tree {
     }
 
     protected void collideShapes(Collision result, double timeToCheck, Entity a, Entity b) {
-        if ((world.getCollisionGroups()[a.getEntityType()] & b.getEntityTypeBitMask()) == 0 || a
-                instanceof RegionSensor && ((RegionSensor) a).containsEntity(b) || b instanceof
-                RegionSensor && ((RegionSensor) b).containsEntity(a)) {
+        collideShapes(result, world.getTempCollision(), timeToCheck, a, b);
+    }
+
+    /**
+     * Checks for a collision between the two entities and stores it in the result if it happens
+     * before the collision that is already in the result.
+     *
+     * @param result      the {@link Collision} to update
+     * @param temp        scratch {@link Collision} used by the narrow phase, this must not be
+     *                    shared with other threads
+     * @param timeToCheck the amount of time to check for collisions
+     * @param a           the first entity
+     * @param b           the second entity
+     */
+    protected void collideShapes(Collision result, Collision temp, double timeToCheck, Entity a,
+                                 Entity b) {
+        if (!world.getCollisionLayers().collides(a.getLayer(), b.getLayer()) || a.isAsleep() && b
+                .isAsleep()) {
             return;
         }
-        Collision temp = world.getTempCollision();
         temp.setNoCollision(); // TODO might not need to do this because collideShapes
         // overwrites temp anyway
-        Shape.collideShapes(a.getShape(), b.getShape(), timeToCheck, temp);
-        if (temp.getCollisionTime() < result.getCollisionTime() - timeInTree) {
+        PairCache pairCache = world.getPairCache();
+        if (pairCache == null) {
+            Shape.collideShapes(a.getShape(), b.getShape(), timeToCheck, temp);
+        } else {
+            pairCache.collideShapes(a, b, timeInTree, timeToCheck, temp);
+        }
+        if (temp.getCollisionTime() < toTreeTime(result.getCollisionTime())) {
             assert temp.getCollisionTime() <= timeToCheck : "too long" + temp.getCollisionTime()
                     + ", " + timeToCheck;
             result.set(temp);
-            result.setCollisionTime(result.getCollisionTime() + timeInTree);
+            result.setCollisionTime(toWorldTime(result.getCollisionTime()));
         }
     }
 
+    /**
+     * @param worldTime a time since the start of the update, like the times in the
+     *                  {@link CollisionList}
+     * @return the time since {@link #timeInTree}
+     */
+    private double toTreeTime(double worldTime) {
+        return worldTime - timeInTree;
+    }
+
+    /**
+     * @param time a time since {@link #timeInTree}
+     * @return the time since the start of the update
+     */
+    private double toWorldTime(double time) {
+        return time + timeInTree;
+    }
+
+    /**
+     * Rounds the time the same way that storing it in a {@link Collision} with
+     * {@link #collideShapes(Collision, Collision, double, Entity, Entity)} and reading it back
+     * rounds it, so a time can be compared with the times that will be stored without the
+     * narrow phase being run first.
+     *
+     * @param time a time since {@link #timeInTree}
+     * @return the time after moving it to the start of the update and back
+     */
+    private double roundThroughTreeTime(double time) {
+        return toTreeTime(toWorldTime(time));
+    }
+
+    /**
+     * Gathers the entities at this level into the {@link CircleBatch} of this tree if they can
+     * be checked against each other with it. The entities must not move until they have all
+     * been checked with {@link #collideWithLevel(Collision, Collision, double, int, boolean)}.
+     *
+     * @return true if the batch was filled
+     */
+    protected boolean gatherLevel() {
+        // the pair cache has its own results for each pair
+        if (entityListPos < BATCH_THRESH || world.getPairCache() != null) {
+            return false;
+        }
+        if (circleBatch == null) {
+            circleBatch = new CircleBatch();
+        }
+        return circleBatch.gather(entities, entityListPos);
+    }
+
+    /**
+     * Checks the entity at the index against the entities after it at this level, the result is
+     * the same as calling {@link #collideShapes(Collision, Collision, double, Entity, Entity)}
+     * for each of them in order.
+     *
+     * @param result      the {@link Collision} to update
+     * @param temp        scratch {@link Collision} used by the narrow phase
+     * @param timeToCheck the amount of time to check for collisions
+     * @param index       the index of the entity at this level
+     * @param batched     true if {@link #gatherLevel()} filled the batch
+     */
+    protected void collideWithLevel(Collision result, Collision temp, double timeToCheck, int
+            index, boolean batched) {
+        Entity a = entities[index];
+        if (!batched) {
+            for (int j = index + 1; j < entityListPos; j++) {
+                collideShapes(result, temp, timeToCheck, a, entities[j]);
+            }
+            return;
+        }
+        CircleBatch batch = circleBatch;
+        batch.collide(index, index + 1, timeToCheck);
+        CollisionLayers collisionLayers = world.getCollisionLayers();
+        int layer = a.getLayer();
+        boolean asleep = a.isAsleep();
+        // the earliest time is picked the way collideShapes would pick it, including the
+        // rounding of moving the times in and out of this tree's time
+        double earliestTime = toTreeTime(result.getCollisionTime());
+        int earliest = -1;
+        for (int j = index + 1; j < entityListPos; j++) {
+            double time = batch.getTime(j);
+            if (time < earliestTime) {
+                Entity b = entities[j];
+                if (collisionLayers.collides(layer, b.getLayer()) && !(asleep && b.isAsleep()) &&
+                        Shape.boundingBoxesOverlap(a, b)) {
+                    earliest = j;
+                    earliestTime = roundThroughTreeTime(time);
+                }
+            }
+        }
+        if (earliest != -1) {
+            collideShapes(result, temp, timeToCheck, a, entities[earliest]);
+        }
+    }
+
+    /**
+     * Checks for collisions between the entity and the static entities of the world and stores
+     * the earliest one in the result if it happens before the collision that is already in the
+     * result.
+     *
+     * @param result      the {@link Collision} to update
+     * @param temp        scratch {@link Collision} used by the narrow phase, this must not be
+     *                    shared with other threads
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity to check, it must be in this tree
+     */
+    protected void collideWithStatics(Collision result, Collision temp, double timeToCheck,
+                                      Entity entity) {
+        world.getStaticLayer().collide(entity, timeToCheck, timeInTree, result, temp);
+    }
+
     protected void preRelocateRemove(int i) {
         removeEntityFromList(i);
         entityCount--;
+        world.getRelocationStats().containmentRelocation();
     }
 
     /**
@@ -172,12 +432,30 @@ public abstract class Tree {
         entities[entityListPos] = entity;
         entity.setContainingTree(this, entityListPos);
         entityListPos++;
+        addToLayerMask(CollisionLayers.getSummaryBit(entity.getLayer()));
+    }
+
+    /**
+     * Sets the bit in the layer mask of this tree and its ancestors, the ancestors already have
+     * every bit that is set here so this stops at the first tree that has it.
+     */
+    public void addToLayerMask(long bit) {
+        Tree tree = this;
+        while ((tree.layerMask & bit) == 0) {
+            tree.layerMask |= bit;
+            if (!(tree.parent instanceof Tree)) {
+                return;
+            }
+            tree = (Tree) tree.parent;
+        }
     }
 
     protected void resize(double centerX, double centerY, double halfLength) {
         this.centerX = centerX;
         this.centerY = centerY;
         this.halfLength = halfLength;
+        looseHalfLength = halfLength * world.getLooseness();
+        loose = looseHalfLength > halfLength;
         minX = centerX - halfLength;
         minY = centerY - halfLength;
         maxX = centerX + halfLength;
@@ -187,10 +465,13 @@ public abstract class Tree {
     public void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
         for (int i = 0; i < entityListPos; i++) {
             Entity entity = entities[i];
-            int collisionTypeBitMask = entity.getEntityTypeBitMask();
+            if (entity.isAsleep()) {
+                continue;
+            }
+            int layer = entity.getLayer();
             for (int j = 0; j < worldEffects.size(); j++) {
                 WorldEffect worldEffect = worldEffects.get(j);
-                if (worldEffect.isCollisionTypeAffected(collisionTypeBitMask)) {
+                if (worldEffect.isLayerAffected(layer)) {
                     worldEffect.applyEffect(entity);
                 }
             }
@@ -214,8 +495,7 @@ public abstract class Tree {
         assert entityCount == 0 : "entityCount: " + entityCount;
         assert entityListPos == 0 : "entityListPos: " + entityListPos;
         assert parent == null : "parent: " + parent;
-        assert node.getPrev() == null && node.getNext() == null : "node.prev: " + node.getPrev()
-                + " node.next: " + node.getNext();
+        assert node.getHeapIndex() == -1 : "node.heapIndex: " + node.getHeapIndex();
         assert timeInTree == 0;
         assert world == null;
         return true;
@@ -267,6 +547,85 @@ public abstract class Tree {
 
     public abstract void ensureEntitiesAreContained(double time);
 
+    /**
+     * Copies the entities of this tree and all of its sub trees into the array.
+     *
+     * @param dest   the array to copy the entities into, it must have room for all of them
+     * @param offset the index to copy the first entity to
+     * @return the index after the last copied entity
+     */
+    int copyEntities(Entity[] dest, int offset) {
+        System.arraycopy(entities, 0, dest, offset, entityListPos);
+        return offset + entityListPos;
+    }
+
+    /**
+     * Adds the entities of this tree and its sub trees that could overlap the region to the
+     * result.
+     *
+     * @param time the time since the start of the update to move the entities to first
+     */
+    void queryRegion(double time, double minX, double minY, double maxX, double maxY, int
+            typeMask, QueryResult result) {
+        updateEntityPositions(time);
+        for (int i = 0; i < entityListPos; i++) {
+            result.addIfOverlapping(entities[i], minX, minY, maxX, maxY, typeMask);
+        }
+    }
+
+    /**
+     * Offers the entities of this tree and its sub trees that are nearer than the result's max
+     * distance to the result.
+     *
+     * @param time the time since the start of the update to move the entities to first
+     */
+    void queryNearest(double time, double x, double y, int typeMask, QueryResult result) {
+        updateEntityPositions(time);
+        for (int i = 0; i < entityListPos; i++) {
+            result.offerIfMatching(entities[i], x, y, typeMask);
+        }
+    }
+
+    /**
+     * Checks the entities of this tree and its sub trees against the running cast.
+     *
+     * @param time the time since the start of the update to move the entities to first
+     */
+    void cast(double time, CastResult result) {
+        updateEntityPositions(time);
+        for (int i = 0; i < entityListPos; i++) {
+            result.castEntity(entities[i]);
+        }
+    }
+
+    /**
+     * @return the time that the cast enters the loose bounds of this tree or
+     * {@link Shape#NO_COLLISION} if it doesn't enter them before the current best hit
+     */
+    double getEntryTime(CastResult result) {
+        return result.getEntryTime(centerX - looseHalfLength, centerY - looseHalfLength, centerX
+                + looseHalfLength, centerY + looseHalfLength);
+    }
+
+    /**
+     * @return true if the region overlaps the loose bounds of this tree, which contain every
+     * entity in this tree
+     */
+    boolean isOverlappingRegion(double minX, double minY, double maxX, double maxY) {
+        return centerX + looseHalfLength >= minX && centerX - looseHalfLength <= maxX && centerY
+                + looseHalfLength >= minY && centerY - looseHalfLength <= maxY;
+    }
+
+    /**
+     * @return the distance from the point to the loose bounds of this tree, 0 if the point is
+     * inside them
+     */
+    double getDistanceTo(double x, double y) {
+        double deltaX = Math.max(Math.abs(x - centerX) - looseHalfLength, 0);
+        double deltaY = Math.max(Math.abs(y - centerY) - looseHalfLength, 0);
+        return Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+    }
+
     public abstract Tree updateAllEntityPositionsAndResize(double currentTime);
 
     public abstract void updateEntityPositions(double elapsedTime);
@@ -275,6 +634,16 @@ public abstract class Tree {
 
     public abstract void initCalcCollision(double timeToCheck);
 
+    /**
+     * Calculates the initial collisions of this tree and all of its sub trees without updating
+     * their positions in the {@link CollisionList}. The list must be reordered with
+     * {@link CollisionList#heapify()} once all the trees have been calculated.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param temp        scratch {@link Collision} used by the narrow phase
+     */
+    public abstract void initCalcCollisionUnsorted(double timeToCheck, Collision temp);
+
     public abstract void relocateAndCheck(double timeToCheck, Entity entity);
 
     public abstract void entityRemovedDuringCollision(double timeToCheck, Entity entity, double
@@ -282,8 +651,8 @@ public abstract class Tree {
 
     public abstract void addAndCheck(double timeToCheck, Entity entity);
 
-    public abstract void initCheckCollisionWithEntity(Collision result, double timeToCheck,
-                                                      Entity entity);
+    public abstract void initCheckCollisionWithEntity(Collision result, Collision temp, double
+            timeToCheck, Entity entity);
 
     public abstract void checkCollisionWithEntity(Collision result, double timeToCheck, Entity
             entity);
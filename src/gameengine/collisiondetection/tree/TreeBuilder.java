@@ -0,0 +1,155 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.math.Utils;
+
+import java.util.Arrays;
+
+/**
+ * Builds a complete spatial tree for a batch of entities in one pass. The entities are sorted
+ * by the Morton code of their bounding box centers, which puts the entities of each sub tree
+ * next to each other, and the tree is then built from the bottom up, splitting every node that
+ * {@link Leaf#tryResize()} would have split.
+ *
+ * @author davidrusu
+ */
+class TreeBuilder {
+    /**
+     * The number of bits of each coordinate in the Morton codes, nodes deeper than this are not
+     * split any further
+     */
+    private static final int MAX_DEPTH = 16;
+    private static final int GRID_SIZE = 1 << MAX_DEPTH;
+    private final World world;
+    private final Entity[] entities;
+    private int[] order, scratch;
+
+    TreeBuilder(World world, Entity[] entities) {
+        this.world = world;
+        this.entities = entities;
+    }
+
+    /**
+     * Builds the tree, the bounding boxes of the entities must already be calculated and the
+     * square must contain all of them.
+     *
+     * @param parent the parent of the root of the built tree
+     * @return the root of the built tree
+     */
+    Tree build(Parent parent, double centerX, double centerY, double halfLength) {
+        sortByMortonCode(centerX - halfLength, centerY - halfLength, halfLength * 2);
+        scratch = new int[entities.length];
+        Tree root = build(centerX, centerY, halfLength, 0, entities.length, 0);
+        root.parent = parent;
+        return root;
+    }
+
+    private void sortByMortonCode(double minX, double minY, double length) {
+        double scale = GRID_SIZE / length;
+        long[] keys = new long[entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            Entity entity = entities[i];
+            int x = toGrid((entity.getBBCenterX() - minX) * scale);
+            int y = toGrid((entity.getBBCenterY() - minY) * scale);
+            // y is in the odd bits so the codes sort in the same order as the top left, top right,
+            // bottom left and bottom right children
+            keys[i] = ((long) Utils.interleaveBits(x, y) << 32) | i;
+        }
+        Arrays.sort(keys);
+        order = new int[entities.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+    }
+
+    private static int toGrid(double position) {
+        return (int) Math.max(0, Math.min(GRID_SIZE - 1, position));
+    }
+
+    private Tree build(double centerX, double centerY, double halfLength, int start, int end, int
+            depth) {
+        if (end - start < Tree.GROW_THRESH || depth == MAX_DEPTH) {
+            Leaf leaf = Leaf.createInstance(world, null, centerX, centerY, halfLength);
+            for (int i = start; i < end; i++) {
+                leaf.addEntity(entities[order[i]]);
+            }
+            return leaf;
+        }
+
+        // the Morton order already groups the entities by quadrant, the partition is done on the
+        // node's actual center so that rounding in the codes can't put an entity in the wrong
+        // child, it is stable so each group stays in Morton order
+        int[] counts = new int[5];
+        for (int i = start; i < end; i++) {
+            counts[getChild(entities[order[i]], centerX, centerY, halfLength)]++;
+        }
+        int[] offsets = new int[5];
+        offsets[0] = start;
+        for (int i = 1; i < 5; i++) {
+            offsets[i] = offsets[i - 1] + counts[i - 1];
+        }
+        int[] ends = new int[5];
+        System.arraycopy(offsets, 0, ends, 0, 5);
+        for (int i = start; i < end; i++) {
+            int index = order[i];
+            int child = getChild(entities[index], centerX, centerY, halfLength);
+            scratch[ends[child]] = index;
+            ends[child]++;
+        }
+        System.arraycopy(scratch, start, order, start, end - start);
+
+        double quartLength = halfLength / 2;
+        double left = centerX - quartLength;
+        double right = centerX + quartLength;
+        double top = centerY - quartLength;
+        double bottom = centerY + quartLength;
+        int childDepth = depth + 1;
+        Tree topLeft = build(left, top, quartLength, offsets[1], ends[1], childDepth);
+        Tree topRight = build(right, top, quartLength, offsets[2], ends[2], childDepth);
+        Tree bottomLeft = build(left, bottom, quartLength, offsets[3], ends[3], childDepth);
+        Tree bottomRight = build(right, bottom, quartLength, offsets[4], ends[4], childDepth);
+        Quad quad = Quad.createInstance(world, null, centerX, centerY, halfLength, topLeft,
+                topRight, bottomLeft, bottomRight);
+        for (int i = offsets[0]; i < ends[0]; i++) {
+            quad.addEntityToLevel(entities[order[i]]);
+        }
+        return quad;
+    }
+
+    /**
+     * @return 0 if the entity stays in the node, otherwise 1 to 4 for the top left, top right,
+     * bottom left and bottom right children, using the same rules as {@link Quad#addEntity}
+     */
+    private int getChild(Entity entity, double centerX, double centerY, double halfLength) {
+        double looseness = world.getLooseness();
+        if (looseness > 1) {
+            double quartLength = halfLength / 2;
+            double looseQuartLength = quartLength * looseness;
+            boolean isLeft = entity.getBBCenterX() < centerX;
+            boolean isTop = entity.getBBCenterY() < centerY;
+            double childX = isLeft ? centerX - quartLength : centerX + quartLength;
+            double childY = isTop ? centerY - quartLength : centerY + quartLength;
+            if (Math.abs(childX - entity.getBBCenterX()) > looseQuartLength - entity
+                    .getBBHalfWidth() || Math.abs(childY - entity.getBBCenterY()) >
+                    looseQuartLength - entity.getBBHalfHeight()) {
+                return 0;
+            }
+            return (isTop ? 1 : 3) + (isLeft ? 0 : 1);
+        }
+        int column;
+        if (entity.getBBMaxX() < centerX) {
+            column = 0;
+        } else if (entity.getBBMinX() > centerX) {
+            column = 1;
+        } else {
+            return 0;
+        }
+        if (entity.getBBMaxY() < centerY) {
+            return 1 + column;
+        } else if (entity.getBBMinY() > centerY) {
+            return 3 + column;
+        }
+        return 0;
+    }
+}
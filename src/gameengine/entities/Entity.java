@@ -1,6 +1,9 @@
 package gameengine.entities;
 
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.CollisionLayers;
 import gameengine.collisiondetection.EntityType;
+import gameengine.collisiondetection.StaticLayer;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.collisiondetection.tree.Tree;
 import gameengine.graphics.Renderer;
@@ -9,10 +12,18 @@ import gameengine.motion.motions.NormalMotion;
 import gameengine.physics.Material;
 
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class Entity {
     private static EntityType defaultEntityType = EntityType.STANDARD;
     private static Material defaultMaterial = Material.getDefaultMaterial();
+    // entities can be created on the threads of separate worlds
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    /**
+     * Identifies this entity for the hashed structures, ids are handed out in the order the
+     * entities are created and are never 0.
+     */
+    private final int id = nextId.getAndIncrement();
     protected Material material;
     protected double mass;
     protected double x, y, dx, dy;
@@ -24,6 +35,12 @@ public abstract class Entity {
     private Shape shape;
     private Tree containingTree;
     private int indexInTree;
+    private Broadphase broadphase;
+    private int broadphaseIndex = -1;
+    private StaticLayer staticLayer;
+    private Island island = null;
+    private int restingFrames = 0;
+    private int sleepIndex = -1;
 
     public Entity(double x, double y, Shape shape) {
         this(x, y, defaultMaterial, shape);
@@ -60,6 +77,10 @@ public abstract class Entity {
         defaultMaterial = material;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public double getX() {
         return x;
     }
@@ -93,6 +114,7 @@ public abstract class Entity {
     }
 
     public void setVelocity(double dx, double dy) {
+        wake();
         this.dx = dx;
         this.dy = dy;
     }
@@ -166,19 +188,45 @@ public abstract class Entity {
     }
 
     public void setEntityType(EntityType type) {
-        entityType = type.ordinal();
-        entityTypeBitMask = 1 << entityType;
+        setLayer(type.ordinal());
+    }
+
+    /**
+     * Puts this entity in a collision layer, the ids of the {@link EntityType EntityTypes} are
+     * their ordinals and the other layers are registered with the world's
+     * {@link gameengine.collisiondetection.CollisionLayers}.
+     *
+     * @param layer the id of the layer
+     */
+    public void setLayer(int layer) {
+        entityType = layer;
+        entityTypeBitMask = layer < Integer.SIZE ? 1 << layer : 0;
+        if (containingTree != null) {
+            containingTree.addToLayerMask(CollisionLayers.getSummaryBit(layer));
+        }
     }
 
+    /**
+     * @return the id of the collision layer of this entity, the same as {@link #getLayer()}
+     */
     public int getEntityType() {
         return entityType;
     }
 
+    public int getLayer() {
+        return entityType;
+    }
+
+    /**
+     * @return the bit of this entity's layer in an {@link EntityType} bitmask, or 0 if the layer
+     * doesn't fit in one
+     */
     public int getEntityTypeBitMask() {
         return entityTypeBitMask;
     }
 
     public void addVelocity(double dx, double dy) {
+        wake();
         this.dx += dx;
         this.dy += dy;
     }
@@ -216,6 +264,53 @@ public abstract class Entity {
         setIndexInTree(indexInTree);
     }
 
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+
+    /**
+     * Sets the {@link Broadphase} that this entity is stored in, this is only called by the
+     * {@link Broadphase} implementations.
+     *
+     * @param broadphase the {@link Broadphase} storing this entity or null if it was removed
+     */
+    public void setBroadphase(Broadphase broadphase) {
+        this.broadphase = broadphase;
+    }
+
+    /**
+     * @return the index of this entity in the structure of its {@link Broadphase}, how this is
+     * used is up to the {@link Broadphase}
+     */
+    public int getBroadphaseIndex() {
+        return broadphaseIndex;
+    }
+
+    public void setBroadphaseIndex(int broadphaseIndex) {
+        this.broadphaseIndex = broadphaseIndex;
+    }
+
+    public StaticLayer getStaticLayer() {
+        return staticLayer;
+    }
+
+    /**
+     * Sets the {@link StaticLayer} that this entity is stored in, this is only called by the
+     * {@link StaticLayer}.
+     *
+     * @param staticLayer the {@link StaticLayer} storing this entity or null if it was removed
+     */
+    public void setStaticLayer(StaticLayer staticLayer) {
+        this.staticLayer = staticLayer;
+    }
+
+    /**
+     * @return true if this entity is in the {@link StaticLayer} of the world
+     */
+    public boolean isStatic() {
+        return staticLayer != null;
+    }
+
     public Shape getShape() {
         return shape;
     }
@@ -255,14 +350,20 @@ public abstract class Entity {
     }
 
     public void removeFromWorld() {
-        containingTree.removeEntityFromWorld(this);
+        wake();
+        if (staticLayer != null) {
+            staticLayer.removeEntity(this);
+            return;
+        }
+        broadphase.removeEntity(this);
+        broadphase = null;
     }
 
     /**
      * @return True if this entity is still in the world.
      */
     public boolean isInWorld() {
-        return containingTree != null;
+        return broadphase != null || staticLayer != null;
     }
 
     public void drawLineToPartition(Graphics2D g, Color color) {
@@ -283,10 +384,53 @@ public abstract class Entity {
     }
 
     public void setPosition(double x, double y) {
+        wake();
         this.x = x;
         this.y = y;
     }
 
+    /**
+     * @return true if this entity was put to sleep by the world's {@link SleepManager}
+     */
+    public boolean isAsleep() {
+        return island != null;
+    }
+
+    /**
+     * Wakes this entity and the rest of the entities that were put to sleep with it.
+     */
+    public void wake() {
+        if (island != null) {
+            island.wake();
+        }
+    }
+
+    void sleep(Island island) {
+        setVelocity(0, 0);
+        this.island = island;
+    }
+
+    void wokenUp() {
+        island = null;
+        restingFrames = 0;
+    }
+
+    void rested(boolean isResting) {
+        restingFrames = isResting ? restingFrames + 1 : 0;
+    }
+
+    int getRestingFrames() {
+        return restingFrames;
+    }
+
+    int getSleepIndex() {
+        return sleepIndex;
+    }
+
+    void setSleepIndex(int sleepIndex) {
+        this.sleepIndex = sleepIndex;
+    }
+
     public Motion getMotion() {
         return motion;
     }
@@ -298,6 +442,7 @@ public abstract class Entity {
      * @param motion the {@link Motion} that will control the velocity of this {@link Entity}
      */
     public void setMotion(Motion motion) {
+        wake();
         this.motion = motion;
     }
 
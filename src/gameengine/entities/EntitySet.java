@@ -0,0 +1,186 @@
+package gameengine.entities;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A set of entities keyed by their ids. The ids and entities are kept in two open addressed
+ * arrays with linear probing, so there are no per entry objects and the set only allocates when
+ * it grows.
+ *
+ * Removing an entity shifts the entries after it back into its slot instead of leaving a
+ * tombstone, so lookups never slow down from removals and entities can be removed while the set
+ * is being iterated with {@link #forEachConditionallyRemove(Predicate)}.
+ *
+ * @author davidrusu
+ */
+public class EntitySet {
+    private static final int INITIAL_CAPACITY = 16; //this must be a power of 2
+    private static final int EXPANSION_FACTOR = 2; //this must be a power of 2
+    private static final int EMPTY = 0;
+    private int[] ids;
+    private Entity[] entities;
+    private int size = 0;
+    private int mask;
+
+    public EntitySet() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if the entity was added, false if it was already in the set
+     */
+    public boolean add(Entity entity) {
+        int id = entity.getId();
+        int index = indexOf(id);
+        if (ids[index] == id) {
+            return false;
+        }
+        // the load is kept at or below 3/4 so there is always an empty slot to end the probes
+        if ((size + 1) * 4 > ids.length * 3) {
+            rehash(ids.length * EXPANSION_FACTOR);
+            index = indexOf(id);
+        }
+        ids[index] = id;
+        entities[index] = entity;
+        size++;
+        return true;
+    }
+
+    public boolean contains(Entity entity) {
+        int id = entity.getId();
+        return ids[indexOf(id)] == id;
+    }
+
+    /**
+     * @return true if the entity was removed, false if it wasn't in the set
+     */
+    public boolean remove(Entity entity) {
+        int id = entity.getId();
+        int index = indexOf(id);
+        if (ids[index] != id) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(ids, EMPTY);
+        Arrays.fill(entities, null);
+        size = 0;
+    }
+
+    /**
+     * Iterates through the entities in this set notifying the consumer for each one, the set must
+     * not be changed by the consumer.
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<Entity> consumer) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != EMPTY) {
+                consumer.accept(entities[i]);
+            }
+        }
+    }
+
+    /**
+     * Iterates through the entities in this set and removes each entity that passes the
+     * condition, every entity is tested exactly once.
+     *
+     * @param condition The condition that controls if an entity should be removed
+     * @return The number of entities that were removed
+     */
+    public int forEachConditionallyRemove(Predicate<Entity> condition) {
+        if (size == 0) {
+            return 0;
+        }
+        // starting after an empty slot means that the removals only shift entries that haven't
+        // been tested yet back into the slot being tested
+        int start = 0;
+        while (ids[start] != EMPTY) {
+            start++;
+        }
+        int numRemoved = 0;
+        for (int i = 1; i <= ids.length; i++) {
+            int index = (start + i) & mask;
+            while (ids[index] != EMPTY && condition.test(entities[index])) {
+                removeAt(index);
+                numRemoved++;
+            }
+        }
+        return numRemoved;
+    }
+
+    /**
+     * @return the slot holding the id, or the empty slot that it would be stored in
+     */
+    private int indexOf(int id) {
+        int index = hash(id) & mask;
+        while (ids[index] != EMPTY && ids[index] != id) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int hash(int id) {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Empties the slot and moves each following entry of its probe run that can be found from
+     * an earlier slot back into the gap, so no tombstones are needed.
+     */
+    private void removeAt(int index) {
+        size--;
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (ids[next] != EMPTY) {
+            int home = hash(ids[next]) & mask;
+            // the entry can fill the gap if the gap isn't before its home slot in the probe run
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                ids[gap] = ids[next];
+                entities[gap] = entities[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ids[gap] = EMPTY;
+        entities[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldIds = ids;
+        Entity[] oldEntities = entities;
+        allocate(capacity);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != EMPTY) {
+                int index = indexOf(oldIds[i]);
+                ids[index] = oldIds[i];
+                entities[index] = oldEntities[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        entities = new Entity[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package gameengine.entities;
+
+/**
+ * A group of entities that were touching each other when they were put to sleep, waking any one
+ * of them wakes the whole group.
+ *
+ * @author davidrusu
+ */
+class Island {
+    private static final int EXPANSION_FACTOR = 2;
+    private Entity[] members = new Entity[4];
+    private int size = 0;
+
+    void add(Entity entity) {
+        if (size == members.length) {
+            Entity[] temp = members;
+            members = new Entity[size * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, members, 0, size);
+        }
+        members[size] = entity;
+        size++;
+    }
+
+    void wake() {
+        for (int i = 0; i < size; i++) {
+            members[i].wokenUp();
+        }
+    }
+}
@@ -1,19 +1,31 @@
 package gameengine.entities;
 
-import Utilities.HashSet;
+import gameengine.collisiondetection.SensorLayer;
+import gameengine.collisiondetection.SensorListener;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.graphics.Renderer;
 
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 
 /**
  * A region sensor detects when entities enter the region.
+ *
+ * Sensors are kept in the {@link SensorLayer} of the world instead of the broadphase, they never
+ * take part in the collision events. The layer checks which entities overlap each sensor once at
+ * the end of every update and tells the {@link SensorListener} which of them entered, stayed in
+ * or exited the sensor. The entities are kept in {@link EntitySet EntitySets}, so checking a
+ * sensor doesn't allocate once its sets have grown to fit.
  */
 public class RegionSensor extends Entity {
-    private HashSet<Entity> containedEntities = new HashSet<>();
-    private Predicate<Entity> outOfBounds = entity -> {
-        return !entity.isInWorld() || !getShape().isOverlappingShape(entity.getShape());
+    private EntitySet containedEntities = new EntitySet();
+    private EntitySet previousEntities = new EntitySet();
+    private SensorListener listener = null;
+    private SensorLayer sensorLayer = null;
+    private int indexInLayer = -1;
+    private final Consumer<Entity> notifyExited = entity -> {
+        if (listener != null) {
+            listener.entityExited(this, entity);
+        }
     };
 
     public RegionSensor(double x, double y, Shape shape) {
@@ -22,13 +34,19 @@ public class RegionSensor extends Entity {
 
     @Override
     public void update(double elapsedTime) {
-        containedEntities.forEachConditionallyRemove(outOfBounds);
     }
 
-    public void addEntity(Entity entity) {
-        containedEntities.add(entity);
+    public void setListener(SensorListener listener) {
+        this.listener = listener;
+    }
+
+    public SensorListener getListener() {
+        return listener;
     }
 
+    /**
+     * @return true if the entity overlapped this sensor at the end of the last update
+     */
     public boolean containsEntity(Entity entity) {
         return containedEntities.contains(entity);
     }
@@ -37,6 +55,78 @@ public class RegionSensor extends Entity {
         containedEntities.forEach(consumer);
     }
 
+    public SensorLayer getSensorLayer() {
+        return sensorLayer;
+    }
+
+    public int getIndexInLayer() {
+        return indexInLayer;
+    }
+
+    /**
+     * Sets the {@link SensorLayer} that this sensor is stored in, this is only called by the
+     * {@link SensorLayer}. Leaving the layer forgets the contained entities without notifying
+     * the listener.
+     *
+     * @param sensorLayer  the {@link SensorLayer} storing this sensor or null if it was removed
+     * @param indexInLayer the index of this sensor in the layer
+     */
+    public void setSensorLayer(SensorLayer sensorLayer, int indexInLayer) {
+        this.sensorLayer = sensorLayer;
+        this.indexInLayer = indexInLayer;
+        if (sensorLayer == null) {
+            containedEntities.clear();
+            previousEntities.clear();
+        }
+    }
+
+    /**
+     * Starts a new check of the entities overlapping this sensor, called by the
+     * {@link SensorLayer} before it calls {@link #entityDetected(Entity)}.
+     */
+    public void beginDetection() {
+        EntitySet temp = previousEntities;
+        previousEntities = containedEntities;
+        containedEntities = temp;
+    }
+
+    /**
+     * Called by the {@link SensorLayer} for each entity that overlaps this sensor.
+     */
+    public void entityDetected(Entity entity) {
+        containedEntities.add(entity);
+        if (previousEntities.remove(entity)) {
+            if (listener != null) {
+                listener.entityStayed(this, entity);
+            }
+        } else if (listener != null) {
+            listener.entityEntered(this, entity);
+        }
+    }
+
+    /**
+     * Ends the check of the entities overlapping this sensor, the entities that were contained
+     * and weren't detected again have exited.
+     */
+    public void endDetection() {
+        previousEntities.forEach(notifyExited);
+        previousEntities.clear();
+    }
+
+    @Override
+    public void removeFromWorld() {
+        if (sensorLayer != null) {
+            sensorLayer.removeSensor(this);
+            return;
+        }
+        super.removeFromWorld();
+    }
+
+    @Override
+    public boolean isInWorld() {
+        return sensorLayer != null || super.isInWorld();
+    }
+
     @Override
     public void draw(Renderer renderer) {
         getShape().draw(renderer);
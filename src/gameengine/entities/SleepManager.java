@@ -0,0 +1,174 @@
+package gameengine.entities;
+
+import gameengine.collisiondetection.Broadphase;
+
+/**
+ * Puts entities that have stopped moving to sleep. Sleeping entities aren't moved, their
+ * motions and the world effects aren't updated, and they aren't checked for collisions with
+ * other sleeping entities.
+ *
+ * An {@link Entity} is resting while its speed is at most the velocity threshold. The entities
+ * that collided with each other during an update form an island, and an island is put to sleep
+ * once all of its entities have been resting for the number of sleep frames. Entities with
+ * infinite mass don't join islands, so a floor doesn't tie every {@link Entity} resting on it
+ * into one island.
+ *
+ * Collisions, {@link Entity#setVelocity(double, double)},
+ * {@link Entity#setPosition(double, double)} and {@link Entity#setMotion} wake an
+ * {@link Entity} and the rest of its island.
+ *
+ * @author davidrusu
+ */
+public class SleepManager {
+    public static final double DEFAULT_VELOCITY_THRESHOLD = 0.002;
+    public static final int DEFAULT_SLEEP_FRAMES = 60;
+    private static final int EXPANSION_FACTOR = 2;
+    private double velocityThreshold = DEFAULT_VELOCITY_THRESHOLD;
+    private int sleepFrames = DEFAULT_SLEEP_FRAMES;
+    private Entity[] entities = new Entity[0];
+    private int[] parents = new int[0], minRestingFrames = new int[0];
+    private Island[] islands = new Island[0];
+    private Entity[] contacts = new Entity[16];
+    private int contactsSize = 0;
+
+    /**
+     * Wakes both entities and puts them in the same island, called for every collision that is
+     * handled.
+     */
+    public void entitiesCollided(Entity a, Entity b) {
+        a.wake();
+        b.wake();
+        if (a.getMass() == Double.POSITIVE_INFINITY || b.getMass() == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        if (contactsSize + 2 > contacts.length) {
+            Entity[] temp = contacts;
+            contacts = new Entity[contacts.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, contacts, 0, contactsSize);
+        }
+        contacts[contactsSize] = a;
+        contacts[contactsSize + 1] = b;
+        contactsSize += 2;
+    }
+
+    /**
+     * Updates how long each awake {@link Entity} has been resting for and puts the islands that
+     * have been resting for long enough to sleep, called at the end of every update.
+     *
+     * @param broadphase the {@link Broadphase} holding the entities of the world
+     */
+    public void endUpdate(Broadphase broadphase) {
+        int count = copyEntities(broadphase);
+        double thresholdSquared = velocityThreshold * velocityThreshold;
+        for (int i = 0; i < count; i++) {
+            Entity entity = entities[i];
+            entity.setSleepIndex(i);
+            parents[i] = i;
+            minRestingFrames[i] = Integer.MAX_VALUE;
+            if (!entity.isAsleep()) {
+                double dx = entity.getDX(), dy = entity.getDY();
+                entity.rested(dx * dx + dy * dy <= thresholdSquared);
+            }
+        }
+        for (int i = 0; i < contactsSize; i += 2) {
+            int a = contacts[i].getSleepIndex(), b = contacts[i + 1].getSleepIndex();
+            // entities that were removed from the world during the update are skipped
+            if (isIndexOf(a, contacts[i], count) && isIndexOf(b, contacts[i + 1], count)) {
+                parents[find(a)] = find(b);
+            }
+            contacts[i] = null;
+            contacts[i + 1] = null;
+        }
+        contactsSize = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (!entities[i].isAsleep()) {
+                int root = find(i);
+                minRestingFrames[root] = Math.min(minRestingFrames[root], entities[i]
+                        .getRestingFrames());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Entity entity = entities[i];
+            if (!entity.isAsleep()) {
+                int root = find(i);
+                if (minRestingFrames[root] >= sleepFrames) {
+                    if (islands[root] == null) {
+                        islands[root] = new Island();
+                    }
+                    islands[root].add(entity);
+                    entity.sleep(islands[root]);
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            entities[i] = null;
+            islands[i] = null;
+        }
+    }
+
+    /**
+     * Wakes every {@link Entity} in the world, used when the world effects change.
+     */
+    public void wakeAll(Broadphase broadphase) {
+        int count = copyEntities(broadphase);
+        for (int i = 0; i < count; i++) {
+            entities[i].wake();
+            entities[i] = null;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < contactsSize; i++) {
+            contacts[i] = null;
+        }
+        contactsSize = 0;
+    }
+
+    /**
+     * @param velocityThreshold the highest speed that an {@link Entity} is resting at
+     */
+    public void setVelocityThreshold(double velocityThreshold) {
+        this.velocityThreshold = velocityThreshold;
+    }
+
+    public double getVelocityThreshold() {
+        return velocityThreshold;
+    }
+
+    /**
+     * @param sleepFrames the number of updates that an island has to be resting for before it
+     *                    is put to sleep
+     */
+    public void setSleepFrames(int sleepFrames) {
+        this.sleepFrames = sleepFrames;
+    }
+
+    public int getSleepFrames() {
+        return sleepFrames;
+    }
+
+    private int copyEntities(Broadphase broadphase) {
+        int count = broadphase.getEntityCount();
+        if (entities.length < count) {
+            int capacity = Math.max(count, entities.length * EXPANSION_FACTOR);
+            entities = new Entity[capacity];
+            parents = new int[capacity];
+            minRestingFrames = new int[capacity];
+            islands = new Island[capacity];
+        }
+        return broadphase.copyEntities(entities);
+    }
+
+    private boolean isIndexOf(int index, Entity entity, int count) {
+        return index >= 0 && index < count && entities[index] == entity;
+    }
+
+    private int find(int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+}
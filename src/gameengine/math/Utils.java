@@ -47,4 +47,25 @@ public class Utils {
         n |= n >>> 16;
         return n + 1;
     }
+
+    /**
+     * Returns the Morton code of the point, the bits of x are placed in the even bits and the
+     * bits of y in the odd bits.
+     *
+     * @param x The x coordinate, only the lower 16 bits are used
+     * @param y The y coordinate, only the lower 16 bits are used
+     * @return The Morton code of the point
+     */
+    public static int interleaveBits(int x, int y) {
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+
+    private static int spreadBits(int value) {
+        value &= 0x0000FFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
 }
\ No newline at end of file
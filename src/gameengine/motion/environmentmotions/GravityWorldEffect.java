@@ -21,6 +21,7 @@ public class GravityWorldEffect extends WorldEffect {
     public void set(double gX, double gY) {
         this.gX = gX;
         this.gY = gY;
+        markChanged();
     }
 
     @Override
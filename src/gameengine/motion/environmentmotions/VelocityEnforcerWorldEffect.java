@@ -25,11 +25,13 @@ public class VelocityEnforcerWorldEffect extends WorldEffect {
     public void setMaxSpeed(double maxSpeed) {
         this.maxSpeed = maxSpeed;
         calcMaxSpeedRatio();
+        markChanged();
     }
 
     public void setRatio(double ratio) {
         this.ratio = ratio;
         calcMaxSpeedRatio();
+        markChanged();
     }
 
     @Override
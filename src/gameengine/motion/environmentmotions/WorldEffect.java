@@ -1,34 +1,97 @@
 package gameengine.motion.environmentmotions;
 
+import gameengine.collisiondetection.CollisionLayers;
 import gameengine.collisiondetection.EntityType;
 import gameengine.entities.Entity;
 
+import java.util.Arrays;
+
 /**
  * documentation
  *
  * @author davidrusu
  */
 public abstract class WorldEffect {
+    private static final int EXPANSION_FACTOR = 2;
     private int collisionTypes = 0;
+    private long[] layers = new long[1];
+    private boolean changed = false;
 
     public void addCollisionType(EntityType type) {
-        int ordinal = type.ordinal();
-
-        int mask = 1 << ordinal;
-        collisionTypes |= mask;
+        addLayer(type.ordinal());
     }
 
     public void removeCollisionType(EntityType type) {
-        int ordinal = type.ordinal();
+        removeLayer(type.ordinal());
+    }
 
-        int mask = ~(1 << ordinal);
-        collisionTypes &= mask;
+    /**
+     * Makes the effect apply to the entities in the layer, this works for the registered layers
+     * of {@link CollisionLayers} as well as the {@link EntityType EntityTypes}.
+     *
+     * @param layer the id of the layer
+     */
+    public void addLayer(int layer) {
+        if (layer < 0) {
+            throw new IllegalArgumentException("Layer ids can't be negative: " + layer);
+        }
+        int word = layer >>> 6;
+        if (word >= layers.length) {
+            layers = Arrays.copyOf(layers, Math.max(word + 1, layers.length * EXPANSION_FACTOR));
+        }
+        layers[word] |= 1L << layer;
+        if (layer < Integer.SIZE) {
+            collisionTypes |= 1 << layer;
+        }
+        markChanged();
     }
 
+    public void removeLayer(int layer) {
+        if (layer < 0) {
+            throw new IllegalArgumentException("Layer ids can't be negative: " + layer);
+        }
+        int word = layer >>> 6;
+        if (word < layers.length) {
+            layers[word] &= ~(1L << layer);
+        }
+        if (layer < Integer.SIZE) {
+            collisionTypes &= ~(1 << layer);
+        }
+        markChanged();
+    }
+
+    /**
+     * @return true if the effect applies to the entities in the layer
+     */
+    public boolean isLayerAffected(int layer) {
+        return CollisionLayers.isInMask(layers, layer);
+    }
+
+    /**
+     * @param collisionTypeBitMask an {@link EntityType} bitmask, which only has bits for the
+     *                             first 32 layers, use {@link #isLayerAffected(int)} for the rest
+     */
     public boolean isCollisionTypeAffected(int collisionTypeBitMask) {
         return (collisionTypes & collisionTypeBitMask) != 0;
     }
 
+    /**
+     * Records that the effect on the entities changed, which wakes the sleeping entities of the
+     * world at the start of the next update.
+     */
+    protected void markChanged() {
+        changed = true;
+    }
+
+    /**
+     * @return true if the effect changed since the last time this was called
+     */
+    public boolean pollChanged() {
+        boolean wasChanged = changed;
+        changed = false;
+        return wasChanged;
+    }
+
     public abstract void reset();
 
     public abstract void update(double elapsedTime);